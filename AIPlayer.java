@@ -69,6 +69,14 @@ public class AIPlayer extends Thread
 	private static final int MV_FORCE_MEDIUM 	= 50;
 	private static final int MV_FORCE_MAXIMAL 	= 100;
 	
+	// the goal posts I am shooting at
+	private static final Vector2d PALO_ARRIBA = new Vector2d(WorldModel.LENGTH/2, 3);
+	private static final Vector2d PALO_ABAJO = new Vector2d(WorldModel.LENGTH/2, -3);
+	
+	// if true, I print out my decisions with the ball 
+	// (this is the only garbage I make in the steady state)
+	private static boolean 	logActions = false;
+	
 	// time interval in steps to print out the idling time statistics
 	private static final int REPORT_STEPS_NUM = 5000;		
 	
@@ -79,6 +87,18 @@ public class AIPlayer extends Thread
 	private DriveData 	aDriveData;
 	private	KickData 	aKickData;
 	
+	// the command objects are reused in every cycle
+	// (the transceiver is done with them once send() returns)
+	private final DriveData 	driveData = new DriveData( 0, 0 );
+	private final KickData 		kickData = new KickData( 0, 0 );
+	private final Packet 		drivePacket = new Packet( Packet.DRIVE, driveData, null, 0 );
+	private final Packet 		kickPacket = new Packet( Packet.KICK, kickData, null, 0 );
+	// (the teleport commands need my side and number, see below)
+	private final TeleportData 	grabData;
+	private final Packet 		grabPacket;
+	private TeleportData 		teleportData;
+	private Packet 				teleportPacket;
+	
 	// the state of the world as perceived by the player 
 	private WorldModel 	aWorldModel;	
 	private WorldData    aWorldData; 		// the visual info about the world
@@ -100,19 +120,73 @@ public class AIPlayer extends Thread
 	private int 		bigInteger = 100;	// is used for calcultaing the ball movement
 	private int			numOfPassDirections = 180;	// is used for passing
 	
+	// the pass lanes are evaluated by the kernel, with the help of the
+	// decision pool shared by all players
+	private PassEvaluator		passEvaluator 
+									= new PassEvaluator( PassLaneKernel.getInstance() );
+	
 	// These variables are used for collecting statistics about lost packets; 
 	// A lost packet is a lost opportunity for the agent to act in curent cycle. 
 	// (Packes are lost if computations are too complex or 
 	// the computer is too slow.)
-	private static final int  MODULUS = 1000;
 	private	int 		receivedPacketCount = 0;	
-	private	int 		previousReceivedPacketID = -1;	
 	private	int 		lostPacketCount = 0;
-	private double 		lostPacketFactor = 0;
+	private NetworkMonitor	monitor;
+	
+	// the durations (ns) of my first cycles, reported by JitWarmup
+	private long[]		startupNanos = new long[ JitWarmup.STARTUP_CYCLES ];
+	private int 		startupCycles = 0;
+	
+	// my recent cycles, dumped on anomalies (may be null)
+	private FlightRecorder	recorder;
+	
+	// my team's scheduling domain, if the teams are isolated (may be null)
+	private TeamDomain		domain = null;
+	private long 			lastCpuNanos;	// my processor time charged so far
 
 	// this variable is used for calculating the idle time of this thread
 	private double		processingTime;
 	
+	// the time when the server step of the packet processed in this cycle 
+	// started, as estimated by the clock (for the REFEREE packets, the 
+	// time it was received); the command should be sent within one step
+	private long		cycleStartNanos;
+	private ServerClock	clock = new ServerClock();
+	
+	// passing directions that the decision pool failed to evaluate in time
+	private int 		skippedPassDirCount = 0;
+	
+	// the game mode in which I made my current plan (-1 if I have none);
+	// only a plan made in play on may be reused in play on, as the plans
+	// for the restarts are no good once the ball is in play
+	private int 		planMode = -1;
+	
+	// cleared by shutdown(); the thread then exits after its current cycle
+	private volatile boolean 	running = true;
+	
+	// the ball and myself in the next step, as predicted while idle
+	private Vector2d 	predictedBall = new Vector2d();
+	private Vector2d 	predictedMe = new Vector2d();
+	
+	// scratch variables of getBallStopPsn() and getBallInterceptPsn()
+	private final Vector2d 	stopBallPos = new Vector2d();
+	private final Vector2d 	stopBallVel = new Vector2d();
+	private final Vector2d 	interceptBallPos = new Vector2d();
+	private final Vector2d 	interceptBallVel = new Vector2d();
+	private final Vector2d 	interceptMyPos = new Vector2d();
+	private final Vector2d 	interceptMyVel = new Vector2d();
+	private final Vector2d 	interceptMyAcc = new Vector2d();
+	
+	// my role in the formation (0 is the goalie)
+	private int 		role;
+	
+	// my own random numbers (Math.random is shared by all threads)
+	private SplittableRandom	random;
+	
+	// my team's shared intentions (may be null)
+	private TeamBlackboard	blackboard = null;
+	private TeamBlackboard.Intent	intent = new TeamBlackboard.Intent();
+	
 	public AIPlayer( 	Transceiver transceiver, 
 				  		InitData initData, 
 				  		char side, 
@@ -123,13 +197,19 @@ public class AIPlayer extends Thread
 		System.out.print("Starting " + getName() );
 		this.transceiver = transceiver;
 		this.myside = side;	  	
+		this.role = role;
 		this.amIGoalie = ( role == 0 );
+		this.random = AgentRandom.forPlayer( side, role, 1 );
 		if ( amIGoalie )
 			System.out.println("  ** goalie **");
 		else 
 			System.out.println();
 		this.aFormation = aFormation;
 		this.aWorldModel = new WorldModel( transceiver, side, role );
+		this.monitor = new NetworkMonitor( getName() );
+		this.recorder = FlightRecorder.create( getName() );
+		this.grabData = new TeleportData( TeleportData.GRAB, side, new Vector2d() );
+		this.grabPacket = new Packet( Packet.TELEPORT, grabData, null, 0 );
 	}
 	
 	
@@ -141,28 +221,106 @@ public class AIPlayer extends Thread
 	{	
 	    long count = 0;
 	    processingTime = 0;
+	    lastCpuNanos = TeamDomain.getThreadCpuNanos();
 	    
-		while(true)	// this infinite loop terminates with the application
+		while( running )	// this loop normally terminates with the application
 		{
 			try
 			{				
 				// I sense the world state 
 				Packet receivedPacket = transceiver.receive();
+				AgentEvents.Cycle cycleEvent = AgentEvents.beginCycle();
 	            
 	            // get the time before the computations
 	            long timeBefore = System.currentTimeMillis();
+	            long readNanos = System.nanoTime();
+	            cycleStartNanos = readNanos;
+	            monitor.onPacket( receivedPacket, readNanos );
+	            if ( receivedPacket.packetType == Packet.SEE ) {
+	            	clock.onSee( ((SeeData)receivedPacket.data).time, cycleStartNanos );
+	            	cycleStartNanos = clock.getStepStartNanos();
+	            }
+	            if ( recorder != null )
+	            	recorder.begin( receivedPacket, readNanos, cycleStartNanos );
 	            // idle time includes waiting for the packet to arrive 
 	            // (most part of the time) and receiving it (a small fraction)
 
 				// I update my perception of the state of the world 
+				AgentEvents.Perception perceptionEvent = AgentEvents.beginPerception();
 				aWorldModel.updateAll( receivedPacket );
 				aWorldData = aWorldModel.getWorldData(); 	
+				if ( perceptionEvent != null ) {
+					perceptionEvent.player = getName();
+					perceptionEvent.seeTime = getSeeTime();
+					perceptionEvent.packetType = receivedPacket.packetType;
+					perceptionEvent.kickable = aWorldModel.isBallKickable();
+					perceptionEvent.gameMode = aWorldModel.getGameMode();
+					perceptionEvent.commit();
+				}
+				if ( recorder != null )
+					recorder.perceived( aWorldModel, System.nanoTime() );
+				
+				// I find out how critical my decision is in this cycle;
+				// if I am not critical and time is running short, 
+				// I keep doing what I planned in the previous cycle 
+				int tier = CriticalityScheduler.getTier( aWorldModel );
+				boolean canReuse = planMode == RefereeData.PLAY_ON 
+						&& receivedPacket.packetType == Packet.SEE
+						&& aWorldModel.getGameMode() == RefereeData.PLAY_ON;
+				boolean planReused = CriticalityScheduler.beginPlanning( 
+									domain, this, tier, cycleStartNanos, canReuse );
 				
-				// I plan my actions and save them to the World Model
-				aWorldModel = plan4All( aWorldModel );
+				// (the scheduler counts me as planning until endCycle(), 
+				// whatever happens in between)
+				boolean late = false;
+				try {
+					// I plan my actions and save them to the World Model
+					if ( !planReused ) {
+						AgentEvents.Planning planningEvent = AgentEvents.beginPlanning();
+						planMode = -1;
+						aWorldModel = plan4All( aWorldModel );
+						planMode = aWorldModel.getGameMode();
+						if ( planningEvent != null ) {
+							planningEvent.player = getName();
+							planningEvent.seeTime = getSeeTime();
+							planningEvent.action = WorldModel.getActionName( 
+													aWorldModel.getActionType() );
+							planningEvent.possession = aWorldModel.getBallPossession();
+							planningEvent.commit();
+						}
+					}
+					if ( recorder != null )
+						recorder.planned( aWorldModel, tier, planReused, System.nanoTime() );
+					
+					// I tell my teammates what I am going to do
+					publishIntent( aWorldModel );
+					
+					// I execute actions by sending commands to server
+					execute( aWorldModel );
+					if ( receivedPacket.packetType == Packet.SEE )
+						late = clock.commandSent( System.nanoTime() );
+				} finally {
+					CriticalityScheduler.endCycle( domain, tier, planReused, 
+												   cycleStartNanos );
+				}
 				
-				// I execute actions by sending commands to server
-				execute( aWorldModel );
+				// I keep the record of this cycle; if my command was late, 
+				// the recent cycles may tell why
+				if ( recorder != null ) {
+					recorder.executed( aKickData, aDriveData, late, System.nanoTime() );
+					if ( late )
+						recorder.trigger( "late" );
+					recorder.checkSignal();
+				}
+				if ( cycleEvent != null ) {
+					cycleEvent.player = getName();
+					cycleEvent.seeTime = getSeeTime();
+					cycleEvent.packetType = receivedPacket.packetType;
+					cycleEvent.tier = tier;
+					cycleEvent.planReused = planReused;
+					cycleEvent.late = late;
+					cycleEvent.commit();
+				}
 				
 				try {
 					aWorldModel.setActionTime( aWorldData.time );					
@@ -174,7 +332,19 @@ public class AIPlayer extends Thread
 				
 				// I do some housekeeping
 				receivedPacketCount++;
-				checkLostPackets( receivedPacket );
+				long cycleNanos = System.nanoTime() - readNanos;
+				monitor.cycleDone( cycleNanos );
+				if ( domain != null ) {
+					// (including my planning ahead after the previous cycle)
+					long cpuNanos = TeamDomain.getThreadCpuNanos();
+					domain.charge( cpuNanos - lastCpuNanos );
+					lastCpuNanos = cpuNanos;
+				}
+				if ( startupCycles < startupNanos.length ) {
+					startupNanos[ startupCycles++ ] = cycleNanos;
+					if ( startupCycles == startupNanos.length )
+						JitWarmup.reportStartup( startupNanos );
+				}
 				/*
 				if ( receivedPacketCount%100 == 0 )
 					System.out.println("* packet " + receivedPacketCount 
@@ -189,8 +359,21 @@ public class AIPlayer extends Thread
 	            count++;
 	            long timeAfter = System.currentTimeMillis();
 	            calcIdlingPercent( timeBefore, timeAfter, count );
+	            
+	            // while waiting for the next packet, I plan ahead 
+	            if ( receivedPacket.packetType == Packet.SEE )
+	            	planAhead();
+			}
+			catch( IOException ioe ) { 
+				if ( recorder != null && running )
+					recorder.trigger( "exception" );
+			}
+			catch( RuntimeException e ) {
+				// this ends my thread; the record may show what led to it
+				if ( recorder != null )
+					recorder.dump( "exception" );
+				throw e;
 			}
-			catch( IOException ioe ) { }
 		}
 	} 
 
@@ -199,6 +382,9 @@ public class AIPlayer extends Thread
 	// execute action by generating a commandPacket for the server
 	private void execute( WorldModel world ) throws IOException
 	{   
+		aDriveData = null;
+		aKickData = null;
+		
 		switch( world.getActionType() )
 		{
 			case WorldModel.NOACTION:	; 					break; // do nothing
@@ -211,6 +397,13 @@ public class AIPlayer extends Thread
 			case WorldModel.MOVEWBALL:	moveWithBall();		break;
 			default: ;  
 		}
+		
+		// my dash is needed for predicting my own motion; its direction
+		// has already been transformed to the true side when sent
+		if ( aDriveData != null )
+			world.getPredictor().setDash( 
+						WorldData.getRealDir( myside, aDriveData.dir ), 
+						aDriveData.force );
 	}
  
 
@@ -262,7 +455,12 @@ public class AIPlayer extends Thread
 
 				if( world.isMyTeamOffside() || aWorldData.getBall().isGrabbed ) 
 					world.setActionType( WorldModel.MOVE );
-				else 
+				else if ( isBallChasedByTeammate() ) {
+					// a teammate closer to the ball is already chasing it
+					blackboard.chaseAvoided();
+					world.determineWhereToMove();
+					world.setActionType( WorldModel.MOVE );
+				} else 
 					world.setActionType( WorldModel.CHASE );
 		    
 		    } else {
@@ -299,7 +497,8 @@ public class AIPlayer extends Thread
 			// catch, or pass the ball, or move with it
 			if ( shouldICatchBall( world ) ) {
 				
-				System.out.println(myside + " == Goalie caught the ball"); 
+				if ( logActions )
+					System.out.println(myside + " == Goalie caught the ball"); 
 				timeToGrabLeft = WorldModel.MAX_GRABBED_STEPS; 
 				world.setActionType( WorldModel.GRAB );
 				isGrabbedByMyself = true;
@@ -428,9 +627,11 @@ public class AIPlayer extends Thread
 		double myX = aWorldData.getMyself().position.getX();	
 		double dist = aWorldData.getMyself().position
 											.distance(world.getOppGoal());
-		if( dist < 20.0  && myX < 48.0 ) {	// menor que 15 y no sobre la linea, patear!
+		if( dist < world.getParameters().getShootDistance()  
+				&& myX < 48.0 ) {	// menor que 15 y no sobre la linea, patear!
 			should = true;
-			System.out.println( aWorldData.getMyself().id + "-" + myside 
+			if ( logActions )
+				System.out.println( aWorldData.getMyself().id + "-" + myside 
 						+ " shooting at the goal, dist=" + (float)dist );
 		}
 		return should; 
@@ -478,7 +679,7 @@ public class AIPlayer extends Thread
 			return false;	// the goalie is not supposed to dribble !
 		
 		if ( world.countOpponentsInCircle( 	aWorldData.getMyself().position, 
-											5.0 ) > 0 ) {		// magic number
+								world.getParameters().getDribbleRadius() ) > 0 ) {
 			// there is at least one opponent player near me;
 			// therefore, I should not dribble 
 			return false;
@@ -490,10 +691,11 @@ public class AIPlayer extends Thread
 		world.setKickForce( K_FORCE_AUTOP_RAP );
 		double dir = aWorldData.getMyself().position
 						.direction( world.getOppGoal() ) 
-						+ (Math.random() - 0.5)*30.0;
+						+ (random.nextDouble() - 0.5)*30.0;
 		world.setKickDirection( dir );
 		
 		//if ( playerTeamID*playerNumber == 6 )
+		if ( logActions )
 			System.out.println( aWorldData.getMyself().id + "-" + myside
 				+ " Dribble in dir = " + (float)world.getKickDirection() );
 
@@ -529,23 +731,35 @@ public class AIPlayer extends Thread
 	private boolean shouldIPass( WorldModel world, int numOfDir )
 	{
 		Vector teammates = getTeammates ( world ); 
-		Vector opponents = getOpponents ( world ); 
 		double xx, yy;
 		
 		boolean should = false;	
 		double min_risk = 100000;			// minimum is sought
 		double best_pass_dir = 0;
+		TuningParameters parameters = world.getParameters();
+		
+		// I evaluate the lanes in all 'numOfDir' directions at once;
+		// the directions not evaluated by the deadline are skipped;
+		// my teammates in the offside position are not worth simulating
+		AgentEvents.PassEvaluation passEvent = AgentEvents.beginPassEvaluation();
+		passEvaluator.evaluate( aWorldData, world.getMotionTracker(), getForce(), 
+								world.getOffsideLine().getLine(), numOfDir, 
+								DecisionPool.getDeadline( cycleStartNanos ) );
+		PassLaneSnapshot passSnapshot = passEvaluator.getSnapshot();
+		skippedPassDirCount += passEvaluator.getNumOfSkipped();
 		
 		// I consider 'numOfDir' possible passing directions and 
 		// select the least risky one, if possible
-		for( int i=0; i<numOfDir; i++ )
+		for( int i=0; i<passSnapshot.getNumOfDir(); i++ )
 		{
+			if ( passEvaluator.isSkipped( i ) )
+				continue;
+			
 			double risk =0;
 			double our_value = 0, their_value;
 			
 			// the possible passing direction
-			double pass_dir = i * 360/numOfDir;
-			pass_dir = Util.normal_dir( pass_dir );
+			double pass_dir = passSnapshot.getDirection( i );
 			
 			// don't kick it out of the pitch
 			xx = aWorldData.getMyself().position.getX() 
@@ -555,18 +769,16 @@ public class AIPlayer extends Thread
 			
 			if( xx > WorldModel.LENGTH/2 || xx < -WorldModel.LENGTH/2 
 										 || yy > WorldModel.WIDTH/2 || yy < -WorldModel.WIDTH/2 ) 
-				risk = risk + 55500;
+				risk = risk + parameters.getOutOfFieldRisk();
 						
 			// are my opponents in this direction? (greater is better)
-			//System.out.println( "-- checking opponents in pass_dir = " + (float)pass_dir );
-			their_value = getDirectionValueForTeam( opponents, pass_dir, false );
+			their_value = passSnapshot.getValue( PassLaneSnapshot.OPPONENTS, i );
 			
-			if( their_value > 1900.0 )
+			if( their_value > passSnapshot.getClearanceThreshold() )
 			{
 				// pass_dir is rather clear of the opponents
 				// are my teammates in this direction? (smaller is better)
-				//System.out.println( "-- checking teammates in pass_dir = " + (float)pass_dir );
-				our_value = getDirectionValueForTeam( teammates, pass_dir, true );				
+				our_value = passSnapshot.getValue( PassLaneSnapshot.TEAMMATES, i );
 				risk = risk + our_value; 
 				
 				// passing the ball to the opponent side is better 
@@ -588,8 +800,22 @@ public class AIPlayer extends Thread
 			*/
 		}	
 		
-		if ( min_risk > 250)
+		if ( min_risk > parameters.getMaxPassRisk() )
 			should = false;
+
+		if ( passEvent != null ) {
+			passEvent.player = getName();
+			passEvent.seeTime = getSeeTime();
+			passEvent.directions = passSnapshot.getNumOfDir();
+			passEvent.evaluated = passEvaluator.getNumOfEvaluated();
+			passEvent.skipped = passEvaluator.getNumOfSkipped();
+			passEvent.simulations = passSnapshot.getNumOfSimulations();
+			passEvent.speculationHit = passEvaluator.wasSpeculationHit();
+			passEvent.bestRisk = min_risk;
+			passEvent.passDir = best_pass_dir;
+			passEvent.pass = should;
+			passEvent.commit();
+		}
 			
 		if ( should ) {
 			world.setActionType( WorldModel.PASS );		
@@ -622,6 +848,7 @@ public class AIPlayer extends Thread
 			world.setKickDirection( best_pass_dir );
 			
 			//if ( playerTeamID*playerNumber == 6 )
+			if ( logActions )
 				System.out.println( aWorldData.getMyself().id + "-" + myside 
 							+ " PASS min_risk=" + (float)min_risk 
 							+ " dir=" + (float)best_pass_dir 
@@ -684,8 +911,8 @@ public class AIPlayer extends Thread
 
 		double dir;
 		
-		Vector2d paloArriba = new Vector2d(WorldModel.LENGTH/2, 3);
-		Vector2d paloAbajo = new Vector2d(WorldModel.LENGTH/2, -3);
+		Vector2d paloArriba = PALO_ARRIBA;
+		Vector2d paloAbajo = PALO_ABAJO;
 		
 		if(y == 0.0) { //Arquero en el medio, patear a nuestro palo
 			
@@ -720,6 +947,37 @@ public class AIPlayer extends Thread
 							aWorldModel.getKickForce() ); 
 	}
 
+	// this method sends a command packet to the server; all my commands
+	// go through here
+	private void send( Packet commandPacket ) throws IOException
+	{
+		AgentEvents.Command commandEvent = AgentEvents.beginCommand();
+		if ( commandEvent != null ) {
+			// the direction is taken before it is converted to the real side
+			commandEvent.player = getName();
+			commandEvent.seeTime = getSeeTime();
+			commandEvent.packetType = commandPacket.packetType;
+			if ( commandPacket.data instanceof KickData ) {
+				commandEvent.dir = ((KickData)commandPacket.data).dir;
+				commandEvent.force = ((KickData)commandPacket.data).force;
+			} else if ( commandPacket.data instanceof DriveData ) {
+				commandEvent.dir = ((DriveData)commandPacket.data).dir;
+				commandEvent.force = ((DriveData)commandPacket.data).force;
+			}
+		}
+		aWorldData.send( commandPacket );
+		if ( commandEvent != null )
+			commandEvent.commit();
+	}
+
+
+	// returns the step of the latest SEE packet, or -1 before the first one
+	private int getSeeTime()
+	{
+		return ( aWorldData == null ) ? -1 : aWorldData.time;
+	}
+
+
 	// this method sends the kick packe the othe server
 	// it is recommanded to use just one method, as it also resents some
 	// class variables 
@@ -729,13 +987,24 @@ public class AIPlayer extends Thread
 		isGrabbedByMyself = false;
 		timeToGrabLeft = 0;
 		
-		aKickData = new KickData( direction, force );
-		Packet commandPacket = new Packet( 
-									Packet.KICK, 
-									aKickData, 
-									Africa_Team.address, 
-									Africa_Team.port );
-		aWorldData.send( commandPacket );
+		aKickData = kickData;
+		aKickData.dir = direction;
+		aKickData.force = force;
+		kickPacket.address = Africa_Team.address;
+		kickPacket.port = Africa_Team.port;
+		send( kickPacket );
+	}
+
+
+	// this method sends the drive packet to the server
+	private void sendDrivePacket( double direction, double force ) throws IOException
+	{
+		aDriveData = driveData;
+		aDriveData.dir = direction;
+		aDriveData.force = force;
+		drivePacket.address = Africa_Team.address;
+		drivePacket.port = Africa_Team.port;
+		send( drivePacket );
 	}
 
 
@@ -747,17 +1016,15 @@ public class AIPlayer extends Thread
 	
 	private void grabBall() throws IOException
 	{
+		// TELEPORT action is only allowed for the goalie and
+		// for any player in the 'before kick off' state;
+		// (rules are enforced by the server)
 		Vector2d position = aWorldData.getMyself().position;
-		TeleportData aTeleportData = new TeleportData( TeleportData.GRAB, 
-														myside, position );
-		Packet commandPacket = new Packet( 
-									Packet.TELEPORT, 	// TELEPORT action is only allowed for the goalie and
-														// for any player in the 'before kick off' state;
-														// (rules are enforced by the server)
-									aTeleportData, 
-									Africa_Team.address, 
-									Africa_Team.port );
-		aWorldData.send( commandPacket );
+		grabData.newX = position.getX();
+		grabData.newY = position.getY();
+		grabPacket.address = Africa_Team.address;
+		grabPacket.port = Africa_Team.port;
+		send( grabPacket );
 	}
   	
 
@@ -765,21 +1032,15 @@ public class AIPlayer extends Thread
 	// my home position without delay
 	private void teleportMyself( WorldModel world ) 
 	{		
-		TeleportData aTeleportData = 
-			new TeleportData( 	myside, 
-								playerNumber,		
-								world.getHomePos().getX(), 
-								world.getHomePos().getY() );
-		
-		Packet commandPacket = 
-			new Packet( Packet.TELEPORT, 	// TELEPORT action is only allowed for the goalie and
-											// for any player in the 'before kick off' state;
-											// (rules are enforced by the server)
-						aTeleportData, 
-						Africa_Team.address, 
-						Africa_Team.port );
+		// TELEPORT action is only allowed for the goalie and
+		// for any player in the 'before kick off' state;
+		// (rules are enforced by the server)
+		teleportData.newX = world.getHomePos().getX();
+		teleportData.newY = world.getHomePos().getY();
+		teleportPacket.address = Africa_Team.address;
+		teleportPacket.port = Africa_Team.port;
 		try {
-			aWorldData.send( commandPacket );
+			send( teleportPacket );
 		} catch ( IOException e ) {
 				System.out.println("teleportMyself() " + e ); 
 		}		
@@ -798,6 +1059,7 @@ public class AIPlayer extends Thread
 										.direction( world.getOppGoal() ) );
 		
 		//if ( playerTeamID*playerNumber == 6 )
+		if ( logActions )
 			System.out.println( aWorldData.getMyself().id + "-" + myside 
 				+ " Clear ball in dir = " + (float)world.getKickDirection() );
 	}
@@ -810,13 +1072,7 @@ public class AIPlayer extends Thread
 		double direction2Ball = aWorldData.getMyself()
 									.position.direction( getBallInterceptPsn() );
 																		
-		aDriveData = new DriveData( direction2Ball, getForce() );
-		Packet commandPacket = new Packet( 
-									Packet.DRIVE, 
-									aDriveData, 
-									Africa_Team.address, 
-									Africa_Team.port );
-		aWorldData.send( commandPacket );
+		sendDrivePacket( direction2Ball, getForce() );
 	}
 
 	
@@ -844,13 +1100,7 @@ public class AIPlayer extends Thread
 		else
 			force = MV_FORCE_SMALL;
 		
-		aDriveData = new DriveData( direction, force );
-		Packet commandPacket = new Packet( 
-									Packet.DRIVE, 
-									aDriveData, 
-									Africa_Team.address, 
-									Africa_Team.port );
-		aWorldData.send( commandPacket );
+		sendDrivePacket( direction, force );
 	}
 
 	
@@ -862,13 +1112,7 @@ public class AIPlayer extends Thread
 		double direction = aWorldData.getMyself().position
 								.direction( position );
 				
-		aDriveData = new DriveData( direction, MV_FORCE_MAXIMAL );
-		Packet commandPacket = new Packet( 
-									Packet.DRIVE, 
-									aDriveData, 
-									Africa_Team.address, 
-									Africa_Team.port );
-		aWorldData.send( commandPacket );
+		sendDrivePacket( direction, MV_FORCE_MAXIMAL );
 	}
 
 	
@@ -880,13 +1124,7 @@ public class AIPlayer extends Thread
 								.direction( aWorldModel.getFacingPos() );
 				
 		// in the server, a drive with zero force just results in a turn
-		aDriveData = new DriveData( direction, MV_FORCE_NOTHING );
-		Packet commandPacket = new Packet( 
-									Packet.DRIVE, 
-									aDriveData, 
-									Africa_Team.address, 
-									Africa_Team.port );
-		aWorldData.send( commandPacket );
+		sendDrivePacket( direction, MV_FORCE_NOTHING );
 		
 		//System.out.println( aWorldData.getMyself().id + "-" myside
 						//+ " Turning in direction = " + (float)direction );	      
@@ -898,13 +1136,7 @@ public class AIPlayer extends Thread
 	{
 		double direction = aWorldData.getMyself()
 							.position.direction( aWorldModel.getDestination() );
-		aDriveData = new DriveData(direction, MV_FORCE_MAXIMAL);
-		Packet commandPacket = new Packet( 
-									Packet.DRIVE, 
-									aDriveData, 
-									Africa_Team.address, 
-									Africa_Team.port);
-		aWorldData.send(commandPacket);
+		sendDrivePacket( direction, MV_FORCE_MAXIMAL );
 	}
 
 	
@@ -914,72 +1146,14 @@ public class AIPlayer extends Thread
 	 *
 	 *******************************************/
 	
-	// this method evaluates passing direction 'dir' with respect to 
-	// a team of 'players' 
-	// returns a heuristic estimate of the goodness of this direction.
-	// this estimate is greater if the players are far away from the passing direction;
-	// it is equal zero if there is a player very close to this direction
-	//
-	private double getDirectionValueForTeam( Vector players, double dir, boolean myTeam)
-	{
-		int best_time 		= 200, 
-		    mean_time 		= 0;
-		int player_count 	= 0;
-		
-		for ( int i = 0; i < players.size(); i++ )
-		{
-			int time = 0;
-			Player player = (Player) players.elementAt( i );
-			
-			// I exclude myself
-			if ( !player.equals( aWorldData.getMyself() ) ) {
-				
-				double plrdir = aWorldData.getMyself().position
-											.direction( player.position );
-				double ang = Util.normal_dir( plrdir - dir );
-				
-				double cota = myTeam ? 1.0 : 12.0;
-				if( Math.abs( ang ) < cota )
-				{
-					if( aWorldData.getMyself().position.distance( player.position ) < 9.0 )
-					{ // there is a nearby player in this direction
-						mean_time = 0;
-						best_time = 0;
-						player_count = 1;
-						break;
-					}
-					else if( aWorldData.getMyself().position.distance( player.position ) < 40 )
-					{   
-						Vector2d ballSpeed = Vector2d.polar(WorldModel.BALLMAXSPEED, dir);
-						ballSpeed = ballSpeed.timesV( WorldModel.SIM_STEP_SECONDS );
-						time = getInterceptTime( ballSpeed, 
-											  player.position, new Vector2d() );
-						player_count++;
-						if( time < best_time )
-							best_time = time;
-						mean_time += time;
-					}
-				}
-				//System.out.println("id=" + player.id + "-" + player.side 
-					//+ " dir=" + (float)dir + " plrdir=" + (float)plrdir 
-					//+ " ang=" + (float)ang + " time=" + time );
-			}
-		}
-		
-		if( player_count == 0 ) 
-			mean_time = 200;
-		else 
-			mean_time = mean_time / player_count;	// decreaase if more than one player 
-
-		return  mean_time * 2 + best_time * 10;			
-	}
-	
-  
 	// predict ball's stop position
+	// (the returned vector is reused in the next call)
 	private Vector2d getBallStopPsn()
 	{
-		Vector2d ballPos = new Vector2d( aWorldData.getBall().position );
-		Vector2d ballVel = new Vector2d( aWorldModel.getBallVelocity() );
+		Vector2d ballPos = stopBallPos;
+		Vector2d ballVel = stopBallVel;
+		ballPos.setXY( aWorldData.getBall().position );
+		ballVel.setXY( aWorldModel.getBallVelocity() );
 		double ballSpeed = ballVel.norm();
 		while(ballSpeed > 0.1)
 		{
@@ -991,54 +1165,6 @@ public class AIPlayer extends Thread
 	}
 	
 
-	// predict number of cycles the player needs to intercept the ball
-	// velocities are measured in meters per simulation step
-	//
-	private int getInterceptTime( Vector2d initBallVel, 
-					              Vector2d playerPos, 
-					              Vector2d playerVel )
-	{
-		double force;
-		int maxTime = 150;
-		
-		if( aWorldModel.getDistance2Ball() >= 3 ) 
-			force = MV_FORCE_MAXIMAL;
-		else 
-			force = MV_FORCE_MEDIUM;
-		
-		Vector2d ballPos = new Vector2d( aWorldData.getBall().position );
-		Vector2d ballVel = new Vector2d( initBallVel );
-		
-		Vector2d myPos = new Vector2d( playerPos );
-		Vector2d myVel = new Vector2d( playerVel );
-		Vector2d myAcc = new Vector2d();
-		
-		double dir2Ball;
-		
-		for( int i=0; i < maxTime; i++ )
-		{
-			ballPos.add( ballVel );
-			ballVel.times( 1.0 - WorldModel.FRICTIONFACTOR );
-			
-			dir2Ball = myPos.direction( ballPos );
-			
-			myPos.add(myVel);
-			myVel.add(myAcc);
-			myAcc.setX( force * Math.cos( Util.Deg2Rad(dir2Ball) ) * WorldModel.K1
-			                 - myVel.getX() * WorldModel.K2 );
-			                 
-			myAcc.setY( force * Math.sin( Util.Deg2Rad(dir2Ball) ) * WorldModel.K1
-			                 - myVel.getY() * WorldModel.K2 );
-			
-			if ( myPos.distance(ballPos) < WorldModel.CONTROLRANGE ) 
-				return i;				 
-		
-			//System.out.println("-- i=" + i + " myPos=" + myPos + " ballPos=" + ballPos );
-		}
-		return maxTime;	 
-	}
-
-  
   	// determine the force necessary for for chasing the ball
 	private double getForce() 
 	{
@@ -1054,17 +1180,22 @@ public class AIPlayer extends Thread
 	// predict the best ball interception point 
 	// this method could be significantly improved (e.g. with respect to 
 	// the presence of opponent players)
+	// (the returned vector is reused in the next call)
 	//
 	private Vector2d getBallInterceptPsn()
 	{
-		Vector2d ballPos = new Vector2d( aWorldData.getBall().position );
-		Vector2d ballVel = new Vector2d( aWorldModel.getBallVelocity() );
+		Vector2d ballPos = interceptBallPos;
+		Vector2d ballVel = interceptBallVel;
+		ballPos.setXY( aWorldData.getBall().position );
+		ballVel.setXY( aWorldModel.getBallVelocity() );
 		
-		Vector2d myPos = new Vector2d( aWorldData.getMyself().position );
-		Vector2d myVel = new Vector2d( aWorldModel.getMyVelocity() );
+		Vector2d myPos = interceptMyPos;
+		Vector2d myVel = interceptMyVel;
+		myPos.setXY( aWorldData.getMyself().position );
+		myVel.setXY( aWorldModel.getMyVelocity() );
 		
 		// caluclate my acceleration
-		Vector2d myAcc = new Vector2d();
+		Vector2d myAcc = interceptMyAcc;
 		double force = getForce();
 			
 		myAcc.setX(force * Math.cos(Util.Deg2Rad(aWorldData.getMyself().direction)) * WorldModel.K1
@@ -1096,62 +1227,134 @@ public class AIPlayer extends Thread
 	}
 
 
+	// if I am likely to be kicking the ball in the next step, I evaluate
+	// my passes in the state predicted for it; this is done in the time 
+	// I would otherwise wait for the packet, and if the prediction holds,
+	// my decision is ready as soon as the packet arrives
+	private void planAhead()
+	{
+		if ( !PassEvaluator.isSpeculative() || AgentRandom.isDeterministic() )
+			return;
+		if ( aWorldModel.getGameMode() != RefereeData.PLAY_ON )
+			return;
+		// not if my cycle has already been too long
+		if ( System.nanoTime() > DecisionPool.getDeadline( cycleStartNanos ) )
+			return;
+		
+		speculateNextStep();
+	}
+	
+	
+	private void speculateNextStep()
+	{
+		boolean likely = aWorldModel.isBallKickable();
+		if ( !likely && aWorldModel.amInearestTmmToBall() ) {
+			WorldPredictor predictor = aWorldModel.getPredictor();
+			predictor.predictBall( 1, predictedBall, null );
+			predictor.predictMyself( 1, predictedMe, null );
+			likely = predictedBall.distance( predictedMe ) < WorldModel.CONTROLRANGE;
+		}
+		
+		if ( likely ) 
+			passEvaluator.speculate( aWorldData, aWorldModel.getMotionTracker(),
+									 aWorldModel.getPredictor(), getForce(), 
+									 aWorldModel.getOffsideLine().getLine(), 
+									 numOfPassDirections );
+	}
+	
+
+	/*******************************************
+	 *
+	 * 			team coordination methods
+	 *
+	 *******************************************/
+	
+	// this method returns true if the blackboard shows that a teammate 
+	// who is closer to the ball than me is already chasing it 
+	private boolean isBallChasedByTeammate()
+	{
+		if ( blackboard == null )
+			return false;
+		
+		double distance2Ball = aWorldData.getMyself().position
+									.distance( aWorldData.getBall().position );
+		return blackboard.isChasedByTeammate( role, aWorldData.time, 
+											  distance2Ball, intent );
+	}
+	
+	
+	// this method publishes my current action on the team blackboard
+	private void publishIntent( WorldModel world )
+	{
+		if ( blackboard == null || aWorldData == null )
+			return;
+		
+		Vector2d mypos = aWorldData.getMyself().position;
+		Vector2d target = mypos;
+		int receiver = TeamBlackboard.NO_RECEIVER;
+		
+		switch( world.getActionType() )
+		{
+			case WorldModel.CHASE:	
+				target = aWorldData.getBall().position;	
+				break;
+			case WorldModel.MOVE:	
+				target = world.getDestination();	
+				break;
+			case WorldModel.TURN:	
+				target = world.getFacingPos();	
+				break;
+			case WorldModel.PASS:	
+				receiver = findPassReceiver( world.getKickDirection() );
+				break;
+		}
+		
+		blackboard.publish( role, aWorldData.time, world.getActionType(), 
+							target.getX(), target.getY(), receiver, 
+							mypos.distance( aWorldData.getBall().position ) );
+	}
+	
+	
+	// this method returns the role of the teammate closest to 
+	// the passing direction 'dir', or NO_RECEIVER if there is none 
+	// within 5 degrees
+	private int findPassReceiver( double dir )
+	{
+		Vector<Player> teammates = aWorldData.getMyTeam();
+		double minAngle = 5.0;		// magic number
+		int receiver = TeamBlackboard.NO_RECEIVER;
+		
+		for ( int i = 0; i < teammates.size(); i++ ) {
+			Player player = teammates.elementAt( i );
+			if ( player.equals( aWorldData.getMyself() ) )
+				continue;
+			double plrdir = aWorldData.getMyself().position
+										.direction( player.position );
+			double ang = Math.abs( Util.normal_dir( plrdir - dir ) );
+			if ( ang < minAngle ) {
+				minAngle = ang;
+				receiver = player.id - 1;	// player id is role + 1
+			}
+		}
+		return receiver;
+	}
+	
+
 	/*******************************************
 	 *
 	 * 			householding methods
 	 *
 	 *******************************************/
 
-	// this method collects lost packet statistics that could be 
-	// useful for determining whether the client is running too slow.
+	// the lost packet statistics are collected by the NetworkMonitor 
+	// (it tells if they are lost on the network or by my slow CPU).
 	// (* a tradeoff exisits between the sophistication of algorithms and the 
 	// time required to execute them; with too long time, player performance  
 	// tends to deteriorate. this is a platform-dependent effect, though. *)
 	// for example, on a slow computer, a substantial increase in the number  
 	// of options the player evaluates when making decisions about passing 
 	// or dribbling the ball may lead to a noticeable packet loss rate.
-	
-	private void checkLostPackets( Packet aPacket ) 
-	{
-		if( aPacket.packetType == Packet.SEE ) {
-			// as the the SEE packets are sent on each simulation step 
-			// and the server inserts in them the step ID, this parameter
-			// can be used to detect packets losses 
-
-			SeeData aSeeData = (SeeData)aPacket.data;
-			
-			if ( previousReceivedPacketID < 0 ) {
-				// skip the first packet
-			} else {
-				
-				
-				int delta = aSeeData.time  
-						- ( previousReceivedPacketID + 1 );
-				if ( delta <0 )
-					delta = MODULUS - delta; 
-	
-				if ( delta > MODULUS/2 )
-					delta = 0; 	// just ignore too big losses
-				
-				lostPacketCount = lostPacketCount + delta;
-				
-				// this is the exponential smoothening method
-				double weight = 0.5;			// a magic number
-				lostPacketFactor = weight * delta + 
-									(1 - weight) * lostPacketFactor;
-				
-				if ( lostPacketFactor > 2.0 ) {
-					// print a warning that packets are being lost
-					System.out.println("** " + getName() + " lost " + delta 
-						+ " packets" + "  lostPacketFactor = " 
-						+ ((int)(1000.0*lostPacketFactor))/1000.0 + "  **" );	
-				}
-			}
-			previousReceivedPacketID = aSeeData.time;
-		}	
-	}
-
-
+	//
 	// this method estimates the percentage of idling time and prints it out
 	// with regular intervals; this estimate gives the idea of how close 
 	// the process time to its limit is; it is based on some assumptions.
@@ -1172,6 +1375,7 @@ public class AIPlayer extends Thread
 		if ( count%REPORT_STEPS_NUM == 0 ) {
 			
 			processingTime = processingTime/REPORT_STEPS_NUM; 
+			lostPacketCount = monitor.takeLostCount();
 			double idleTime 
 						= 0.5 * (WorldModel.SIM_STEP_SECONDS*1000.0)/22.0 
 								- processingTime;
@@ -1180,15 +1384,35 @@ public class AIPlayer extends Thread
 						= 100.0*idleTime/(idleTime + processingTime); 
 			double lostPercent 
 						= 100.0*lostPacketCount/REPORT_STEPS_NUM; 
+			String skipped = "";
+			if ( skippedPassDirCount > 0 )
+				skipped = ", pass directions skipped " + skippedPassDirCount;
+			double evaluated = passEvaluator.takeEvaluatedPercent();
+			if ( evaluated < 100 )
+				skipped = skipped + ", pass lanes evaluated " 
+								  + ((int)(10.0*evaluated))/10.0 + "%";
+			int late = clock.takeLateCount();
+			if ( late > 0 )
+				skipped = skipped + ", late commands " + late;
+			if ( clock.isSynced() )
+				skipped = skipped + ", jitter " 
+							+ ((int)(clock.getJitterNanos()/1.0e4))/100.0 + " ms";
+			int hits = passEvaluator.takeSpeculationHits();
+			int misses = passEvaluator.takeSpeculationMisses();
+			if ( hits + misses > 0 )
+				skipped = skipped + ", passes planned ahead " + hits 
+								  + " of " + ( hits + misses );
 			
 			System.out.println("\n@@@  " + getName() + 
 					":\n proc time " + (float)processingTime 
 					+ " ms, idling " 
 					+ ((int)(1000.0*idlingPercent))/1000.0 +  "%"
 					+ ", lost packets "  
-					+ ((int)(1000.0*lostPercent))/1000.0 +  "%");
+					+ ((int)(1000.0*lostPercent))/1000.0 +  "%"
+					+ skipped );
 			processingTime = 0;
 			lostPacketCount = 0;
+			skippedPassDirCount = 0;
 		}
 	}
 
@@ -1198,6 +1422,11 @@ public class AIPlayer extends Thread
 	 *
 	 ****************************************************/
   
+	public static void setLogActions( boolean on )
+	{
+		logActions = on;
+	}
+	
 	public WorldModel getWorldModel()
 	{
 		return aWorldModel;
@@ -1206,6 +1435,8 @@ public class AIPlayer extends Thread
   	public void setPlayerNumber( int number )
 	{
 		playerNumber = number;
+		teleportData = new TeleportData( myside, number, 0, 0 );
+		teleportPacket = new Packet( Packet.TELEPORT, teleportData, null, 0 );
 	}
 	
 	public int getPlayerNumber() 
@@ -1223,6 +1454,91 @@ public class AIPlayer extends Thread
 		return playerTeamID; 
 	} 
 
+	// the estimate of the server step phase; getNanosToNextTick() tells
+	// how long I can still plan in this cycle
+	public ServerClock getServerClock()
+	{
+		return clock;
+	}
+	
+	
+	public void setBlackboard( TeamBlackboard board )
+	{
+		blackboard = board; 
+	} 
+	
+	
+	// this method puts me in the scheduling domain of my team 
+	public void setDomain( TeamDomain domain )
+	{
+		this.domain = domain;
+		passEvaluator.setDomain( domain );
+	}
+	
+	
+	// this method sets the tuning parameters of my team 
+	public void setParameters( TuningParameters parameters )
+	{
+		aWorldModel.setParameters( parameters );
+		passEvaluator.setClearanceThreshold( parameters.getClearanceThreshold() );
+	}
+	
+	
+	// this method stops the player thread after its current cycle; the 
+	// thread waiting for a packet exits once the next one arrives (or 
+	// the transceiver fails)
+	public void shutdown()
+	{
+		running = false;
+	}
+	
+	
+	/*******************************************
+	 *
+	 * 	methods for comparing the implementations 
+	 * 	of the decision making (DecisionEquivalence)
+	 *
+	 *******************************************/
+	
+	// this method makes my decision for 'packet' in the calling thread, 
+	// like one cycle of run() without the scheduling and the statistics;
+	// if 'speculate' is true, I then evaluate my passes for the next step
+	// as if I were idle (this is never done by run() in the deterministic 
+	// mode, as it depends on the timing)
+	void decide( Packet packet, boolean speculate ) throws IOException
+	{
+		cycleStartNanos = System.nanoTime();
+		aWorldModel.updateAll( packet );
+		aWorldData = aWorldModel.getWorldData();
+		aWorldModel = plan4All( aWorldModel );
+		planMode = aWorldModel.getGameMode();
+		publishIntent( aWorldModel );
+		execute( aWorldModel );
+		if ( aWorldData != null )
+			aWorldModel.setActionTime( aWorldData.time );
+		
+		if ( speculate && packet.packetType == Packet.SEE 
+				&& aWorldModel.getGameMode() == RefereeData.PLAY_ON )
+			speculateNextStep();
+	}
+	
+	
+	// the pass lanes are evaluated by 'kernel' from now on
+	void setPassLaneKernel( PassLaneKernel kernel )
+	{
+		passEvaluator = new PassEvaluator( kernel );
+		passEvaluator.setClearanceThreshold( 
+					aWorldModel.getParameters().getClearanceThreshold() );
+		if ( domain != null )
+			passEvaluator.setDomain( domain );
+	}
+	
+	
+	PassEvaluator getPassEvaluator()
+	{
+		return passEvaluator;
+	}
+
 	private Vector getTeammates( WorldModel world )
 	{
 		return aWorldData.getMyTeam();
@@ -60,6 +60,40 @@ public class Africa_Team
 	public static int leftSize;	
 	public static int rightSize;	
 	
+	// if true, the possession and positions of each team are planned
+	// once per cycle by its coordinator
+	private static boolean useCoordinator = false;
+	
+	// if true, the teammates share their intentions on a blackboard
+	private static boolean useBlackboard = true;
+	
+	// if true, each team is scheduled in its own domain, with its own 
+	// decision pool and CPU quota (in cores; 0 means no quota)
+	private static boolean isolateTeams = false;
+	private static double leftCoreBudget;
+	private static double rightCoreBudget;
+	
+	// formations are loaded from this file
+	private static String formationFile = "formations.txt";
+	private static String formationL = "343";
+	private static String formationR = "343";
+	// formations to switch to on the possession trend (null disables it)
+	private static String formationDefensive = null;
+	private static String formationOffensive = null;
+	
+	// set-piece cases are loaded from this file (null disables them)
+	private static String setPieceFile = "setpieces.txt";
+	private SetPieceLibrary setPieces = null;
+	
+	// the tuning parameters of each team are loaded from these files
+	// (null keeps the default values)
+	private static String leftParameterFile = null;
+	private static String rightParameterFile = null;
+	
+	// steps of the synthetic match the players decide on before
+	// connecting, to have their code compiled by the kick-off (0 disables it)
+	private static int jitWarmupSteps = 0;
+	
 	private Vector<AIPlayer> robots = new Vector<AIPlayer>();
 
 
@@ -73,21 +107,72 @@ public class Africa_Team
 		}
 
 		// create team formations, as necessary
-		// leftSize, rightSize could be read from the initialization file 
-		Formation frmR = null, frmL = null;
+		// leftSize, rightSize, and the formation names could be read 
+		// from the initialization file 
+		Map<String, Formation> formations = null;
+		try {
+			formations = Formation.load( formationFile );
+		} catch (IOException e) {
+			System.out.println("Cannot load formations: " + e);
+			System.exit(1);
+		}
+		
+		if ( setPieceFile != null ) {
+			try {
+				setPieces = SetPieceLibrary.load( setPieceFile );
+				System.out.println( "Loaded " + setPieces.getNumOfCases() 
+									+ " set-piece cases for the formations " 
+									+ setPieces.getFormations() + " from " + setPieceFile );
+			} catch (IOException e) {
+				System.out.println("Cannot load set-piece cases: " + e);
+			}
+		}
+		
+		if ( AgentRandom.isDeterministic() )
+			System.out.println( "\nThe deterministic mode: no team blackboard, "
+								+ "coordinator or formation switching" );
+		
+		TeamFormation frmR = null, frmL = null;
 		System.out.println();
 		if ( leftSize > 0 ) {
-			String formationL = "343";
 			System.out.println( "Set formation for the LEFT team: " + formationL );
-			frmL = new Formation(formationL);
+			frmL = createTeamFormation( 'l', formations, formationL );
 		}
 		if ( rightSize > 0 ) {
-			String formationR = "343";
 			System.out.println( "Set formation for the RIGHT team: " + formationR );
-			frmR = new Formation(formationR);
+			frmR = createTeamFormation( 'r', formations, formationR );
 		}
 		System.out.println();
 		
+		TuningParameters paramsL = loadParameters( "LEFT", leftParameterFile );
+		TuningParameters paramsR = loadParameters( "RIGHT", rightParameterFile );
+		
+		TeamCoordinator coordR = null, coordL = null;
+		if ( useCoordinator ) {
+			System.out.println( "Team coordinators are planning the positions\n" );
+			if ( leftSize > 0 ) {
+				coordL = new TeamCoordinator( 'l', frmL );
+				coordL.setParameters( paramsL );
+			}
+			if ( rightSize > 0 ) {
+				coordR = new TeamCoordinator( 'r', frmR );
+				coordR.setParameters( paramsR );
+			}
+		}
+		
+		TeamBlackboard boardR = null, boardL = null;
+		if ( useBlackboard ) {
+			boardL = new TeamBlackboard( 'l' );
+			boardR = new TeamBlackboard( 'r' );
+		}
+		
+		if ( isolateTeams )
+			System.out.println( "The teams are isolated, with the budgets of " 
+								+ leftCoreBudget + " (LEFT) and " + rightCoreBudget 
+								+ " (RIGHT) cores\n" );
+		TeamDomain domainL = createDomain( 'l' );
+		TeamDomain domainR = createDomain( 'r' );
+		
 		/*
 		// initialize left-hand team with a hard-coded formation
 		
@@ -96,7 +181,7 @@ public class Africa_Team
 		}
 
 		// initialize right-hand team  with a hard-coded formation
-		Formation frm2 = new Formation("523");
+		TeamFormation frm2 = createTeamFormation( 'r', formations, "523" );
 		for (int i = 0; i < rightSize; i++) {
 			initAIPlayer('r', i, frmR );
 		}
@@ -106,16 +191,33 @@ public class Africa_Team
 		// ** this is a more symmetrical way to initialize teams **
 		// (to make the player performance same on the left and right side)
 		
+		if ( jitWarmupSteps > 0 ) {
+			System.out.println(" ---  JIT warm-up  ---\n");
+			try {
+				double seconds = JitWarmup.run( 
+							leftSize > 0 ? getFormation( formations, formationL ) : null, 
+							leftSize, 
+							rightSize > 0 ? getFormation( formations, formationR ) : null, 
+							rightSize, setPieces, useCoordinator, jitWarmupSteps );
+				System.out.println( "\nWarmed up in " + jitWarmupSteps + " steps, " 
+							+ Math.round( seconds * 1000 ) + " ms\n" );
+			} catch (IOException e) {
+				System.out.println("Cannot warm up: " + e);
+			}
+		}
+		// the first cycles of the players are reported with or without it
+		JitWarmup.setExpectedPlayers( leftSize + rightSize );
+		
 		System.out.println(" ---  players  ---\n");
 		int maxSize = Math.max( leftSize, rightSize );
 		for (int i=0; i < maxSize; i++ ) {
 			for ( int k=0; k < 2; k++ ) {
 				if ( k == 1 ) {
 					if ( i < leftSize ) 
-						initAIPlayer('l', i, frmL );
+						initAIPlayer('l', i, frmL, paramsL, coordL, boardL, domainL );
 				} else {	
 					if ( i < rightSize ) 
-						initAIPlayer('r', i, frmR );
+						initAIPlayer('r', i, frmR, paramsR, coordR, boardR, domainR );
 				}
 			}
 		}
@@ -124,6 +226,66 @@ public class Africa_Team
 	}
 
 	
+	// this method creates the formation holder of a team; the team can 
+	// switch between the formations on the possession trend if this 
+	// is set in the initialization file
+	private TeamFormation createTeamFormation( char side, 
+											   Map<String, Formation> formations, 
+											   String name )
+	{
+		TeamFormation teamFormation 
+					= new TeamFormation( side, getFormation( formations, name ) );
+		
+		if ( formationDefensive != null && formationOffensive != null ) {
+			System.out.println( "  switching to " + formationDefensive 
+						+ " in defense and to " + formationOffensive + " in attack" );
+			teamFormation.setAutoSwitch( 
+						getFormation( formations, formationDefensive ), 
+						getFormation( formations, formationOffensive ) );
+		}
+		return teamFormation;
+	}
+	
+	
+	// this method returns the scheduling domain of team 'side', or null
+	// if the teams are not isolated
+	public static TeamDomain createDomain( char side )
+	{
+		if ( !isolateTeams )
+			return null;
+		return new TeamDomain( side, side == 'l' ? leftCoreBudget : rightCoreBudget );
+	}
+	
+	
+	// this method loads the tuning parameters of a team, if any
+	private TuningParameters loadParameters( String team, String fileName )
+	{
+		if ( fileName == null )
+			return TuningParameters.DEFAULTS;
+		try {
+			TuningParameters parameters = TuningParameters.load( fileName );
+			System.out.println( "Tuning parameters of the " + team + " team: " 
+								+ parameters + "\n" );
+			return parameters;
+		} catch (IOException e) {
+			System.out.println("Cannot load tuning parameters: " + e);
+			System.exit(1);
+			return null;
+		}
+	}
+	
+	
+	private Formation getFormation( Map<String, Formation> formations, String name )
+	{
+		Formation formation = formations.get( name );
+		if ( formation == null ) {
+			System.out.println("Formation " + name + " is not in " + formationFile);
+			System.exit(1);
+		}
+		return formation;
+	}
+	
+	
 	// initialize the soccer player (i.e. "robot").
 	// this client first sends CONNECT packet to the server.
 	// the connection is established once the acknowledging 
@@ -131,10 +293,18 @@ public class Africa_Team
 	// 
 	private void initAIPlayer(	char side,		// determines the team 
 							int role,			// determines the role (0 is the goalie) 
-							Formation formation) 
+							TeamFormation teamFormation, 
+							TuningParameters parameters, 
+							TeamCoordinator coordinator,	// may be null 
+							TeamBlackboard blackboard,		// may be null 
+							TeamDomain domain)				// may be null 
 	{
 		try {
 			Transceiver transceiver = new Transceiver(false);
+			
+			// the kicker and the home position are registered with the 
+			// server in the initial formation 
+			Formation formation = teamFormation.get();
 
 			// Send the connect packet to server
 			// In this implementaion, the first player is registered 
@@ -199,11 +369,17 @@ public class Africa_Team
 							robot.setPlayerTeamID(-1);
 							
 						robot.setPlayerNumber(role + 1);
+						robot.setBlackboard( blackboard );
+						if ( domain != null )
+							robot.setDomain( domain );
 						
 						// override the default value using this message from server
 						WorldModel.MAX_GRABBED_STEPS = initData.maxGrabSteps; 
 						//System.out.println("received: initData.maxGrabSteps = " + initData.maxGrabSteps);
-						robot.getWorldModel().setFormation( formation ); 
+						robot.getWorldModel().setFormation( teamFormation ); 
+						robot.setParameters( parameters ); 
+						robot.getWorldModel().setCoordinator( coordinator ); 
+						robot.getWorldModel().setSetPieces( setPieces ); 
 						robot.getWorldModel().setPlayerTeamID( robot.getPlayerTeamID() );
 						robot.getWorldModel().setPlayerNumber( robot.getPlayerNumber() );
 						
@@ -266,6 +442,9 @@ public class Africa_Team
 		}
 
 		setProperties(properties);
+		
+		// the operator can make all players dump their recent cycles
+		FlightRecorder.installSignalHandler();
 
 		Africa_Team players = new Africa_Team();
 
@@ -279,6 +458,17 @@ public class Africa_Team
 	 */
 	public static void setProperties(Properties properties) 
 	{
+		// the decision noise; with the same seed, a replayed match in the 
+		// deterministic mode produces identical decisions (the behaviour 
+		// that depends on the timing of the threads is switched off below)
+		AgentRandom.setDeterministic( Boolean.valueOf(properties
+				.getProperty("deterministic_mode", "false")).booleanValue() );
+		String seed = properties.getProperty("random_seed");
+		if ( seed != null )
+			AgentRandom.setSeed( Long.parseLong( seed ) );
+		else if ( AgentRandom.isDeterministic() )
+			AgentRandom.setSeed( 0 );
+		
 		leftSize = Integer.parseInt(properties.getProperty("left_ream_size", "11"));
 
 		rightSize = Integer.parseInt(properties
@@ -288,5 +478,89 @@ public class Africa_Team
 
 		port = Integer.parseInt(properties.getProperty("port_number", "7777"));
 
+		// threads helping the ball holder to evaluate its options
+		// (0 disables the pool; by default, one core is left for the other players)
+		int poolThreads = Runtime.getRuntime().availableProcessors() - 1;
+		DecisionPool.setParallelism( Integer.parseInt(properties
+				.getProperty("decision_pool_threads", "" + poolThreads)) );
+
+		// rank the players by criticality and let the less critical ones
+		// reuse their previous plan if time is running short
+		CriticalityScheduler.setEnabled( Boolean.valueOf(properties
+				.getProperty("criticality_scheduling", "true")).booleanValue() );
+		
+		// let the players about to kick evaluate their passes in advance
+		PassEvaluator.setSpeculative( Boolean.valueOf(properties
+				.getProperty("speculative_planning", "true")).booleanValue() );
+		
+		// evaluate again only the pass lanes changed since the previous cycle
+		PassEvaluator.setIncremental( Boolean.valueOf(properties
+				.getProperty("incremental_pass_evaluation", "true")).booleanValue() );
+
+		// plan the possession and positions once per cycle for the whole team
+		useCoordinator = Boolean.valueOf(properties
+				.getProperty("team_coordinator", "false")).booleanValue();
+
+		// share the teammates' intentions (avoids duplicate ball chasing)
+		useBlackboard = Boolean.valueOf(properties
+				.getProperty("team_blackboard", "true")).booleanValue();
+
+		// schedule each team in its own domain, so that the planning of one
+		// cannot slow down the other (by default, each gets half of the cores)
+		isolateTeams = Boolean.valueOf(properties
+				.getProperty("team_isolation", "false")).booleanValue();
+		double halfCores = Runtime.getRuntime().availableProcessors() / 2.0;
+		leftCoreBudget = Double.parseDouble(properties
+				.getProperty("left_core_budget", "" + halfCores));
+		rightCoreBudget = Double.parseDouble(properties
+				.getProperty("right_core_budget", "" + halfCores));
+
+		formationFile = properties.getProperty("formation_file", "formations.txt");
+		formationL = properties.getProperty("left_formation", "343");
+		formationR = properties.getProperty("right_formation", "343");
+		formationDefensive = properties.getProperty("defensive_formation");
+		formationOffensive = properties.getProperty("offensive_formation");
+
+		// the directory with the position grids of the formations
+		// ("none" makes the players use the weighted sum positioning)
+		String gridDir = properties.getProperty("position_grid_dir", ".");
+		PositionGrid.setDirectory( gridDir.equals("none") ? null : gridDir );
+		
+		// the recent cycles kept by each player for the anomaly dumps
+		// (0 disables the flight recorders)
+		FlightRecorder.setCycles( Integer.parseInt(properties
+				.getProperty("flight_recorder_cycles", "256")) );
+		FlightRecorder.setDirectory( properties.getProperty("flight_recorder_dir", ".") );
+		
+		// let the players decide on a synthetic match before connecting
+		jitWarmupSteps = Integer.parseInt(properties
+				.getProperty("jit_warmup_steps", "0"));
+		
+		// print out the decisions of the players with the ball
+		AIPlayer.setLogActions( Boolean.valueOf(properties
+				.getProperty("log_actions", "false")).booleanValue() );
+		
+		// the tuning parameters of the teams ("none" keeps the defaults)
+		leftParameterFile = properties.getProperty("left_parameters", "none");
+		if ( leftParameterFile.equals("none") )
+			leftParameterFile = null;
+		rightParameterFile = properties.getProperty("right_parameters", "none");
+		if ( rightParameterFile.equals("none") )
+			rightParameterFile = null;
+		
+		// the set-piece cases ("none" disables them)
+		setPieceFile = properties.getProperty("setpiece_file", "setpieces.txt");
+		if ( setPieceFile.equals("none") )
+			setPieceFile = null;
+
+		// in the deterministic mode, a decision must not depend on which 
+		// teammate has got further in the cycle, so the teams play without 
+		// the blackboard, the coordinator and the formation switching
+		if ( AgentRandom.isDeterministic() ) {
+			useCoordinator = false;
+			useBlackboard = false;
+			formationDefensive = null;
+			formationOffensive = null;
+		}
 	}
 }
\ No newline at end of file
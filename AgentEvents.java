@@ -0,0 +1,226 @@
+/* AgentEvents.java
+
+   The Java Flight Recorder events of the players.
+
+*/
+
+package tos_teams.africa;
+
+import jdk.jfr.*;
+
+/**
+ * These events show the decision cycles of the players in a JFR
+ * recording, next to the garbage collections, safepoints and the rest
+ * of what the JVM records:
+ *
+ *   java -XX:StartFlightRecording=filename=match.jfr tos_teams.africa.Africa_Team
+ *   jfr print --events tos_teams.africa.Cycle match.jfr
+ *
+ * Every event has the name of the player thread (Player-N-side) and the
+ * step number of the latest SEE packet, so the timeline can be filtered
+ * by player and matched with the server log. The events are created only
+ * while a recording has them enabled (see isEnabled()), so without one
+ * they cost a field read per phase and allocate nothing. Only the
+ * Command event has a stack trace, showing which action sent it.
+ */
+
+public class AgentEvents
+{
+	private static final EventType 	CYCLE 		= EventType.getEventType( Cycle.class );
+	private static final EventType 	PERCEPTION 	= EventType.getEventType( Perception.class );
+	private static final EventType 	PLANNING 	= EventType.getEventType( Planning.class );
+	private static final EventType 	PASSES 		= EventType.getEventType( PassEvaluation.class );
+	private static final EventType 	COMMAND 	= EventType.getEventType( Command.class );
+
+
+	// these methods return a started event, or null if it is not recorded
+
+	public static Cycle beginCycle()
+	{
+		if ( !CYCLE.isEnabled() )
+			return null;
+		Cycle event = new Cycle();
+		event.begin();
+		return event;
+	}
+
+
+	public static Perception beginPerception()
+	{
+		if ( !PERCEPTION.isEnabled() )
+			return null;
+		Perception event = new Perception();
+		event.begin();
+		return event;
+	}
+
+
+	public static Planning beginPlanning()
+	{
+		if ( !PLANNING.isEnabled() )
+			return null;
+		Planning event = new Planning();
+		event.begin();
+		return event;
+	}
+
+
+	public static PassEvaluation beginPassEvaluation()
+	{
+		if ( !PASSES.isEnabled() )
+			return null;
+		PassEvaluation event = new PassEvaluation();
+		event.begin();
+		return event;
+	}
+
+
+	public static Command beginCommand()
+	{
+		if ( !COMMAND.isEnabled() )
+			return null;
+		Command event = new Command();
+		event.begin();
+		return event;
+	}
+
+
+	@Name( "tos_teams.africa.Cycle" )
+	@Label( "Player Cycle" )
+	@Description( "One cycle of a player, from reading the packet to the command sent" )
+	@Category( { "Soccer", "Player" } )
+	@StackTrace( false )
+	public static class Cycle extends Event
+	{
+		@Label( "Player" )
+		public String 	player;
+
+		@Label( "Step" )
+		@Description( "SeeData.time of the latest SEE packet" )
+		public int 		seeTime;
+
+		@Label( "Packet Type" )
+		public int 		packetType;
+
+		@Label( "Criticality Tier" )
+		public int 		tier;
+
+		@Label( "Plan Reused" )
+		public boolean 	planReused;
+
+		@Label( "Late" )
+		@Description( "The command was sent after the estimated step deadline" )
+		public boolean 	late;
+	}
+
+
+	@Name( "tos_teams.africa.Perception" )
+	@Label( "Perception Update" )
+	@Category( { "Soccer", "Player" } )
+	@StackTrace( false )
+	public static class Perception extends Event
+	{
+		@Label( "Player" )
+		public String 	player;
+
+		@Label( "Step" )
+		public int 		seeTime;
+
+		@Label( "Packet Type" )
+		public int 		packetType;
+
+		@Label( "Ball Kickable" )
+		public boolean 	kickable;
+
+		@Label( "Game Mode" )
+		public int 		gameMode;
+	}
+
+
+	@Name( "tos_teams.africa.Planning" )
+	@Label( "Planning" )
+	@Category( { "Soccer", "Player" } )
+	@StackTrace( false )
+	public static class Planning extends Event
+	{
+		@Label( "Player" )
+		public String 	player;
+
+		@Label( "Step" )
+		public int 		seeTime;
+
+		@Label( "Action" )
+		public String 	action;
+
+		@Label( "Ball Possession" )
+		@Description( "-1 our ball, 0 undecided, 1 their ball" )
+		public int 		possession;
+	}
+
+
+	@Name( "tos_teams.africa.PassEvaluation" )
+	@Label( "Pass Evaluation" )
+	@Category( { "Soccer", "Player" } )
+	@StackTrace( false )
+	public static class PassEvaluation extends Event
+	{
+		@Label( "Player" )
+		public String 	player;
+
+		@Label( "Step" )
+		public int 		seeTime;
+
+		@Label( "Directions" )
+		@Description( "Candidate pass directions scanned" )
+		public int 		directions;
+
+		@Label( "Directions Evaluated" )
+		@Description( "Directions evaluated again in this cycle (the rest were warm-started or skipped)" )
+		public int 		evaluated;
+
+		@Label( "Directions Skipped" )
+		@Description( "Directions not evaluated by the deadline" )
+		public int 		skipped;
+
+		@Label( "Intercept Simulations" )
+		@Description( "Ball interceptions simulated for the snapshot used" )
+		public int 		simulations;
+
+		@Label( "Planned Ahead" )
+		@Description( "The snapshot evaluated while idle was used" )
+		public boolean 	speculationHit;
+
+		@Label( "Best Risk" )
+		public double 	bestRisk;
+
+		@Label( "Pass Direction" )
+		public double 	passDir;
+
+		@Label( "Pass" )
+		@Description( "A direction good enough for passing was found" )
+		public boolean 	pass;
+	}
+
+
+	@Name( "tos_teams.africa.Command" )
+	@Label( "Command Sent" )
+	@Category( { "Soccer", "Player" } )
+	public static class Command extends Event
+	{
+		@Label( "Player" )
+		public String 	player;
+
+		@Label( "Step" )
+		public int 		seeTime;
+
+		@Label( "Packet Type" )
+		public int 		packetType;
+
+		@Label( "Direction" )
+		@Description( "Kick or dash direction, as sent" )
+		public double 	dir;
+
+		@Label( "Force" )
+		public double 	force;
+	}
+}
@@ -0,0 +1,76 @@
+/* AgentRandom.java
+
+   Random numbers for the decision noise of the players.
+
+*/
+
+package tos_teams.africa;
+
+import java.util.*;
+
+/**
+ * Each player (and each team coordinator) has its own random generator,
+ * so the threads do not contend on the single generator of Math.random().
+ * The generators are derived from one seed that can be set in the
+ * properties file; the stream of each player depends only on the seed,
+ * its side and its role.
+ * In the deterministic mode, the behaviour that depends on timing (the
+ * pass evaluation deadline and reusing the previous plan under load) is
+ * also switched off, so that a replayed match produces the same decisions.
+ * For the same reason, Africa_Team then plays without the team blackboard,
+ * the coordinator and the formation switching: what a player reads from
+ * them depends on whether its teammates have got to the same cycle yet.
+ */
+
+public class AgentRandom
+{
+	private static long 	seed = System.nanoTime();
+	private static boolean 	deterministic = false;
+
+
+	public static void setSeed( long s )
+	{
+		seed = s;
+	}
+
+	public static long getSeed()
+	{
+		return seed;
+	}
+
+	public static void setDeterministic( boolean on )
+	{
+		deterministic = on;
+	}
+
+	public static boolean isDeterministic()
+	{
+		return deterministic;
+	}
+
+
+	// returns the generator of the player of 'role' on 'side';
+	// a player may use several independent 'stream's
+	public static SplittableRandom forPlayer( char side, int role, int stream )
+	{
+		return new SplittableRandom( 
+						mix( seed + 1009 * stream + 31 * side + role ) );
+	}
+
+
+	// returns the generator of the coordinator of team 'side'
+	public static SplittableRandom forTeam( char side )
+	{
+		return new SplittableRandom( mix( seed - 31 * side ) );
+	}
+
+
+	// this is the SplitMix64 finalizer; it spreads the close
+	// seeds of different players over the whole range
+	private static long mix( long z )
+	{
+		z = ( z ^ ( z >>> 30 ) ) * 0xbf58476d1ce4e5b9L;
+		z = ( z ^ ( z >>> 27 ) ) * 0x94d049bb133111ebL;
+		return z ^ ( z >>> 31 );
+	}
+}
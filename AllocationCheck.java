@@ -0,0 +1,274 @@
+/* AllocationCheck.java
+
+   Checks that the players make no garbage in the steady state.
+
+*/
+
+package tos_teams.africa;
+
+import soccer.common.*;
+
+import java.io.*;
+import java.lang.management.*;
+import java.util.*;
+
+/**
+ * This program runs the players of a synthetic match (see SyntheticMatch)
+ * on in-memory transceivers, as ThroughputBenchmark does, and counts the
+ * bytes allocated by each player thread in each cycle, from handing it
+ * one packet to handing it the next one; this is the whole path from the
+ * SEE packet to the command, with the planning ahead while idle.
+ * The first cycles warm up the JIT compiler and fill the objects that are
+ * reused (see WorldData.update()); then the cycles are counted, and the
+ * program prints for each player
+ *
+ *   - the bytes allocated per cycle on average;
+ *   - the number of cycles that allocated anything, and of those the
+ *     ones in which the player printed nothing;
+ *   - the largest allocation in one cycle and the step it was made in.
+ *
+ * The players, the network monitors, the scheduler and the blackboards
+ * print their statistics now and then, which is the only garbage they
+ * make; the cycles in which a player thread prints anything are told
+ * apart (System.out is watched for that). The program exits with the
+ * status 1 if any player allocated more than the budget per cycle on
+ * average, or allocated anything in more than 'silent' cycles without
+ * printing, so that it can be run after every change to the decision
+ * making. (A silent cycle is now and then made by the JIT compiler: when
+ * compiled code meets a branch it has never taken, the frame is handed
+ * back to the interpreter, and the objects that escape analysis had
+ * removed are allocated then, a few hundred bytes once.)
+ *
+ * The packets are made in advance, and the feed itself allocates nothing.
+ * The decision pool threads are not counted (they only run the pass lane
+ * kernel, in its own workspace), nor are the JFR events, which are only
+ * created while a recording is running.
+ *
+ * USAGE: AllocationCheck [-pf property_file] [-warmup cycles] [-cycles cycles]
+ *                        [-steps steps] [-budget bytes_per_cycle]
+ *                        [-silent cycles]
+ */
+
+public class AllocationCheck
+{
+	private static int 		warmupCycles = 20000;
+	private static int 		measuredCycles = 20000;
+	private static int 		steps = 1200;			// one minute of the game
+	private static double 	budget = 8;				// bytes per cycle
+	private static int 		silentAllowed = 2;		// cycles per player
+
+	private static com.sun.management.ThreadMXBean 	threads;
+
+	// the feed run by the current thread (only the player threads have one)
+	private static final ThreadLocal<CountingFeed> 	feedOfThread 
+				= new ThreadLocal<CountingFeed>();
+
+
+	/**
+	 * The packet stream of one player. It is run by the player thread,
+	 * and counts the bytes that thread allocates in each cycle.
+	 */
+	private static class CountingFeed extends Harness.LoopingFeed
+	{
+		private long 		cycles = 0;			// handed out so far
+		private long 		lastBytes = -1;
+
+		// the counted cycles
+		private long 		bytes = 0;
+		private long 		allocatingCycles = 0;
+		private long 		silentCycles = 0;	// allocating without printing
+		private boolean 	printed = false;	// in the current cycle
+		private long 		maxBytes = 0;
+		private int 		maxTime = -1;
+		private volatile boolean 	done = false;
+
+
+		CountingFeed( List<Packet> stream )
+		{
+			super( stream );
+		}
+
+
+		public Packet next() throws IOException
+		{
+			long now = threads.getThreadAllocatedBytes( Thread.currentThread().getId() );
+			if ( cycles > warmupCycles && lastBytes >= 0 ) {
+				long cycleBytes = now - lastBytes;
+				bytes += cycleBytes;
+				if ( cycleBytes > 0 ) {
+					allocatingCycles++;
+					if ( !printed )
+						silentCycles++;
+				}
+				if ( cycleBytes > maxBytes ) {
+					maxBytes = cycleBytes;
+					maxTime = currentTime;
+				}
+			}
+			if ( cycles == warmupCycles + measuredCycles ) {
+				done = true;
+				throw stop( "the check is over" );
+			}
+			if ( cycles == 0 )
+				feedOfThread.set( this );
+			cycles++;
+			printed = false;
+
+			Packet packet = nextPacket();
+			// (the counter is read last, so that the feed is not counted)
+			lastBytes = threads.getThreadAllocatedBytes( Thread.currentThread().getId() );
+			return packet;
+		}
+	}
+
+
+	public static void main( String argv[] ) throws Exception
+	{
+		Properties properties = new Properties();
+		try {
+			for ( int c = 0; c < argv.length; c += 2 ) {
+				if ( argv[c].equals( "-pf" ) )
+					properties.load( new FileInputStream( argv[c + 1] ) );
+				else if ( argv[c].equals( "-warmup" ) )
+					warmupCycles = Integer.parseInt( argv[c + 1] );
+				else if ( argv[c].equals( "-cycles" ) )
+					measuredCycles = Integer.parseInt( argv[c + 1] );
+				else if ( argv[c].equals( "-steps" ) )
+					steps = Integer.parseInt( argv[c + 1] );
+				else if ( argv[c].equals( "-budget" ) )
+					budget = Double.parseDouble( argv[c + 1] );
+				else if ( argv[c].equals( "-silent" ) )
+					silentAllowed = Integer.parseInt( argv[c + 1] );
+				else
+					throw new IllegalArgumentException( argv[c] );
+			}
+		} catch ( Exception e ) {
+			System.err.println( "USAGE: AllocationCheck [-pf property_file] "
+						+ "[-warmup cycles] [-cycles cycles] [-steps steps] "
+						+ "[-budget bytes_per_cycle] [-silent cycles]" );
+			System.exit( 2 );
+		}
+
+		ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if ( !( bean instanceof com.sun.management.ThreadMXBean ) ) {
+			System.err.println( "This JVM does not count the allocated bytes" );
+			System.exit( 2 );
+		}
+		threads = (com.sun.management.ThreadMXBean)bean;
+		if ( !threads.isThreadAllocatedMemorySupported() ) {
+			System.err.println( "This JVM does not count the allocated bytes" );
+			System.exit( 2 );
+		}
+		threads.setThreadAllocatedMemoryEnabled( true );
+
+		// the cycles in which a player prints are its report cycles
+		System.setOut( new PrintStream( new FilterOutputStream( System.out ) {
+			public void write( int b ) throws IOException
+			{
+				markPrinted();
+				out.write( b );
+			}
+			public void write( byte[] b, int off, int len ) throws IOException
+			{
+				markPrinted();
+				out.write( b, off, len );
+			}
+		}, true ) );
+
+		Africa_Team.setProperties( properties );
+		Formation formation = Formation.load( properties.getProperty(
+					"formation_file", "formations.txt" ) ).get(
+					properties.getProperty( "left_formation", "343" ) );
+		SetPieceLibrary setPieces = null;
+		String setPieceFile = properties.getProperty( "setpiece_file", "setpieces.txt" );
+		if ( !setPieceFile.equals( "none" ) && new File( setPieceFile ).exists() )
+			setPieces = SetPieceLibrary.load( setPieceFile );
+
+		// both teams of one match; every player gets its own view of it
+		int size = formation.size();
+		int numOfAgents = 2 * size;
+		SyntheticMatch match = new SyntheticMatch( formation, size, 0 );
+		List<List<Packet>> streams = new ArrayList<List<Packet>>();
+		for ( int a = 0; a < numOfAgents; a++ )
+			streams.add( new ArrayList<Packet>() );
+		for ( int s = 0; s < steps; s++ ) {
+			for ( int a = 0; a < numOfAgents; a++ ) {
+				SeeData see = match.see( s % 1000, getSide( a, size ), a % size + 1 );
+				streams.get( a ).add( new Packet( Packet.SEE, see, null, 0 ) );
+				// (the player must have seen the world before planning)
+				Packet referee = SyntheticMatch.playOnAt( s );
+				if ( referee != null )
+					streams.get( a ).add( referee );
+			}
+			match.step();
+		}
+
+		TeamFormation[] formations = new TeamFormation[2];
+		TeamBlackboard[] boards = new TeamBlackboard[2];
+		for ( int k = 0; k < 2; k++ ) {
+			formations[k] = new TeamFormation( getSide( k * size, size ), formation );
+			boards[k] = new TeamBlackboard( getSide( k * size, size ) );
+		}
+
+		AIPlayer[] players = new AIPlayer[ numOfAgents ];
+		CountingFeed[] feeds = new CountingFeed[ numOfAgents ];
+		for ( int a = 0; a < numOfAgents; a++ ) {
+			int team = a / size;
+			int role = a % size;
+			char side = getSide( a, size );
+			feeds[a] = new CountingFeed( streams.get( a ) );
+			players[a] = Harness.createPlayer( feeds[a], side, role, formation,
+							formations[team], boards[team], null, setPieces );
+		}
+		streams = null;
+
+		for ( int a = 0; a < numOfAgents; a++ )
+			players[a].start();
+		for ( int a = 0; a < numOfAgents; a++ )
+			players[a].join();
+
+		System.out.println();
+		System.out.println( "warm-up " + warmupCycles + " cycles, counted "
+							+ measuredCycles + " cycles per player, budget "
+							+ budget + " bytes per cycle and " + silentAllowed 
+							+ " silent allocating cycles" );
+		System.out.println( "player        bytes/cycle  allocating cycles  of them silent"
+							+ "   max bytes  at step" );
+		boolean failed = false;
+		for ( int a = 0; a < numOfAgents; a++ ) {
+			CountingFeed feed = feeds[a];
+			if ( !feed.done ) {
+				System.out.println( players[a].getName() + " did not finish" );
+				failed = true;
+				continue;
+			}
+			double perCycle = (double)feed.bytes / measuredCycles;
+			boolean over = perCycle > budget;
+			boolean silent = feed.silentCycles > silentAllowed;
+			failed |= over || silent;
+			System.out.println( String.format( Locale.US, "%-12s %12.2f %18d %15d %11d %8d%s%s",
+						players[a].getName(), perCycle, feed.allocatingCycles,
+						feed.silentCycles, feed.maxBytes, feed.maxTime,
+						over ? "   OVER BUDGET" : "",
+						silent ? "   ALLOCATES WITHOUT REPORTING" : "" ) );
+		}
+		System.out.println( failed ? "\nFAILED" : "\nPASSED" );
+		System.exit( failed ? 1 : 0 );
+	}
+
+
+	// this method marks the current cycle of the player thread as printing
+	private static void markPrinted()
+	{
+		CountingFeed feed = feedOfThread.get();
+		if ( feed != null )
+			feed.printed = true;
+	}
+
+
+	// the first 'size' agents play on the left
+	private static char getSide( int agent, int size )
+	{
+		return ( agent < size ) ? 'l' : 'r';
+	}
+}
@@ -0,0 +1,136 @@
+/* BallPossession.java
+
+   The team's ball possession indicator.
+
+*/
+
+package tos_teams.africa;
+
+import soccer.common.*;
+
+import java.util.*;
+
+// this class decides which team possesses the ball based on the
+// nearest player to the ball.
+// Decisions made in several cycles are smoothed using exponential
+// filtering. It is used by the world model of each player and by the
+// team coordinator.
+
+public class BallPossession
+{
+	private int 		whoseBallIs = WorldModel.NEUTRAL_BALL;
+	private double 		ballPossWeight = 0.15; 	// ball possession weight for smoothening possession indicator
+	private double 		ballPossIndicator = 0;  // ball possession indicator
+	private double 		ballPossThreshold = 0.7;  // decisionmaking threshold for ball possession
+
+	private SplittableRandom	random;		// for the decision noise
+
+
+	public BallPossession( SplittableRandom random )
+	{
+		this.random = random;
+	}
+
+
+	// this method updates the possession decision with the world state
+	// perceived in the current cycle and returns it
+	public int update( 	WorldData 	worldData,
+						int 		gameMode,
+						char 		sideToContinue,
+						char 		myside,
+						Player 		nearestPlayerToBall,
+						double 		minPlayerDistance )
+	{
+		if ( gameMode == RefereeData.PLAY_ON ) {
+
+			// make ball possession decision in current cycle
+			double delta = 0;
+			if ( minPlayerDistance < 10.0 ) {		// magic number
+				// find out if it's the offensive or defensive state of the game
+				if( nearestPlayerToBall.side == myside )
+					delta = -1;		// 'our' ball
+				else
+					delta =  1;		// 'their ball
+
+			} else {
+				ballPossIndicator = 0;
+				delta = 0; 		// neutral
+			}
+
+			// do exponential filtering of -1, 0, +1 'delta' sequence over time.
+			// if ballPossWeight=1, no filtering is done;
+			// if ballPossWeight=0, value from the previous step is just reused
+
+			ballPossIndicator = ballPossWeight*delta
+						+ ( 1 - ballPossWeight )*ballPossIndicator;
+
+			// *** this randomness is inroduced only for better-looking demo;
+			// *** remove it for using this program for serious purposes
+			ballPossIndicator = ballPossIndicator
+								* ( 1.0 + 0.85 * ( random.nextDouble() - 0.5 ) );
+
+			whoseBallIs = WorldModel.NEUTRAL_BALL;
+
+			// make the decision about ball possession
+			if( ballPossIndicator < -ballPossThreshold )
+				whoseBallIs = WorldModel.OUR_BALL;
+			else if( ballPossIndicator > ballPossThreshold )
+				whoseBallIs = WorldModel.THEIR_BALL;
+			else
+				whoseBallIs = WorldModel.NEUTRAL_BALL;
+
+			// limit the indicator growth
+			if( ballPossIndicator < -2.0 )
+				ballPossIndicator = -2.0;
+
+			if( ballPossIndicator > 2.0 )
+				ballPossIndicator = 2.0;
+
+			// if ball is grabbed, override all above
+			if ( worldData.getBall().isGrabbed ) {
+				if ( worldData.getBall().controllerType == myside ) {
+					whoseBallIs = WorldModel.OUR_BALL;		// grabbed by own goalie (including myself)
+					ballPossIndicator = -2.0;
+				} else {
+					whoseBallIs = WorldModel.THEIR_BALL;	// grabbed by opponent goalie
+					ballPossIndicator = 2.0;
+				}
+			}
+		} else {
+			// ball possession when game is interrupted by referee
+			if ( sideToContinue == worldData.getMyself().side ) {
+				ballPossIndicator = -2.0;
+				whoseBallIs = WorldModel.OUR_BALL;
+			} else {
+				ballPossIndicator = 2.0;
+				whoseBallIs = WorldModel.THEIR_BALL;
+			}
+		}
+
+		return whoseBallIs;
+	}
+
+
+	// this method sets the filter weight and the decision threshold
+	public void setParameters( TuningParameters parameters )
+	{
+		ballPossWeight = parameters.getBallPossWeight();
+		ballPossThreshold = parameters.getBallPossThreshold();
+	}
+
+
+	public int getBallPossession()
+	{
+		return whoseBallIs;
+	}
+
+	public void setBallPossession( int possession )
+	{
+		whoseBallIs = possession;
+	}
+
+	public double getIndicator()
+	{
+		return ballPossIndicator;
+	}
+}
@@ -0,0 +1,229 @@
+/* CriticalityScheduler.java
+
+   Ranks the players by how critical their decisions are in each cycle.
+
+*/
+
+package tos_teams.africa;
+
+import soccer.common.*;
+
+import java.util.concurrent.atomic.*;
+
+/**
+ * All player threads compete for the same processors, yet the decisions
+ * of the player with the ball and of the nearest teammate to the ball
+ * matter far more than those of a distant defender.
+ * In each cycle, every player asks this class for its criticality tier,
+ * which is based on its world model. While a critical player is planning,
+ * the players of the two lowest tiers wait for it (for CRITICAL_WAIT_NANOS
+ * at most) before they start planning, so critical players get the first
+ * claim on the CPU. The tier also sets the thread priority, but this is
+ * only advisory: HotSpot on Linux ignores the Java priorities unless
+ * it is run with -XX:ThreadPriorityPolicy=1 as root. Players of the two
+ * lowest tiers reuse the plan made in the previous cycle if too much
+ * of the simulation step has passed before they could start planning.
+ * The number of cycles, reused plans and deadline misses are counted
+ * per tier and printed periodically.
+ *
+ * If the teams are isolated (see TeamDomain), the players planning are
+ * counted per team, and the players of a team over its CPU quota reuse
+ * their plans unless they are critical.
+ */
+
+public class CriticalityScheduler
+{
+	// criticality tiers
+	public static final int CRITICAL 	= 0;	// I control the ball, or the goalie is under threat
+	public static final int HIGH 		= 1;	// I am the nearest teammate to the ball
+	public static final int NORMAL 		= 2;	// I am close to the ball
+	public static final int LOW 		= 3;	// I am far away from the ball
+	public static final int NUM_OF_TIERS = 4;
+
+	public static final String[] TIER_NAMES = { "critical", "high", "normal", "low" };
+
+	// distance to the ball separating NORMAL and LOW tiers
+	private static final double NEAR_BALL_DISTANCE = 25.0;
+
+	// margin around own penalty area where the goalie is under threat
+	private static final double GOALIE_THREAT_MARGIN = 5.0;
+
+	// the thread priority of each tier (advisory, see above)
+	private static final int[] PRIORITY = { Thread.NORM_PRIORITY + 2,
+											Thread.NORM_PRIORITY + 1,
+											Thread.NORM_PRIORITY,
+											Thread.NORM_PRIORITY - 1 };
+
+	// the fraction of the simulation step after which a player of this
+	// tier reuses its previous plan (1.0 means it always plans)
+	private static final double[] REUSE_AFTER = { 1.0, 1.0, 0.6, 0.4 };
+
+	// a player of the two lowest tiers waits at most this long for the 
+	// critical players to finish planning
+	private static final long CRITICAL_WAIT_NANOS = 2000000L;	// 2 ms
+
+	// the command must be sent within this time after the server step 
+	// started (see ServerClock)
+	private static final long DEADLINE_NANOS
+							= (long)( WorldModel.SIM_STEP_SECONDS * 1.0e9 );
+
+	// number of cycles between the reports
+	private static final int REPORT_CYCLES = 22 * 1000;
+
+	private static boolean 				enabled = true;
+
+	// players of each tier currently planning
+	private static final AtomicIntegerArray 	planning
+										= new AtomicIntegerArray( NUM_OF_TIERS );
+
+	// statistics
+	private static final AtomicLongArray 	cycles
+										= new AtomicLongArray( NUM_OF_TIERS );
+	private static final AtomicLongArray 	reused
+										= new AtomicLongArray( NUM_OF_TIERS );
+	private static final AtomicLongArray 	waits
+										= new AtomicLongArray( NUM_OF_TIERS );
+	private static final AtomicLongArray 	missed
+										= new AtomicLongArray( NUM_OF_TIERS );
+	private static final AtomicLongArray 	totalNanos
+										= new AtomicLongArray( NUM_OF_TIERS );
+	private static final AtomicLong 		totalCycles = new AtomicLong();
+
+
+	// if disabled, all players always plan and keep their priority
+	public static void setEnabled( boolean on )
+	{
+		enabled = on;
+	}
+
+	public static boolean isEnabled()
+	{
+		return enabled;
+	}
+
+
+	// this method determines how critical my decision is in this cycle
+	public static int getTier( WorldModel world )
+	{
+		WorldData worldData = world.getWorldData();
+		if ( worldData == null )
+			return NORMAL;		// no SEE packet received yet
+
+		if ( world.isBallKickable() )
+			return CRITICAL;
+
+		Vector2d ballPos = worldData.getBall().position;
+		if ( world.amIGoalie()
+				&& world.inPenaltyArea( ballPos, GOALIE_THREAT_MARGIN ) )
+			return CRITICAL;
+
+		if ( world.amInearestTmmToBall() )
+			return HIGH;
+
+		if ( worldData.getMyself().position.distance( ballPos )
+													< NEAR_BALL_DISTANCE )
+			return NORMAL;
+
+		return LOW;
+	}
+
+
+	// this method is called by the player before planning; it returns
+	// true if the player should reuse its previous plan in this cycle
+	// ('canReuse' is false if there is no valid previous plan; 'domain' 
+	// is the player's team domain, or null if the teams are not isolated)
+	public static boolean beginPlanning( TeamDomain domain, Thread player, int tier,
+										 long cycleStartNanos, boolean canReuse )
+	{
+		// my team has used up its quota
+		if ( domain != null && canReuse && tier != CRITICAL 
+				&& !AgentRandom.isDeterministic() && domain.isThrottled() )
+			return true;
+
+		if ( !enabled )
+			return false;
+
+		if ( player.getPriority() != PRIORITY[tier] )
+			player.setPriority( PRIORITY[tier] );
+
+		// let the critical players (of my team) go first; I sleep on the 
+		// counts until the last of them is done (see endCycle())
+		AtomicIntegerArray counts = ( domain != null ) ? domain.planning : planning;
+		if ( tier >= NORMAL && counts.get( CRITICAL ) > 0 ) {
+			waits.incrementAndGet( tier );
+			long waitEnd = System.nanoTime() + CRITICAL_WAIT_NANOS;
+			synchronized ( counts ) {
+				long left;
+				while ( counts.get( CRITICAL ) > 0 
+						&& ( left = waitEnd - System.nanoTime() ) > 0 ) {
+					try {
+						counts.wait( left / 1000000, (int)( left % 1000000 ) );
+					} catch ( InterruptedException e ) {
+						break;
+					}
+				}
+			}
+		}
+
+		// (the waiting may have made me late)
+		long elapsed = System.nanoTime() - cycleStartNanos;
+		if ( canReuse && !AgentRandom.isDeterministic() && REUSE_AFTER[tier] < 1.0
+				&& elapsed > REUSE_AFTER[tier] * DEADLINE_NANOS )
+			return true;
+
+		counts.incrementAndGet( tier );
+		return false;
+	}
+
+
+	// this method is called by the player after the command is sent
+	public static void endCycle( TeamDomain domain, int tier, boolean planReused,
+								 long cycleStartNanos )
+	{
+		long elapsed = System.nanoTime() - cycleStartNanos;
+
+		if ( enabled && !planReused ) {
+			AtomicIntegerArray counts = ( domain != null ) ? domain.planning : planning;
+			// the last critical player wakes up the ones waiting for it
+			if ( counts.decrementAndGet( tier ) == 0 && tier == CRITICAL )
+				synchronized ( counts ) {
+					counts.notifyAll();
+				}
+		}
+		if ( domain != null )
+			domain.cycleDone( planReused, elapsed > DEADLINE_NANOS );
+
+		cycles.incrementAndGet( tier );
+		totalNanos.addAndGet( tier, elapsed );
+		if ( planReused )
+			reused.incrementAndGet( tier );
+		if ( elapsed > DEADLINE_NANOS )
+			missed.incrementAndGet( tier );
+
+		if ( totalCycles.incrementAndGet() % REPORT_CYCLES == 0 )
+			report();
+	}
+
+
+	// prints the statistics per tier since the previous report
+	private static void report()
+	{
+		StringBuffer sb = new StringBuffer( "\n@@@  criticality tiers:" );
+		for ( int tier = 0; tier < NUM_OF_TIERS; tier++ ) {
+			long n = cycles.getAndSet( tier, 0 );
+			long r = reused.getAndSet( tier, 0 );
+			long w = waits.getAndSet( tier, 0 );
+			long m = missed.getAndSet( tier, 0 );
+			long t = totalNanos.getAndSet( tier, 0 );
+			if ( n == 0 )
+				continue;
+			sb.append( "\n " + TIER_NAMES[tier] + ": cycles " + n
+					+ ", avg " + (float)( t/1.0e6/n ) + " ms"
+					+ ", reused plans " + r
+					+ ( tier >= NORMAL ? ", waited for critical " + w : "" )
+					+ ", deadline misses " + m
+					+ " (" + ((int)(100000.0*m/n))/1000.0 + "%)" );
+		}
+		System.out.println( sb.toString() );
+	}
+}
@@ -0,0 +1,397 @@
+/* DecisionEquivalence.java
+
+   Checks that the optimized decision making decides the same as the reference.
+
+*/
+
+package tos_teams.africa;
+
+import soccer.common.*;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * This program runs two instances of each player side by side over the
+ * same stream of world states: the reference one, with the plain
+ * implementations (the scalar pass lane kernel, every direction
+ * evaluated in every cycle, no speculation, the weighted-sum positioning),
+ * and the alternative one, with the optimized paths chosen by '-alt'.
+ * Both are run in the deterministic mode, so they draw the same random
+ * numbers, and after every cycle their decisions are compared:
+ *
+ *   - the action type and the command sent (kick or dash direction and
+ *     force), within 'dir_tol' degrees and 'force_tol';
+ *   - the destination of the move, within 'pos_tol' meters;
+ *   - if both have evaluated the passes in this cycle, the earliest
+ *     intercept time of each lane and team, within 'time_tol' steps,
+ *     and the value of the lane, within the relative 'value_tol'.
+ *
+ * Each divergence is reported with the state that triggered it, and
+ * these SEE packets are saved in the 'out' file, which can be used as
+ * the corpus of the next run (-record). The decisions also depend on the
+ * previous states (the velocities, the warm start); once two instances
+ * have diverged, the following divergences may only be the consequences.
+ *
+ * The states are taken from a synthetic match (see SyntheticMatch), with
+ * some set pieces, or from the packets recorded one per line (see
+ * ThroughputBenchmark). The program exits with status 1 if anything
+ * has diverged.
+ *
+ * USAGE: DecisionEquivalence [-pf property_file] [-steps 2000]
+ *                            [-record packet_file] [-agents 22]
+ *                            [-alt vector,incremental,speculative,grid]
+ *                            [-dir_tol 1.0] [-force_tol 1.0] [-pos_tol 0.5]
+ *                            [-time_tol 0] [-value_tol 0.000001]
+ *                            [-out divergences.txt] [-max_report 50]
+ */
+
+public class DecisionEquivalence
+{
+	private static int 		steps = 2000;
+	private static String 	recordFile = null;
+	private static int 		numOfAgents = 22;
+	private static double 	dirTolerance = 1.0;			// degrees
+	private static double 	forceTolerance = 1.0;
+	private static double 	posTolerance = 0.5;			// meters
+	private static int 		timeTolerance = 0;			// steps
+	private static double 	valueTolerance = 1e-6;		// relative
+	private static String 	outFile = "divergences.txt";
+	private static int 		maxReport = 50;
+
+	// the optimized paths used by the alternative players
+	private static boolean 	altVector = true;
+	private static boolean 	altIncremental = true;
+	private static boolean 	altSpeculative = true;
+	private static boolean 	altGrid = true;
+
+	private static final Map<String, Integer> divergences
+									= new LinkedHashMap<String, Integer>();
+	private static int 		numOfDecisions = 0;
+	private static int 		numOfLaneChecks = 0;
+	private static int 		numOfReported = 0;
+	private static PrintWriter 	out;
+
+
+	/**
+	 * The command sent by one player in the current cycle.
+	 */
+	private static class Command implements InMemoryTransceiver.Feed
+	{
+		int 		type = -1;		// none
+		double 		dir, force;
+
+		void clear()
+		{
+			type = -1;
+		}
+
+		public Packet next() throws IOException
+		{
+			throw new EOFException( "the decisions are made by decide()" );
+		}
+
+		public void sent( Packet packet )
+		{
+			type = packet.packetType;
+			if ( packet.data instanceof KickData ) {
+				dir = ((KickData)packet.data).dir;
+				force = ((KickData)packet.data).force;
+			} else if ( packet.data instanceof DriveData ) {
+				dir = ((DriveData)packet.data).dir;
+				force = ((DriveData)packet.data).force;
+			}
+		}
+	}
+
+
+	/**
+	 * The reference and the alternative instances of one player.
+	 */
+	private static class Pair
+	{
+		final char 		side;
+		final int 		role;
+		final AIPlayer 	reference, alternative;
+		final Command 	refCommand = new Command();
+		final Command 	altCommand = new Command();
+
+		Pair( char side, int role, Formation formation,
+			  SetPieceLibrary setPieces, String gridDir ) throws IOException
+		{
+			this.side = side;
+			this.role = role;
+			reference = create( refCommand, formation, setPieces, null );
+			reference.setPassLaneKernel( new ScalarPassLaneKernel() );
+			alternative = create( altCommand, formation, setPieces,
+								  altGrid ? gridDir : null );
+			alternative.setPassLaneKernel( altVector ? PassLaneKernel.getInstance()
+													 : new ScalarPassLaneKernel() );
+		}
+
+		private AIPlayer create( Command command, Formation formation,
+								 SetPieceLibrary setPieces, String gridDir )
+								 throws IOException
+		{
+			// the position grid is taken when the formation is set
+			PositionGrid.setDirectory( gridDir );
+			return Harness.createPlayer( command, side, role, formation,
+						new TeamFormation( side, formation ), null, null, setPieces );
+		}
+	}
+
+
+	public static void main( String argv[] ) throws Exception
+	{
+		Properties properties = new Properties();
+		try {
+			for ( int c = 0; c < argv.length; c += 2 ) {
+				String value = argv[c + 1];
+				if ( argv[c].equals( "-pf" ) )
+					properties.load( new FileInputStream( value ) );
+				else if ( argv[c].equals( "-steps" ) )
+					steps = Integer.parseInt( value );
+				else if ( argv[c].equals( "-record" ) )
+					recordFile = value;
+				else if ( argv[c].equals( "-agents" ) )
+					numOfAgents = Integer.parseInt( value );
+				else if ( argv[c].equals( "-alt" ) ) {
+					List<String> paths = Arrays.asList( value.split( "," ) );
+					altVector = paths.contains( "vector" );
+					altIncremental = paths.contains( "incremental" );
+					altSpeculative = paths.contains( "speculative" );
+					altGrid = paths.contains( "grid" );
+				} else if ( argv[c].equals( "-dir_tol" ) )
+					dirTolerance = Double.parseDouble( value );
+				else if ( argv[c].equals( "-force_tol" ) )
+					forceTolerance = Double.parseDouble( value );
+				else if ( argv[c].equals( "-pos_tol" ) )
+					posTolerance = Double.parseDouble( value );
+				else if ( argv[c].equals( "-time_tol" ) )
+					timeTolerance = Integer.parseInt( value );
+				else if ( argv[c].equals( "-value_tol" ) )
+					valueTolerance = Double.parseDouble( value );
+				else if ( argv[c].equals( "-out" ) )
+					outFile = value;
+				else if ( argv[c].equals( "-max_report" ) )
+					maxReport = Integer.parseInt( value );
+				else
+					throw new IllegalArgumentException( argv[c] );
+			}
+		} catch ( Exception e ) {
+			System.err.println( "USAGE: DecisionEquivalence [-pf property_file] "
+						+ "[-steps 2000] [-record packet_file] [-agents 22] "
+						+ "[-alt vector,incremental,speculative,grid] [-dir_tol 1.0] "
+						+ "[-force_tol 1.0] [-pos_tol 0.5] [-time_tol 0] "
+						+ "[-value_tol 0.000001] [-out divergences.txt] [-max_report 50]" );
+			return;
+		}
+
+		Africa_Team.setProperties( properties );
+		// both instances must draw the same random numbers
+		AgentRandom.setDeterministic( true );
+
+		Formation formation = Formation.load( properties.getProperty(
+					"formation_file", "formations.txt" ) ).get(
+					properties.getProperty( "left_formation", "343" ) );
+		SetPieceLibrary setPieces = null;
+		String setPieceFile = properties.getProperty( "setpiece_file", "setpieces.txt" );
+		if ( !setPieceFile.equals( "none" ) && new File( setPieceFile ).exists() )
+			setPieces = SetPieceLibrary.load( setPieceFile );
+		String gridDir = properties.getProperty( "position_grid_dir", "." );
+		if ( gridDir.equals( "none" ) )
+			gridDir = null;
+
+		System.out.println( "Alternative: " + ( altVector ? "vector" : "scalar" )
+					+ " kernel" + ( altIncremental ? ", incremental" : "" )
+					+ ( altSpeculative ? ", speculative" : "" )
+					+ ( altGrid ? ", position grid" : "" ) + "\n" );
+
+		List<Packet> recorded = null;
+		if ( recordFile != null )
+			recorded = ThroughputBenchmark.readRecord( recordFile );
+
+		// the players of the first state, field players first
+		List<Pair> pairs = new ArrayList<Pair>();
+		for ( int j = 0; j < 22 && pairs.size() < numOfAgents; j++ ) {
+			char side = ( j % 2 == 0 ) ? 'l' : 'r';
+			int role = ( j / 2 + 1 ) % formation.size();
+			if ( recorded == null || isRecorded( recorded, side, role + 1 ) )
+				pairs.add( new Pair( side, role, formation, setPieces, gridDir ) );
+		}
+		PositionGrid.setDirectory( gridDir );
+
+		out = new PrintWriter( new FileWriter( outFile ) );
+		try {
+			if ( recorded != null ) {
+				for ( Packet packet : recorded )
+					for ( Pair pair : pairs )
+						compare( pair, ThroughputBenchmark.viewOf(
+										packet, pair.side, pair.role + 1 ) );
+			} else {
+				SyntheticMatch match = new SyntheticMatch( formation, formation.size(), 0 );
+				for ( int s = 0; s < steps; s++ ) {
+					int time = s % 1000;
+					for ( Pair pair : pairs )
+						compare( pair, new Packet( Packet.SEE,
+								match.see( time, pair.side, pair.role + 1 ), null, 0 ) );
+					Packet referee = SyntheticMatch.refereeAt( s );
+					if ( referee != null )
+						for ( Pair pair : pairs )
+							compare( pair, referee );
+					match.step();
+				}
+			}
+		} finally {
+			out.close();
+		}
+
+		System.out.println( "\n" + numOfDecisions + " decisions and " + numOfLaneChecks
+							+ " pass evaluations of " + pairs.size() + " players compared" );
+		int total = 0;
+		for ( Map.Entry<String, Integer> entry : divergences.entrySet() ) {
+			System.out.println( "  " + entry.getKey() + ": " + entry.getValue() );
+			total += entry.getValue();
+		}
+		if ( total == 0 )
+			System.out.println( "  no divergences" );
+		else
+			System.out.println( "  the states are saved in " + outFile );
+		System.exit( total == 0 ? 0 : 1 );
+	}
+
+
+	private static boolean isRecorded( List<Packet> recorded, char side, int id )
+	{
+		for ( Packet packet : recorded ) {
+			if ( packet.packetType == Packet.SEE ) {
+				try {
+					ThroughputBenchmark.viewOf( packet, side, id );
+					return true;
+				} catch ( IOException e ) {
+					return false;
+				}
+			}
+		}
+		return false;
+	}
+
+
+	// this method lets both instances decide on 'packet' and compares them
+	private static void compare( Pair pair, Packet packet ) throws IOException
+	{
+		pair.refCommand.clear();
+		PassEvaluator.setIncremental( false );
+		pair.reference.decide( packet, false );
+
+		pair.altCommand.clear();
+		PassEvaluator.setIncremental( altIncremental );
+		pair.alternative.decide( packet, altSpeculative );
+
+		numOfDecisions++;
+		List<String> found = new ArrayList<String>();
+		WorldModel ref = pair.reference.getWorldModel();
+		WorldModel alt = pair.alternative.getWorldModel();
+		Command rc = pair.refCommand;
+		Command ac = pair.altCommand;
+
+		if ( ref.getActionType() != alt.getActionType() )
+			found.add( "action type: " + ref.getActionType() + " vs " + alt.getActionType() );
+
+		if ( rc.type != ac.type )
+			found.add( "command: " + rc.type + " vs " + ac.type );
+		else if ( rc.type == Packet.KICK || rc.type == Packet.DRIVE ) {
+			String what = ( rc.type == Packet.KICK ) ? "kick" : "dash";
+			if ( Math.abs( Util.normal_dir( rc.dir - ac.dir ) ) > dirTolerance )
+				found.add( what + " direction: " + (float)rc.dir + " vs " + (float)ac.dir );
+			if ( Math.abs( rc.force - ac.force ) > forceTolerance )
+				found.add( what + " force: " + (float)rc.force + " vs " + (float)ac.force );
+		}
+
+		if ( ref.getActionType() == WorldModel.MOVE && alt.getActionType() == WorldModel.MOVE
+				&& ref.getDestination() != null && alt.getDestination() != null
+				&& ref.getDestination().distance( alt.getDestination() ) > posTolerance )
+			found.add( "destination: " + format( ref.getDestination() ) 
+						+ " vs " + format( alt.getDestination() ) );
+
+		if ( packet.packetType == Packet.SEE )
+			compareLanes( pair, ((SeeData)packet.data).time, found );
+
+		if ( !found.isEmpty() )
+			report( pair, packet, found );
+	}
+
+
+	// the pass lanes are compared if both have evaluated them in this cycle
+	private static void compareLanes( Pair pair, int time, List<String> found )
+	{
+		PassLaneSnapshot ref = pair.reference.getPassEvaluator().getSnapshot();
+		PassLaneSnapshot alt = pair.alternative.getPassEvaluator().getSnapshot();
+		if ( ref.getTime() != time || alt.getTime() != time
+				|| ref.getNumOfDir() != alt.getNumOfDir() )
+			return;
+
+		numOfLaneChecks++;
+		int times = 0, values = 0;
+		int firstTime = -1, firstValue = -1;
+		for ( int team = 0; team < 2; team++ ) {
+			for ( int d = 0; d < ref.getNumOfDir(); d++ ) {
+				if ( Math.abs( ref.getBestTime( team, d ) - alt.getBestTime( team, d ) )
+						> timeTolerance ) {
+					if ( times++ == 0 )
+						firstTime = d;
+				}
+				double v = ref.getValue( team, d );
+				if ( Math.abs( v - alt.getValue( team, d ) )
+						> valueTolerance * Math.max( 1, Math.abs( v ) ) ) {
+					if ( values++ == 0 )
+						firstValue = d;
+				}
+			}
+		}
+		if ( times > 0 )
+			found.add( "intercept time: " + times + " lanes, first in direction "
+						+ (float)ref.getDirection( firstTime ) );
+		if ( values > 0 )
+			found.add( "lane value: " + values + " lanes, first in direction "
+						+ (float)ref.getDirection( firstValue ) );
+	}
+
+
+	private static void report( Pair pair, Packet packet, List<String> found )
+	{
+		for ( String divergence : found ) {
+			String kind = divergence.substring( 0, divergence.indexOf( ':' ) );
+			Integer count = divergences.get( kind );
+			divergences.put( kind, count == null ? 1 : count + 1 );
+		}
+
+		String state;
+		if ( packet.packetType == Packet.SEE ) {
+			SeeData see = (SeeData)packet.data;
+			state = "step " + see.time + ", ball " + format( see.ball.position )
+					+ " (" + see.ball.controllerType + see.ball.controllerId + ")"
+					+ ", me " + format( see.player.position );
+		} else
+			state = "referee mode " + ((RefereeData)packet.data).mode;
+		state += ", game mode " + pair.reference.getWorldModel().getGameMode();
+
+		String who = "player " + ( pair.role + 1 ) + "-" + pair.side;
+		if ( numOfReported++ < maxReport ) {
+			System.out.println( "DIVERGED " + who + ", " + state );
+			for ( String divergence : found )
+				System.out.println( "    " + divergence );
+		}
+
+		out.println( "# " + who + ", " + state );
+		for ( String divergence : found )
+			out.println( "#   " + divergence );
+		out.println( packet.writePacket() );
+	}
+
+
+	private static String format( Vector2d v )
+	{
+		return String.format( Locale.US, "(%.2f, %.2f)", v.getX(), v.getY() );
+	}
+}
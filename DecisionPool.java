@@ -0,0 +1,90 @@
+/* DecisionPool.java
+
+   The work-stealing thread pool shared by all players in this application.
+
+*/
+
+package tos_teams.africa;
+
+import java.util.concurrent.*;
+
+/**
+ * At any time only one or two players control the ball, and they run the
+ * most expensive evaluations, while the rest of the players are just
+ * deciding where to move. This pool lets the ball holder split its
+ * evaluation across the idle cores.
+ * Only the ball holder submits work to the pool. Its worker threads are
+ * given a priority above the player threads, but this is only advisory
+ * (HotSpot on Linux ignores the Java priorities by default); what keeps
+ * the other players off the pool's cores is that the ball holder is a
+ * critical player, and while it plans, the players far from the ball
+ * wait for it (see CriticalityScheduler). To make sure that the cheap
+ * work of the players without the ball is not starved, the pool by
+ * default leaves one core for them.
+ */
+
+public class DecisionPool
+{
+	// the ball holder waits for the pool at most this fraction
+	// of the simulation step after receiving the SEE packet
+	public static final double DEADLINE_FRACTION = 0.5;
+
+	private static int 				parallelism
+							= Runtime.getRuntime().availableProcessors() - 1;
+	private static ForkJoinPool 	pool;
+
+
+	// this method sets the number of worker threads;
+	// zero disables the pool, so that all evaluation is done by the players
+	public static synchronized void setParallelism( int threads )
+	{
+		if ( pool != null )
+			System.out.println( "DecisionPool: already started with "
+								+ parallelism + " threads" );
+		else
+			parallelism = threads;
+	}
+
+
+	public static synchronized int getParallelism()
+	{
+		return parallelism;
+	}
+
+
+	// returns null if the pool is disabled
+	public static synchronized ForkJoinPool getPool()
+	{
+		if ( parallelism < 1 )
+			return null;
+
+		if ( pool == null ) {
+			ForkJoinPool.ForkJoinWorkerThreadFactory factory
+								= new ForkJoinPool.ForkJoinWorkerThreadFactory() {
+				public ForkJoinWorkerThread newThread( ForkJoinPool p )
+				{
+					ForkJoinWorkerThread thread = ForkJoinPool
+								.defaultForkJoinWorkerThreadFactory.newThread( p );
+					thread.setName( "DecisionPool-" + thread.getPoolIndex() );
+					thread.setPriority( Thread.NORM_PRIORITY + 1 );	// (advisory)
+					return thread;
+				}
+			};
+			pool = new ForkJoinPool( parallelism, factory, null, false );
+			System.out.println( "DecisionPool: started " + parallelism + " threads" );
+		}
+		return pool;
+	}
+
+
+	// this method returns the time (System.nanoTime) when the ball holder
+	// must stop waiting for the pool in the cycle started at 'cycleStartNanos'
+	// (there is no deadline in the deterministic mode)
+	public static long getDeadline( long cycleStartNanos )
+	{
+		if ( AgentRandom.isDeterministic() )
+			return Long.MAX_VALUE;
+		return cycleStartNanos + (long)( DEADLINE_FRACTION
+								* WorldModel.SIM_STEP_SECONDS * 1.0e9 );
+	}
+}
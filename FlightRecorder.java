@@ -0,0 +1,397 @@
+/* FlightRecorder.java
+
+   The recent decision cycles of one player, dumped to a file on anomalies.
+
+*/
+
+package tos_teams.africa;
+
+import soccer.common.*;
+
+import java.io.*;
+import java.lang.reflect.*;
+import java.text.*;
+import java.util.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * Each player keeps its last cycles in this ring buffer: what it saw
+ * (the ball, itself, the possession), what it decided (the action, the
+ * kick and dash parameters, the destination) and how long each phase of
+ * the cycle took. The positions are as I perceive them (my team on the
+ * left), the command directions as sent to the server. The entries are
+ * stored in preallocated arrays of primitives, so recording a cycle
+ * allocates nothing and costs a few dozen stores.
+ *
+ * The buffer is written to a binary file when something goes wrong:
+ * the command is sent after the step deadline estimated by the clock,
+ * run() catches an exception, or the operator sends SIGUSR2 to the
+ * application (all players dump then). The automatic dumps are limited
+ * for the whole application, not per player: they are at least
+ * MIN_DUMP_INTERVAL apart whichever player triggers them, and there are
+ * at most MAX_AUTO_DUMPS of them, so a long overload that makes every
+ * player late writes a handful of files, not hundreds. The operator
+ * signal and the exception that ends a player still always dump.
+ * The files are decoded by the main() method:
+ *
+ *   FlightRecorder <file> ...
+ */
+
+public class FlightRecorder
+{
+	private static final int MAGIC 		= 0x41465243;		// "AFRC"
+	private static final int VERSION 	= 1;
+
+	// the automatic dumps of all players are at least this far apart
+	public static final long MIN_DUMP_INTERVAL_NANOS = 10000000000L;
+	// and there are no more than this many in a run
+	public static final int MAX_AUTO_DUMPS 	= 32;
+
+	// flags of an entry
+	public static final int KICKABLE 	= 1;
+	public static final int REUSED 		= 2;	// the previous plan was reused
+	public static final int LATE 		= 4;	// the command was sent late
+
+	private static int 				cycles = 256;		// zero disables the recorders
+	private static String 			directory = ".";
+
+	// incremented by the operator signal; each player dumps once it sees it
+	private static volatile int 	signalCount = 0;
+
+	// shared by all recorders: the time of the last automatic dump and
+	// the number of automatic dumps so far
+	private static final AtomicLong 	lastAutoDumpNanos 
+				= new AtomicLong( System.nanoTime() - MIN_DUMP_INTERVAL_NANOS );
+	private static final AtomicInteger 	autoDumps = new AtomicInteger();
+
+	private final String 	name;
+	private final int 		size;
+	private int 			next = 0;		// the entry of the current cycle
+	private long 			recorded = 0;	// number of cycles recorded
+	private int 			signalSeen = 0;
+	private int 			dumpCount = 0;
+
+	// the entries (the times are in microseconds)
+	private final int[] 	time;			// SeeData.time of the latest SEE
+	private final byte[] 	packetType;
+	private final byte[] 	tier;
+	private final byte[] 	flags;
+	private final byte[] 	possession;		// WorldModel.OUR_BALL, etc.
+	private final byte[] 	action;			// WorldModel action code
+	private final float[] 	ballX, ballY, myX, myY;
+	private final float[] 	kickDir, kickForce;		// NaN if no kick
+	private final float[] 	dashDir, dashForce;		// NaN if no dash
+	private final float[] 	destX, destY;		// NaN if no destination
+	private final int[] 	queueMicros;	// from the step start to reading the packet
+	private final int[] 	updateMicros;
+	private final int[] 	planMicros;
+	private final int[] 	executeMicros;
+
+	// the start of the current cycle
+	private long 			readNanos;
+
+
+	// returns null if the recorders are disabled
+	public static FlightRecorder create( String playerName )
+	{
+		return ( cycles > 0 ) ? new FlightRecorder( playerName, cycles ) : null;
+	}
+
+
+	private FlightRecorder( String name, int size )
+	{
+		this.name = name;
+		this.size = size;
+		time = new int[size];
+		packetType = new byte[size];
+		tier = new byte[size];
+		flags = new byte[size];
+		possession = new byte[size];
+		action = new byte[size];
+		ballX = new float[size];
+		ballY = new float[size];
+		myX = new float[size];
+		myY = new float[size];
+		kickDir = new float[size];
+		kickForce = new float[size];
+		dashDir = new float[size];
+		dashForce = new float[size];
+		destX = new float[size];
+		destY = new float[size];
+		queueMicros = new int[size];
+		updateMicros = new int[size];
+		planMicros = new int[size];
+		executeMicros = new int[size];
+	}
+
+
+	// sets the number of cycles kept by each player (zero disables them)
+	public static void setCycles( int n )
+	{
+		cycles = n;
+	}
+
+
+	public static void setDirectory( String dir )
+	{
+		directory = dir;
+	}
+
+
+	// this method makes all players dump their recorders on SIGUSR2;
+	// the signal API is not part of the standard library, so it is called
+	// by name and nothing happens where it is missing
+	public static void installSignalHandler()
+	{
+		try {
+			Class<?> signalClass = Class.forName( "sun.misc.Signal" );
+			Class<?> handlerClass = Class.forName( "sun.misc.SignalHandler" );
+			Object handler = Proxy.newProxyInstance(
+						FlightRecorder.class.getClassLoader(),
+						new Class<?>[] { handlerClass },
+						new InvocationHandler() {
+				public Object invoke( Object proxy, Method method, Object[] args )
+				{
+					if ( method.getName().equals( "handle" ) ) {
+						signalCount++;
+						System.out.println( "FlightRecorder: dump requested" );
+					}
+					return null;
+				}
+			});
+			Object signal = signalClass.getConstructor( String.class ).newInstance( "USR2" );
+			signalClass.getMethod( "handle", signalClass, handlerClass )
+						.invoke( null, signal, handler );
+		} catch ( Throwable e ) {
+			System.out.println( "FlightRecorder: no signal handler (" + e + ")" );
+		}
+	}
+
+
+	// this method starts the entry of a new cycle; 'stepStartNanos' is
+	// the estimated start of the server step
+	public void begin( Packet packet, long readNanos, long stepStartNanos )
+	{
+		this.readNanos = readNanos;
+		int i = next;
+		packetType[i] = (byte)packet.packetType;
+		time[i] = ( packet.packetType == Packet.SEE )
+					? ((SeeData)packet.data).time : -1;
+		queueMicros[i] = (int)( ( readNanos - stepStartNanos ) / 1000 );
+		flags[i] = 0;
+		action[i] = -1;
+		kickDir[i] = Float.NaN;
+		kickForce[i] = Float.NaN;
+		dashDir[i] = Float.NaN;
+		dashForce[i] = Float.NaN;
+		destX[i] = Float.NaN;
+		destY[i] = Float.NaN;
+		updateMicros[i] = 0;
+		planMicros[i] = 0;
+		executeMicros[i] = 0;
+	}
+
+
+	// the world model has been updated
+	public void perceived( WorldModel world, long nowNanos )
+	{
+		int i = next;
+		updateMicros[i] = (int)( ( nowNanos - readNanos ) / 1000 );
+		WorldData data = world.getWorldData();
+		if ( data == null )
+			return;
+		if ( time[i] < 0 )
+			time[i] = data.time;
+		ballX[i] = (float)data.getBall().position.getX();
+		ballY[i] = (float)data.getBall().position.getY();
+		myX[i] = (float)data.getMyself().position.getX();
+		myY[i] = (float)data.getMyself().position.getY();
+		possession[i] = (byte)world.getBallPossession();
+		if ( world.isBallKickable() )
+			flags[i] |= KICKABLE;
+	}
+
+
+	// the action has been planned (or the previous plan reused)
+	public void planned( WorldModel world, int criticality, boolean reused,
+						 long nowNanos )
+	{
+		int i = next;
+		planMicros[i] = (int)( ( nowNanos - readNanos ) / 1000 ) - updateMicros[i];
+		tier[i] = (byte)criticality;
+		action[i] = (byte)world.getActionType();
+		if ( reused )
+			flags[i] |= REUSED;
+		Vector2d destination = world.getDestination();
+		if ( destination != null ) {
+			destX[i] = (float)destination.getX();
+			destY[i] = (float)destination.getY();
+		}
+	}
+
+
+	// the command has been sent (the parameters are null if none was);
+	// this completes the entry
+	public void executed( KickData kick, DriveData drive, boolean late, long nowNanos )
+	{
+		int i = next;
+		executeMicros[i] = (int)( ( nowNanos - readNanos ) / 1000 )
+							- updateMicros[i] - planMicros[i];
+		if ( kick != null ) {
+			kickDir[i] = (float)kick.dir;
+			kickForce[i] = (float)kick.force;
+		}
+		if ( drive != null ) {
+			dashDir[i] = (float)drive.dir;
+			dashForce[i] = (float)drive.force;
+		}
+		if ( late )
+			flags[i] |= LATE;
+
+		next = ( next + 1 ) % size;
+		recorded++;
+	}
+
+
+	// this method dumps the recorder if the operator has asked for it
+	public void checkSignal()
+	{
+		if ( signalSeen != signalCount ) {
+			signalSeen = signalCount;
+			dump( "signal" );
+		}
+	}
+
+
+	// this method dumps the recorder unless any recorder has been dumped
+	// automatically recently, or too often; of the players that are late
+	// in the same step, only the first one to get here dumps
+	public void trigger( String reason )
+	{
+		long last = lastAutoDumpNanos.get();
+		long now = System.nanoTime();
+		if ( now - last < MIN_DUMP_INTERVAL_NANOS
+				|| autoDumps.get() >= MAX_AUTO_DUMPS
+				|| !lastAutoDumpNanos.compareAndSet( last, now ) )
+			return;
+		if ( autoDumps.incrementAndGet() == MAX_AUTO_DUMPS )
+			System.out.println( "FlightRecorder: this is the last of " 
+								+ MAX_AUTO_DUMPS + " automatic dumps" );
+		dump( reason );
+	}
+
+
+	// this method writes the recorded cycles, the oldest first
+	public void dump( String reason )
+	{
+		File file = new File( directory, "flight-" + name + "-"
+							+ System.currentTimeMillis() + "-" + ( dumpCount++ )
+							+ "-" + reason + ".bin" );
+		try {
+			DataOutputStream out = new DataOutputStream(
+						new BufferedOutputStream( new FileOutputStream( file ) ) );
+			try {
+				int n = (int)Math.min( recorded, size );
+				out.writeInt( MAGIC );
+				out.writeInt( VERSION );
+				out.writeUTF( name );
+				out.writeUTF( reason );
+				out.writeLong( System.currentTimeMillis() );
+				out.writeInt( n );
+				for ( int k = 0; k < n; k++ ) {
+					int i = ( next - n + k + size ) % size;
+					out.writeInt( time[i] );
+					out.writeByte( packetType[i] );
+					out.writeByte( tier[i] );
+					out.writeByte( flags[i] );
+					out.writeByte( possession[i] );
+					out.writeByte( action[i] );
+					out.writeFloat( ballX[i] );
+					out.writeFloat( ballY[i] );
+					out.writeFloat( myX[i] );
+					out.writeFloat( myY[i] );
+					out.writeFloat( kickDir[i] );
+					out.writeFloat( kickForce[i] );
+					out.writeFloat( dashDir[i] );
+					out.writeFloat( dashForce[i] );
+					out.writeFloat( destX[i] );
+					out.writeFloat( destY[i] );
+					out.writeInt( queueMicros[i] );
+					out.writeInt( updateMicros[i] );
+					out.writeInt( planMicros[i] );
+					out.writeInt( executeMicros[i] );
+				}
+			} finally {
+				out.close();
+			}
+			System.out.println( name + ": flight recorder dumped to " + file );
+		} catch ( IOException e ) {
+			System.out.println( name + ": cannot dump the flight recorder: " + e );
+		}
+	}
+
+
+	// this program prints the dumped files as text
+	public static void main( String argv[] ) throws IOException
+	{
+		if ( argv.length < 1 ) {
+			System.err.println( "USAGE: FlightRecorder file ..." );
+			return;
+		}
+		for ( int f = 0; f < argv.length; f++ )
+			decode( argv[f], System.out );
+	}
+
+
+	private static void decode( String fileName, PrintStream ps ) throws IOException
+	{
+		DataInputStream in = new DataInputStream(
+					new BufferedInputStream( new FileInputStream( fileName ) ) );
+		try {
+			if ( in.readInt() != MAGIC || in.readInt() != VERSION )
+				throw new IOException( fileName + ": not a flight recorder file" );
+			String player = in.readUTF();
+			String reason = in.readUTF();
+			long wallTime = in.readLong();
+			int n = in.readInt();
+			ps.println( fileName + ": " + player + ", " + reason + ", "
+						+ new SimpleDateFormat( "yyyy-MM-dd HH:mm:ss.SSS" )
+									.format( new Date( wallTime ) )
+						+ ", " + n + " cycles" );
+			ps.println( " time pkt tier flags poss action        ball            me"
+						+ "          kick          dash          destination"
+						+ "    queue update   plan   exec (us)" );
+			for ( int k = 0; k < n; k++ ) {
+				int time = in.readInt();
+				int type = in.readByte();
+				int tier = in.readByte();
+				int flags = in.readByte();
+				int possession = in.readByte();
+				int action = in.readByte();
+				float bx = in.readFloat(), by = in.readFloat();
+				float mx = in.readFloat(), my = in.readFloat();
+				float kd = in.readFloat(), kf = in.readFloat();
+				float dd = in.readFloat(), df = in.readFloat();
+				float tx = in.readFloat(), ty = in.readFloat();
+				int queue = in.readInt(), update = in.readInt();
+				int plan = in.readInt(), exec = in.readInt();
+
+				String flagText = ( ( flags & KICKABLE ) != 0 ? "K" : "-" )
+								+ ( ( flags & REUSED ) != 0 ? "R" : "-" )
+								+ ( ( flags & LATE ) != 0 ? "L" : "-" );
+				String actionText = WorldModel.getActionName( action );
+				ps.println( String.format( Locale.US,
+						"%5d %3s %4d %5s %4d %-9s (%6.1f,%5.1f) (%6.1f,%5.1f) %13s %13s"
+						+ " %14s %6d %6d %6d %6d",
+						time, type == Packet.SEE ? "SEE" : type == Packet.REFEREE ? "REF" : "" + type,
+						tier, flagText, possession, actionText, bx, by, mx, my,
+						Float.isNaN( kd ) ? "" : String.format( Locale.US, "%6.1f/%5.1f", kd, kf ),
+						Float.isNaN( dd ) ? "" : String.format( Locale.US, "%6.1f/%5.1f", dd, df ),
+						Float.isNaN( tx ) ? "" : String.format( Locale.US, "(%6.1f,%5.1f)", tx, ty ),
+						queue, update, plan, exec ) );
+			}
+		} finally {
+			in.close();
+		}
+	}
+}
@@ -1,208 +1,218 @@
 /* Formation.java
- 
+
  by Vadim Kyrylov
  January 2006
- 
- This class implements hard coded team formation.
- 
- An alternative implementation is possible by manually placing players 
- on the field with the mouse in the Stepwise mode. Then this situation 
- can be saved to a file. This file could be loaded into this class. 
- 
+
+ This class implements the team formation.
+
+ The formations are loaded from a text file (formations.txt by default),
+ so that they could be created and modified without recompiling the team.
+ A formation cannot be changed once it is loaded; to change the formation
+ of a team during the game, a different Formation object is published
+ in the TeamFormation.
+
+ An alternative implementation is possible by manually placing players
+ on the field with the mouse in the Stepwise mode. Then this situation
+ can be saved to a file. This file could be loaded into this class.
+
  Methods for saving game situation and loading it from file can be found
- in Soccer Monitor ( see SaveSnapshotAction, CoachLoadFileAction classes 
- in package soccer.client.action package and SituationDialog class in 
+ in Soccer Monitor ( see SaveSnapshotAction, CoachLoadFileAction classes
+ in package soccer.client.action package and SituationDialog class in
  soccer.client.dialog package)
- 
- 
+
+
 */
 
 
 package tos_teams.africa;
 
 import soccer.common.*;
+import java.io.*;
 import java.util.*;
 
 
-// use this template for creating differnt formations and running 
-// simulation experiemnets with them
+// use the formations file for creating differnt formations and running
+// simulation experiemnets with them.
+//
+// the file format is as follows (all for the left-hand team):
+//
+//   # comment
+//   formation 343
+//   goalie      -48.0   0.0
+//   defender    -33.0  20.0
+//   ...
+//   attacker     -1.5   0.0  kicker
+//
+// the first player is the goalie; 'kicker' marks the player who would be
+// moved by the server close to the ball before kickoff or corner kick.
+
+public final class Formation
+{
+	// every formation places a full team
+	public static final int NUM_OF_PLAYERS = 11;
+
+	// player categories
+	private static final int DEFENDER 	= 1;
+	private static final int MIDFIELDER = 2;
+	private static final int ATTACKER 	= 4;
+	private static final int KICKER 	= 8;
+
+	private final String 	name;
+
+	// player default positions on the field
+	private final double[] 	homeX;
+	private final double[] 	homeY;
+
+	// the categories of each player (could be treated differently in positioning)
+	private final int[] 	flags;
+
+
+	private Formation( String name, double[] homeX, double[] homeY, int[] flags )
+	{
+		this.name = name;
+		this.homeX = homeX;
+		this.homeY = homeY;
+		this.flags = flags;
+	}
+
+
+	// this method loads all formations in the file; if there is no such file,
+	// the file with this name is looked up next to the team classes
+	public static Map<String, Formation> load( String fileName ) throws IOException
+	{
+		InputStream in;
+		File file = new File( fileName );
+		if ( file.exists() )
+			in = new FileInputStream( file );
+		else {
+			in = Formation.class.getResourceAsStream( fileName );
+			if ( in == null )
+				throw new FileNotFoundException( fileName );
+		}
+
+		Map<String, Formation> formations = new LinkedHashMap<String, Formation>();
+		BufferedReader reader = new BufferedReader( new InputStreamReader( in ) );
+		try {
+			String name = null;
+			List<double[]> players = new ArrayList<double[]>();
+			String line;
+			int lineNumber = 0;
+
+			while ( ( line = reader.readLine() ) != null ) {
+				lineNumber++;
+				int comment = line.indexOf( '#' );
+				if ( comment >= 0 )
+					line = line.substring( 0, comment );
+				StringTokenizer st = new StringTokenizer( line );
+				if ( !st.hasMoreTokens() )
+					continue;
+
+				String word = st.nextToken();
+				if ( word.equals( "formation" ) ) {
+					if ( name != null )
+						formations.put( name, create( fileName, name, players ) );
+					name = st.nextToken();
+					players.clear();
+				} else if ( name == null ) {
+					throw new IOException( fileName + ":" + lineNumber
+											+ ": formation name expected" );
+				} else {
+					double x = Double.parseDouble( st.nextToken() );
+					double y = Double.parseDouble( st.nextToken() );
+					int flag = 0;
+					if ( word.equals( "defender" ) )
+						flag = DEFENDER;
+					else if ( word.equals( "midfielder" ) )
+						flag = MIDFIELDER;
+					else if ( word.equals( "attacker" ) )
+						flag = ATTACKER;
+					else if ( !word.equals( "goalie" ) )
+						throw new IOException( fileName + ":" + lineNumber
+											+ ": unknown player category " + word );
+					if ( st.hasMoreTokens() && st.nextToken().equals( "kicker" ) )
+						flag |= KICKER;
+					players.add( new double[] { x, y, flag } );
+				}
+			}
+			if ( name != null )
+				formations.put( name, create( fileName, name, players ) );
+		} catch ( RuntimeException e ) {
+			throw new IOException( fileName + ": " + e );
+		} finally {
+			reader.close();
+		}
+		return formations;
+	}
+
 
-public class Formation
-{		
-	public Vector fplayers = new Vector();			
-	private FPlayer player; 
-	
-	
-	Formation( String formation )
+	private static Formation create( String fileName, String name, 
+									 List<double[]> players ) throws IOException
 	{
-		// all for the left-hand team
-		
-		if ( formation == "433" )
-		{
-			// the goalie 
-			player = new FPlayer ( new Vector2d( -48.0, 0.0 ), false, false, false, false );
-			fplayers.addElement( player );		
-			
-			// three defenders
-			player = new FPlayer ( new Vector2d( -33.0, 20.0 ), true, false, false, false );
-			fplayers.addElement( player );		
-			player = new FPlayer ( new Vector2d( -35.0, 0.0 ), true, false, false, false );
-			fplayers.addElement( player );		
-			player = new FPlayer ( new Vector2d( -33.0, -20.0 ), true, false, false, false );
-			fplayers.addElement( player );		
-				
-			// three midfielders
-			player = new FPlayer ( new Vector2d( -17.0, 25.0 ), false, true, false, false );
-			fplayers.addElement( player );		
-			player = new FPlayer ( new Vector2d( -22.0, 0.0 ), false, true, false, false );
-			fplayers.addElement( player );		
-			player = new FPlayer ( new Vector2d( -17.0, -25.0 ), false, true, false, false );
-			fplayers.addElement( player );		
-
-			// four forwards
-			player = new FPlayer ( new Vector2d( -1.5, 20.0 ), false, false, true, false );
-			fplayers.addElement( player );		
-			player = new FPlayer ( new Vector2d( -1.5, 8.0 ), false, false, true, true );	// kicker
-			fplayers.addElement( player );		
-			player = new FPlayer ( new Vector2d( -1.5, -8.0 ), false, false, true, false ); 
-			fplayers.addElement( player );		
-			player = new FPlayer ( new Vector2d( -1.5, -20.0 ), false, false, true, false );
-			fplayers.addElement( player );		
+		int n = players.size();
+		if ( n != NUM_OF_PLAYERS )
+			throw new IOException( fileName + ": formation " + name + " has " + n 
+								   + " players instead of " + NUM_OF_PLAYERS );
+		double[] x = new double[n];
+		double[] y = new double[n];
+		int[] flags = new int[n];
+		for ( int i = 0; i < n; i++ ) {
+			double[] p = players.get( i );
+			x[i] = p[0];
+			y[i] = p[1];
+			flags[i] = (int)p[2];
 		}
-		else if ( formation == "523" )
-		{
-			// the "W" formation
-			// the goalie 
-			player = new FPlayer ( new Vector2d( -48.0, 0.0 ), false, false, false, false );
-			fplayers.addElement( player );		
-
-			// three defenders
-			player = new FPlayer ( new Vector2d( -33.0, 20.0 ), true, false, false, false );
-			fplayers.addElement( player );		
-			player = new FPlayer ( new Vector2d( -35.0, 0.0 ), true, false, false, false );
-			fplayers.addElement( player );		
-			player = new FPlayer ( new Vector2d( -33.0, -20.0 ), true, false, false, false );
-			fplayers.addElement( player );		
-
-			// two midfielders
-			player = new FPlayer ( new Vector2d( -17.0, 18.0 ), false, true, false, false );
-			fplayers.addElement( player );		
-			player = new FPlayer ( new Vector2d( -17.0, -18.0 ), false, true, false, false );
-			fplayers.addElement( player );		
-
-			// five forwards
-			player = new FPlayer ( new Vector2d( -1.5, 26.0 ), false, false, true, false );
-			fplayers.addElement( player );		
-			player = new FPlayer ( new Vector2d( -10.0, 10.0 ), false, false, true, false );
-			fplayers.addElement( player );		
-			player = new FPlayer ( new Vector2d( -3.0, 0.0 ), false, false, true, true );	// kicker	
-			fplayers.addElement( player );		
-			player = new FPlayer ( new Vector2d( -10.0, -10.0 ), false, false, true, false );
-			fplayers.addElement( player );		
-			player = new FPlayer ( new Vector2d( -1.5, -26.0 ), false, false, true, false );
-			fplayers.addElement( player );		
-		}		
-		else if ( formation == "343" )
-		{
-			// the goalie 
-			player = new FPlayer ( new Vector2d( -48.0, 0.0 ), false, false, false, false );
-			fplayers.addElement( player );		
-
-			// three defenders
-			player = new FPlayer ( new Vector2d( -33.0, 20.0 ), true, false, false, false );
-			fplayers.addElement( player );		
-			player = new FPlayer ( new Vector2d( -35.0, 0.0 ), true, false, false, false );
-			fplayers.addElement( player );		
-			player = new FPlayer ( new Vector2d( -33.0, -20.0 ), true, false, false, false );
-			fplayers.addElement( player );		
-
-			// four midfielders
-			player = new FPlayer ( new Vector2d( -17.0, 20.0 ), false, true, false, false );
-			fplayers.addElement( player );		
-			player = new FPlayer ( new Vector2d( -22.0, 8.0 ), false, true, false, false );
-			fplayers.addElement( player );		
-			player = new FPlayer ( new Vector2d( -22.0, -8.0 ), false, true, false, false );
-			fplayers.addElement( player );		
-			player = new FPlayer ( new Vector2d( -17.0, -20.0 ), false, true, false, false );
-			fplayers.addElement( player );
-			
-			// three forwards
-			player = new FPlayer ( new Vector2d( -1.5, 18.0 ), false, false, true, false );
-			fplayers.addElement( player );		
-			player = new FPlayer ( new Vector2d( -1.5, 0.0 ), false, false, true, true );	// kicker
-			fplayers.addElement( player );		
-			player = new FPlayer ( new Vector2d( -1.5, -18.0 ), false, false, true, false ); 
-			fplayers.addElement( player );		
-		}		
-			
-		//System.out.println( "\n Set formation " + formation );	
+		return new Formation( name, x, y, flags );
+	}
+
+
+	public String getName()
+	{
+		return name;
+	}
+
+	public int size()
+	{
+		return homeX.length;
 	}
-	
 
 	public Vector2d getHome( int role )
 	{
-		FPlayer player = (FPlayer)fplayers.elementAt( role );
-		return player.home;
+		return new Vector2d( homeX[role], homeY[role] );
 	}
-	
-	public boolean isGoalie( int role ) 
+
+	public double getHomeX( int role )
 	{
-		return (role == 0);
+		return homeX[role];
+	}
+
+	public double getHomeY( int role )
+	{
+		return homeY[role];
 	}
 
-	public boolean isDefender( int role ) 
+	public boolean isGoalie( int role )
 	{
-		FPlayer player = (FPlayer)fplayers.elementAt( role );
-		return player.defender;
+		return (role == 0);
 	}
-	
-	public boolean isMidfielder( int role ) 
+
+	public boolean isDefender( int role )
 	{
-		FPlayer player = (FPlayer)fplayers.elementAt( role );
-		return player.midfielder;
+		return ( flags[role] & DEFENDER ) != 0;
 	}
 
-	public boolean isAttacker( int role ) 
+	public boolean isMidfielder( int role )
 	{
-		FPlayer player = (FPlayer)fplayers.elementAt( role );
-		return player.attacker;
+		return ( flags[role] & MIDFIELDER ) != 0;
 	}
 
-	public boolean isKicker( int role ) 
+	public boolean isAttacker( int role )
 	{
-		FPlayer player = (FPlayer)fplayers.elementAt( role );
-		return player.kicker;
+		return ( flags[role] & ATTACKER ) != 0;
 	}
 
-	
-	// instances of this class are stored in the Formation 
-	private class FPlayer
+	public boolean isKicker( int role )
 	{
-		Vector2d 	home; 	// player default position on the field  
-		
-		// these three categories could be treated differently in positioning
-		boolean 	defender;
-		boolean 	midfielder; 
-		boolean 	attacker;
-		
-		boolean 	kicker;	// if true, the server would move this guy close to 
-							// the ball before kickoff or corner kick.
-							// if there is no kicker, server selects a default 
-							// player itself, thus disturbing the formation
-
-		FPlayer( Vector2d 	home, 
-				 boolean 	defender, 
-				 boolean 	midfielder, 
-				 boolean 	attacker,
-				 boolean 	kicker )
-		{
-			this.home 		= home;
-			this.defender 	= defender;
-			this.midfielder = midfielder;	
-			this.attacker 	= attacker;
-			this.kicker 	= kicker;
-		}
-		
+		return ( flags[role] & KICKER ) != 0;
 	}
-	
-}
\ No newline at end of file
+
+}
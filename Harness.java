@@ -0,0 +1,119 @@
+/* Harness.java
+
+   The parts shared by the programs that run the players without the server.
+
+*/
+
+package tos_teams.africa;
+
+import soccer.common.*;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * ThroughputBenchmark, AllocationCheck, DecisionEquivalence, JitWarmup
+ * and HeadlessMatch all set up the players the way Africa_Team does, on
+ * in-memory transceivers (see createPlayer()); the first two also feed
+ * each player a prepared stream of packets in a loop (see LoopingFeed).
+ */
+
+final class Harness
+{
+	private Harness()
+	{
+	}
+
+
+	/**
+	 * The packet stream of one player, fed again and again; the step
+	 * numbers of the SEE packets go on from one loop to the next, so the
+	 * player never sees the time go back. The subclass counts what it
+	 * measures in next() and takes the packet from nextPacket(); the
+	 * packets are made in advance, so the loop itself allocates nothing.
+	 */
+	abstract static class LoopingFeed implements InMemoryTransceiver.Feed
+	{
+		private final Packet[] 	packets;
+		private final int[] 	times;			// the original SEE step numbers
+		private final int 		span;			// steps in one loop of the stream
+
+		private int 		next = 0;
+		private int 		loops = 0;
+		AIPlayer 			player;				// the player fed
+		int 				currentTime = -1;	// of the latest SEE packet
+
+
+		LoopingFeed( List<Packet> stream )
+		{
+			packets = stream.toArray( new Packet[ stream.size() ] );
+			times = new int[ packets.length ];
+			int steps = 0;
+			int previous = -1;
+			for ( int i = 0; i < packets.length; i++ ) {
+				if ( packets[i].packetType == Packet.SEE ) {
+					times[i] = ((SeeData)packets[i].data).time;
+					if ( previous >= 0 )
+						steps += ServerTime.delta( previous, times[i] );
+					previous = times[i];
+				}
+			}
+			span = steps + 1;
+		}
+
+
+		// this method returns the next packet of the stream
+		final Packet nextPacket()
+		{
+			Packet packet = packets[next];
+			if ( packet.packetType == Packet.SEE ) {
+				currentTime = ( times[next] + loops * span ) % 1000;
+				((SeeData)packet.data).time = currentTime;
+			}
+			next++;
+			if ( next == packets.length ) {
+				next = 0;
+				loops++;
+			}
+			return packet;
+		}
+
+
+		// this method ends the player thread: the player stops after this
+		// cycle, and the exception makes it leave the wait for the packet
+		final EOFException stop( String message )
+		{
+			player.shutdown();
+			return new EOFException( message );
+		}
+
+
+		public void sent( Packet packet )
+		{
+		}
+	}
+
+
+	// this method creates the player 'role' of team 'side' on a transceiver
+	// fed by 'feed', set up as in Africa_Team; the blackboard, the
+	// coordinator and the set pieces may be null
+	static AIPlayer createPlayer( InMemoryTransceiver.Feed feed, char side, int role,
+								  Formation formation, TeamFormation teamFormation,
+								  TeamBlackboard blackboard, TeamCoordinator coordinator,
+								  SetPieceLibrary setPieces ) throws IOException
+	{
+		AIPlayer player = new AIPlayer( new InMemoryTransceiver( feed ),
+										new InitData(), side, role, formation );
+		if ( feed instanceof LoopingFeed )
+			((LoopingFeed)feed).player = player;
+		player.setPlayerTeamID( side == 'l' ? 1 : -1 );
+		player.setPlayerNumber( role + 1 );
+		player.setBlackboard( blackboard );
+		player.getWorldModel().setFormation( teamFormation );
+		player.getWorldModel().setCoordinator( coordinator );
+		player.getWorldModel().setSetPieces( setPieces );
+		player.getWorldModel().setPlayerTeamID( player.getPlayerTeamID() );
+		player.getWorldModel().setPlayerNumber( player.getPlayerNumber() );
+		return player;
+	}
+}
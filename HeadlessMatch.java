@@ -0,0 +1,453 @@
+/* HeadlessMatch.java
+
+   A match of two teams of players run in one thread without the server.
+
+*/
+
+package tos_teams.africa;
+
+import soccer.common.*;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * This class plays a match between two teams of players in the calling
+ * thread, taking the place of the soccer server. Unlike SyntheticMatch,
+ * the ball and the players move as the players command: in each step,
+ * every player decides on its SEE packet (see AIPlayer.decide()), and
+ * then the dashes and the kicks are applied with the physics of the
+ * server (the constants in WorldModel), with some noise. The match is
+ * played in lockstep, as fast as the players decide, so that many matches
+ * can be played in parallel for tuning (see SelfPlayTuner).
+ *
+ * The referee is simplified: the goals, kick-offs, throw-ins, corner
+ * kicks and goal kicks are called, and the goalie may grab the ball, but
+ * there are no offsides, collisions or fouls, and the teams do not change
+ * the sides at half time. A set piece not taken in SET_PIECE_TIMEOUT
+ * steps is continued by the play-on.
+ *
+ * Each team has its own tuning parameters, formation, blackboard and,
+ * optionally, coordinator; the players are created for the match and
+ * dropped afterwards. The same seed and parameters produce the same
+ * match in the deterministic mode (see AgentRandom).
+ */
+
+public class HeadlessMatch
+{
+	// the players take their positions for this many steps before the kick-off
+	private static final int 	KICK_OFF_STEPS = 20;
+	// a set piece not taken in this many steps is continued by the play-on
+	private static final int 	SET_PIECE_TIMEOUT = 100;
+	// the server repeats the referee info once in this many steps
+	private static final int 	REFEREE_STEPS = 20;
+
+	// the noise of the commands, as a fraction of the force and in degrees
+	private static final double FORCE_NOISE = 0.1;
+	private static final double DIR_NOISE = 4.0;
+
+	private static final char[] SIDES = { 'l', 'r' };
+
+
+	/**
+	 * The outcome of a match, from the left team's point of view.
+	 */
+	public static class Result
+	{
+		public int 		goalsLeft;
+		public int 		goalsRight;
+		public int 		steps;
+		// the average x of the ball (the left team attacks towards +x)
+		public double 	meanBallX;
+
+		public int getGoalDifference()
+		{
+			return goalsLeft - goalsRight;
+		}
+	}
+
+
+	/**
+	 * The feed of one player; it keeps the latest command of the step.
+	 */
+	private static class CommandFeed implements InMemoryTransceiver.Feed
+	{
+		int 		type = 0;		// 0 if no command
+		double 		dir, force;
+
+		public Packet next() throws IOException
+		{
+			throw new EOFException( "the packets are given to decide()" );
+		}
+
+		public void sent( Packet packet )
+		{
+			// (the data objects are reused by the player)
+			type = packet.packetType;
+			if ( packet.data instanceof KickData ) {
+				dir = ((KickData)packet.data).dir;
+				force = ((KickData)packet.data).force;
+			} else if ( packet.data instanceof DriveData ) {
+				dir = ((DriveData)packet.data).dir;
+				force = ((DriveData)packet.data).force;
+			}
+		}
+	}
+
+
+	private final int 				size;			// players per team
+	private final AIPlayer[][] 		players;		// [team][role]
+	private final CommandFeed[][] 	feeds;
+	private final double[][] 		homeX, homeY;
+	private final double[][] 		x, y, vx, vy, dir;
+	private final SplittableRandom 	random;
+
+	private double 		ballX, ballY, ballVx, ballVy;
+	private int 		controllerTeam = -1, controllerRole;
+	private int 		lastKickerTeam = -1;
+	private boolean 	grabbed = false;
+	private int 		grabSteps;
+
+	private int 		period = RefereeData.FIRST_HALF;
+	private int 		mode = RefereeData.BEFORE_KICK_OFF;
+	private char 		sideToContinue = 'l';
+	private int 		modeSteps = 0;			// since the mode was set
+	private boolean 	refereeChanged = true;
+
+	private final Result 	result = new Result();
+
+
+	// 'parameters' and 'coordinated' are those of the left and the
+	// right team; the same formation is played by both
+	public HeadlessMatch( Formation formation, int playersPerTeam,
+						  TuningParameters[] parameters, boolean[] coordinated,
+						  SetPieceLibrary setPieces, long seed ) throws IOException
+	{
+		size = Math.max( 1, Math.min( playersPerTeam, formation.size() ) );
+		random = new SplittableRandom( seed );
+		players = new AIPlayer[2][size];
+		feeds = new CommandFeed[2][size];
+		homeX = new double[2][size];
+		homeY = new double[2][size];
+		x = new double[2][size];
+		y = new double[2][size];
+		vx = new double[2][size];
+		vy = new double[2][size];
+		dir = new double[2][size];
+
+		for ( int team = 0; team < 2; team++ ) {
+			char side = SIDES[team];
+			double sign = ( team == 0 ) ? 1 : -1;	// the right team is inverted
+			TeamFormation teamFormation = new TeamFormation( side, formation );
+			TeamBlackboard blackboard = new TeamBlackboard( side );
+			TeamCoordinator coordinator = null;
+			if ( coordinated[team] ) {
+				coordinator = new TeamCoordinator( side, teamFormation );
+				coordinator.setParameters( parameters[team] );
+			}
+
+			for ( int role = 0; role < size; role++ ) {
+				homeX[team][role] = sign * formation.getHomeX( role );
+				homeY[team][role] = sign * formation.getHomeY( role );
+
+				feeds[team][role] = new CommandFeed();
+				AIPlayer player = Harness.createPlayer( feeds[team][role], side, role,
+								formation, teamFormation, blackboard, coordinator, setPieces );
+				player.setParameters( parameters[team] );
+				players[team][role] = player;
+			}
+		}
+		setKickOff( 'l' );
+	}
+
+
+	// this method plays the match for 'steps' steps and returns the result;
+	// the second half is kicked off by the right team
+	public Result play( int steps ) throws IOException
+	{
+		double sumBallX = 0;
+		for ( int s = 0; s < steps; s++ ) {
+			if ( s == steps/2 ) {
+				period = RefereeData.SECOND_HALF;
+				setKickOff( 'r' );
+			}
+			decide( s );
+			move();
+			referee();
+			sumBallX += ballX;
+		}
+		result.steps = steps;
+		result.meanBallX = sumBallX / Math.max( 1, steps );
+		return result;
+	}
+
+
+	// every player decides on the current state; the teams take turns
+	// in deciding first
+	private void decide( int s ) throws IOException
+	{
+		// (the players must have seen the world before the referee info)
+		Packet referee = null;
+		if ( s > 0 && ( refereeChanged || s % REFEREE_STEPS == 0 ) ) {
+			RefereeData data = new RefereeData();
+			data.period = period;
+			data.mode = mode;
+			data.sideToContinue = sideToContinue;
+			referee = new Packet( Packet.REFEREE, data, null, 0 );
+			refereeChanged = false;
+		}
+
+		Player[][] seen = new Player[2][size];
+		for ( int team = 0; team < 2; team++ )
+			for ( int role = 0; role < size; role++ )
+				seen[team][role] = new Player( SIDES[team], role + 1,
+										new Vector2d( x[team][role], y[team][role] ),
+										dir[team][role] );
+		Ball ball;
+		if ( controllerTeam >= 0 )
+			ball = new Ball( new Vector2d( ballX, ballY ),
+							 SIDES[controllerTeam], controllerRole + 1 );
+		else
+			ball = new Ball( new Vector2d( ballX, ballY ), 'f', 0 );
+		ball.isGrabbed = grabbed;
+
+		int time = s % ServerTime.MODULUS;
+		for ( int k = 0; k < 2; k++ ) {
+			int team = ( k + s ) % 2;
+			for ( int role = 0; role < size; role++ ) {
+				AIPlayer player = players[team][role];
+				feeds[team][role].type = 0;
+				if ( referee != null )
+					player.decide( referee, false );
+				player.decide( new Packet( Packet.SEE, see( seen, ball, time, team, role ),
+										   null, 0 ), false );
+			}
+		}
+	}
+
+
+	private SeeData see( Player[][] seen, Ball ball, int time, int me, int myRole )
+	{
+		Vector<Player> left = new Vector<Player>( size );
+		Vector<Player> right = new Vector<Player>( size );
+		for ( int team = 0; team < 2; team++ ) {
+			for ( int role = 0; role < size; role++ ) {
+				if ( team == me && role == myRole )
+					continue;		// the server skips me in my team
+				if ( team == 0 )
+					left.addElement( seen[team][role] );
+				else
+					right.addElement( seen[team][role] );
+			}
+		}
+		return new SeeData( time, seen[me][myRole], SeeData.NO_OFFSIDE, ball, left, right );
+	}
+
+
+	// this method applies the commands and moves the players and the ball
+	private void move()
+	{
+		boolean beforeKickOff = ( mode == RefereeData.BEFORE_KICK_OFF );
+
+		for ( int team = 0; team < 2; team++ ) {
+			for ( int role = 0; role < size; role++ ) {
+				CommandFeed feed = feeds[team][role];
+				double ax = 0, ay = 0;
+				if ( feed.type == Packet.DRIVE && !beforeKickOff ) {
+					double force = Math.max( -WorldModel.MAXDASH,
+											 Math.min( feed.force, WorldModel.MAXDASH ) );
+					force *= 1 + FORCE_NOISE * ( random.nextDouble() - 0.5 );
+					double a = Math.toRadians( feed.dir
+										+ DIR_NOISE * ( random.nextDouble() - 0.5 ) );
+					ax = WorldModel.K1 * force * Math.cos( a );
+					ay = WorldModel.K1 * force * Math.sin( a );
+					dir[team][role] = feed.dir;
+				}
+				vx[team][role] += ax - WorldModel.K2 * vx[team][role];
+				vy[team][role] += ay - WorldModel.K2 * vy[team][role];
+				x[team][role] = clamp( x[team][role] + vx[team][role],
+							WorldModel.LENGTH/2.0 + WorldModel.SIDEWALK );
+				y[team][role] = clamp( y[team][role] + vy[team][role],
+							WorldModel.WIDTH/2.0 + WorldModel.SIDEWALK );
+			}
+		}
+
+		if ( !beforeKickOff )
+			kick();
+
+		if ( grabbed ) {
+			// the ball is dragged with the goalie
+			ballX = x[controllerTeam][0];
+			ballY = y[controllerTeam][0];
+			ballVx = 0;
+			ballVy = 0;
+			if ( ++grabSteps > WorldModel.MAX_GRABBED_STEPS )
+				grabbed = false;
+		} else {
+			ballX += ballVx;
+			ballY += ballVy;
+			ballVx *= 1 - WorldModel.FRICTIONFACTOR;
+			ballVy *= 1 - WorldModel.FRICTIONFACTOR;
+		}
+		findController();
+	}
+
+
+	// the ball controller kicks the ball, or the goalie grabs it
+	private void kick()
+	{
+		if ( controllerTeam < 0 )
+			return;
+		int team = controllerTeam;
+		int role = controllerRole;
+		CommandFeed feed = feeds[team][role];
+
+		// only the side to continue may restart the game
+		if ( mode != RefereeData.PLAY_ON && SIDES[team] != sideToContinue )
+			return;
+
+		if ( feed.type == Packet.KICK ) {
+			double force = Math.max( 0, Math.min( feed.force, WorldModel.MAXKICK ) );
+			force *= 1 + FORCE_NOISE * ( random.nextDouble() - 0.5 );
+			double a = Math.toRadians( feed.dir
+								+ DIR_NOISE * ( random.nextDouble() - 0.5 ) );
+			ballVx = WorldModel.BK1 * force * Math.cos( a );
+			ballVy = WorldModel.BK1 * force * Math.sin( a );
+			grabbed = false;
+			lastKickerTeam = team;
+			if ( mode != RefereeData.PLAY_ON )
+				setMode( RefereeData.PLAY_ON, sideToContinue );
+		} else if ( feed.type == Packet.TELEPORT && role == 0 && !grabbed
+					&& mode == RefereeData.PLAY_ON && inOwnPenaltyArea( team ) ) {
+			// (the goalie teleports the ball to grab it)
+			grabbed = true;
+			grabSteps = 0;
+			lastKickerTeam = team;
+		}
+	}
+
+
+	// the nearest player within the control range controls the ball
+	private void findController()
+	{
+		if ( grabbed )
+			return;
+		double best = WorldModel.CONTROLRANGE * WorldModel.CONTROLRANGE;
+		controllerTeam = -1;
+		for ( int team = 0; team < 2; team++ ) {
+			for ( int role = 0; role < size; role++ ) {
+				double dx = x[team][role] - ballX;
+				double dy = y[team][role] - ballY;
+				if ( dx*dx + dy*dy < best ) {
+					best = dx*dx + dy*dy;
+					controllerTeam = team;
+					controllerRole = role;
+				}
+			}
+		}
+	}
+
+
+	private boolean inOwnPenaltyArea( int team )
+	{
+		double sign = ( team == 0 ) ? 1 : -1;
+		double gx = -sign * WorldModel.LENGTH/2.0;
+		return Math.abs( ballX - gx ) < WorldModel.PENALTY_DEPTH
+				&& Math.abs( ballY ) < WorldModel.PENALTY_WIDTH/2.0;
+	}
+
+
+	// this method calls the goals, the balls out and the restarts
+	private void referee()
+	{
+		modeSteps++;
+		if ( mode == RefereeData.BEFORE_KICK_OFF ) {
+			if ( modeSteps >= KICK_OFF_STEPS )
+				setMode( sideToContinue == 'l' ? RefereeData.KICK_OFF_L
+											   : RefereeData.KICK_OFF_R, sideToContinue );
+			return;
+		}
+		if ( mode != RefereeData.PLAY_ON && modeSteps >= SET_PIECE_TIMEOUT )
+			setMode( RefereeData.PLAY_ON, sideToContinue );
+
+		double maxX = WorldModel.LENGTH/2.0;
+		double maxY = WorldModel.WIDTH/2.0;
+		if ( Math.abs( ballX ) > maxX ) {
+			// the left team attacks the goal at +x
+			int attacker = ( ballX > 0 ) ? 0 : 1;
+			int defender = 1 - attacker;
+			if ( Math.abs( ballY ) < WorldModel.GOAL_WIDTH/2.0 ) {
+				if ( attacker == 0 )
+					result.goalsLeft++;
+				else
+					result.goalsRight++;
+				setKickOff( SIDES[defender] );
+			} else if ( lastKickerTeam == defender ) {
+				restart( attacker == 0 ? RefereeData.CORNER_KICK_L
+									   : RefereeData.CORNER_KICK_R, attacker,
+						 Math.signum( ballX ) * maxX, Math.signum( ballY ) * maxY );
+			} else {
+				restart( defender == 0 ? RefereeData.GOAL_KICK_L
+									   : RefereeData.GOAL_KICK_R, defender,
+						 Math.signum( ballX ) * ( maxX - WorldModel.GOALAREA_DEPTH ),
+						 Math.signum( ballY ) * WorldModel.GOALAREA_WIDTH/2.0 );
+			}
+		} else if ( Math.abs( ballY ) > maxY ) {
+			int team = ( lastKickerTeam == 0 ) ? 1 : 0;
+			restart( team == 0 ? RefereeData.THROW_IN_L : RefereeData.THROW_IN_R,
+					 team, ballX, Math.signum( ballY ) * maxY );
+		}
+	}
+
+
+	// the ball is placed at ('bx', 'by') for 'team' to restart the game
+	private void restart( int restartMode, int team, double bx, double by )
+	{
+		ballX = bx;
+		ballY = by;
+		ballVx = 0;
+		ballVy = 0;
+		grabbed = false;
+		setMode( restartMode, SIDES[team] );
+		findController();
+	}
+
+
+	// the players are placed in their home positions and the ball in
+	// the center for 'side' to kick off
+	private void setKickOff( char side )
+	{
+		for ( int team = 0; team < 2; team++ ) {
+			for ( int role = 0; role < size; role++ ) {
+				x[team][role] = homeX[team][role];
+				y[team][role] = homeY[team][role];
+				vx[team][role] = 0;
+				vy[team][role] = 0;
+				dir[team][role] = ( team == 0 ) ? 0 : 180;
+			}
+		}
+		ballX = 0;
+		ballY = 0;
+		ballVx = 0;
+		ballVy = 0;
+		grabbed = false;
+		lastKickerTeam = -1;
+		setMode( RefereeData.BEFORE_KICK_OFF, side );
+		findController();
+	}
+
+
+	private void setMode( int newMode, char side )
+	{
+		mode = newMode;
+		sideToContinue = side;
+		modeSteps = 0;
+		refereeChanged = true;
+	}
+
+
+	private static double clamp( double v, double max )
+	{
+		return Math.max( -max, Math.min( v, max ) );
+	}
+}
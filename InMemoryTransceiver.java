@@ -0,0 +1,65 @@
+/* InMemoryTransceiver.java
+
+   A transceiver that exchanges the packets with a feed in the same process.
+
+*/
+
+package tos_teams.africa;
+
+import soccer.common.*;
+
+import java.io.*;
+
+/**
+ * This transceiver lets a player run without the server and the network.
+ * Instead of reading a datagram, receive() asks the feed for the next
+ * packet, and the commands passed to send() are handed to the feed. As
+ * the player thread itself calls the feed, the packets arrive exactly as
+ * fast as the player can process them, which is what the benchmarks need.
+ *
+ * The datagram socket of the parent class is opened but never used.
+ */
+
+public class InMemoryTransceiver extends Transceiver
+{
+	/**
+	 * The source of the packets received by the player and the sink of
+	 * the commands it sends. Both methods are called by the player thread.
+	 */
+	public interface Feed
+	{
+		// returns the next packet for the player; an exception ends
+		// the cycle without any packet
+		Packet next() throws IOException;
+
+		// receives the command sent by the player
+		void sent( Packet packet ) throws IOException;
+	}
+
+	private final Feed 	feed;
+
+
+	public InMemoryTransceiver( Feed feed ) throws IOException
+	{
+		super( false );
+		this.feed = feed;
+	}
+
+
+	public Packet receive() throws IOException
+	{
+		return feed.next();
+	}
+
+
+	public void send( Packet packet ) throws IOException
+	{
+		feed.sent( packet );
+	}
+
+
+	// there is nothing to wait for
+	public void setTimeout( int timeout )
+	{
+	}
+}
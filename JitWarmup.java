@@ -0,0 +1,156 @@
+/* JitWarmup.java
+
+   Runs the decision making of the players over synthetic states before
+   the match, so that it is compiled by the time the ball is kicked off.
+
+*/
+
+package tos_teams.africa;
+
+import soccer.common.*;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Just started, the JVM interprets the code of the players and then
+ * compiles it in stages, and the fully optimized code is only there
+ * after many thousands of cycles; the kick-off and the first passes are
+ * decided by the slow code. The warm-up makes a stand-in player for
+ * every player of the team and lets it decide on the states of a
+ * synthetic match (see SyntheticMatch) with a set piece once in a while,
+ * so that the world model update, the planning, the pass evaluation and
+ * the interception are all compiled before connecting. The stand-ins
+ * have their own formations, blackboards and coordinators, and they are
+ * dropped afterwards, so the real players start from the clean state.
+ *
+ * Whether warmed up or not, every player records how long its first
+ * STARTUP_CYCLES cycles took, and once all players have done so, the
+ * percentiles are printed out; two runs with and without the warm-up
+ * show what it gains.
+ */
+
+public class JitWarmup
+{
+	// the cycles of each player whose latency is reported
+	public static final int 	STARTUP_CYCLES = 1000;
+
+	// the first cycles of the players reported so far
+	private static int 			expectedPlayers = 0;	// 0 disables the report
+	private static final List<long[]> 	startupCycles = new ArrayList<long[]>();
+	private static String 		warmupText = "without JIT warm-up";
+
+
+	// this method warms up the players of both teams for 'steps' steps
+	// of the synthetic match; the formation of a team that is not
+	// playing is null; it returns the time taken in seconds
+	public static double run( Formation leftFormation, int leftSize,
+							  Formation rightFormation, int rightSize,
+							  SetPieceLibrary setPieces, boolean useCoordinator,
+							  int steps ) throws IOException
+	{
+		long start = System.nanoTime();
+		Formation matchFormation = ( leftFormation != null ) ? leftFormation
+															  : rightFormation;
+		SyntheticMatch match = new SyntheticMatch( matchFormation,
+												   matchFormation.size(), 0 );
+
+		List<AIPlayer> players = new ArrayList<AIPlayer>();
+		addPlayers( players, 'l', leftFormation, leftSize, setPieces, useCoordinator );
+		addPlayers( players, 'r', rightFormation, rightSize, setPieces, useCoordinator );
+		boolean speculate = PassEvaluator.isSpeculative();
+
+		for ( int s = 0; s < steps; s++ ) {
+			int time = s % 1000;
+			for ( AIPlayer player : players ) {
+				int id = player.getPlayerNumber();
+				char side = ( player.getPlayerTeamID() == 1 ) ? 'l' : 'r';
+				if ( id > match.getPlayersPerTeam() )
+					continue;
+				player.decide( new Packet( Packet.SEE, match.see( time, side, id ),
+										   null, 0 ), speculate );
+			}
+			Packet referee = SyntheticMatch.refereeAt( s );
+			if ( referee != null )
+				for ( AIPlayer player : players )
+					player.decide( referee, false );
+			match.step();
+		}
+
+		double seconds = ( System.nanoTime() - start ) / 1e9;
+		warmupText = String.format( Locale.US, "after JIT warm-up of %d steps (%.1f s)",
+									steps, seconds );
+		return seconds;
+	}
+
+
+	// this method makes the stand-ins of the 'size' players of team 'side'
+	private static void addPlayers( List<AIPlayer> players, char side,
+									Formation formation, int size,
+									SetPieceLibrary setPieces,
+									boolean useCoordinator ) throws IOException
+	{
+		if ( formation == null || size == 0 )
+			return;
+
+		TeamFormation teamFormation = new TeamFormation( side, formation );
+		TeamBlackboard blackboard = new TeamBlackboard( side );
+		TeamCoordinator coordinator = useCoordinator
+							? new TeamCoordinator( side, teamFormation ) : null;
+		InMemoryTransceiver.Feed feed = new InMemoryTransceiver.Feed() {
+			public Packet next() throws IOException
+			{
+				throw new EOFException( "the warm-up packets are given to decide()" );
+			}
+			public void sent( Packet packet )
+			{
+			}
+		};
+
+		for ( int role = 0; role < size && role < formation.size(); role++ ) {
+			players.add( Harness.createPlayer( feed, side, role, formation, teamFormation,
+											   blackboard, coordinator, setPieces ) );
+		}
+	}
+
+
+	// the report is printed once this many players have sent their cycles
+	public static synchronized void setExpectedPlayers( int n )
+	{
+		expectedPlayers = n;
+	}
+
+
+	// this method is called by every player with the durations (ns) of
+	// its first STARTUP_CYCLES cycles
+	public static synchronized void reportStartup( long[] nanos )
+	{
+		if ( expectedPlayers == 0 )
+			return;
+		startupCycles.add( nanos );
+		if ( startupCycles.size() < expectedPlayers )
+			return;
+
+		long[] all = new long[ startupCycles.size() * STARTUP_CYCLES ];
+		long sum = 0;
+		int n = 0;
+		for ( long[] cycles : startupCycles ) {
+			for ( int i = 0; i < STARTUP_CYCLES; i++ ) {
+				all[n++] = cycles[i];
+				sum += cycles[i];
+			}
+		}
+		Arrays.sort( all );
+
+		System.out.println( String.format( Locale.US,
+				"\n@@@  first %d cycles of %d players, %s:"
+				+ "\n mean %.3f ms, p50 %.3f ms, p90 %.3f ms, p99 %.3f ms, max %.3f ms",
+				STARTUP_CYCLES, startupCycles.size(), warmupText,
+				sum / 1e6 / all.length, ThroughputBenchmark.percentile( all, 0.50 ),
+				ThroughputBenchmark.percentile( all, 0.90 ),
+				ThroughputBenchmark.percentile( all, 0.99 ),
+				ThroughputBenchmark.percentile( all, 1.0 ) ) );
+		expectedPlayers = 0;
+		startupCycles.clear();
+	}
+}
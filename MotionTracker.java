@@ -0,0 +1,187 @@
+/* MotionTracker.java
+
+   The recent motion of the ball and of all players, as seen by one player.
+
+*/
+
+package tos_teams.africa;
+
+import soccer.common.*;
+
+import java.util.*;
+
+/**
+ * This class keeps the last HISTORY positions of the ball and of each
+ * player, stamped with the simulation step they were seen at, in
+ * preallocated ring buffers of primitives; updating and querying it does
+ * not allocate anything. The velocity and acceleration are estimated from
+ * the two or three latest samples and are scaled by the actual number of
+ * steps between them, so a lost packet does not inflate them. A sample
+ * that is older than the latest one (a reordered packet) is ignored, and
+ * after a gap longer than MAX_GAP steps the history of the entity starts
+ * anew.
+ *
+ * The velocities are measured in meters per simulation step, as in the
+ * intercept calculations. The entities are identified by slots: BALL,
+ * or the slot returned by getSlot() for a player.
+ */
+
+public class MotionTracker
+{
+	public static final int 	HISTORY = 8;		// samples per entity
+	public static final int 	MAX_ID 	= 16;		// player ids are below this
+	public static final int 	MAX_GAP = 10;		// steps
+
+	public static final int 	BALL 	= 0;
+	private static final int 	ENTITIES = 1 + 2 * MAX_ID;
+
+	// ring buffers; the samples of entity e are at [e*HISTORY, (e+1)*HISTORY)
+	private final int[] 		stamp 	= new int[ENTITIES * HISTORY];
+	private final double[] 		posX 	= new double[ENTITIES * HISTORY];
+	private final double[] 		posY 	= new double[ENTITIES * HISTORY];
+	private final int[] 		head 	= new int[ENTITIES];	// the latest sample
+	private final int[] 		count 	= new int[ENTITIES];
+
+	// the estimates, updated with each sample
+	private final double[] 		velX 	= new double[ENTITIES];
+	private final double[] 		velY 	= new double[ENTITIES];
+	private final double[] 		accX 	= new double[ENTITIES];
+	private final double[] 		accY 	= new double[ENTITIES];
+
+	private int 				lastTime = 0;		// of the latest update
+	private boolean 			started = false;
+
+
+	// this method adds the positions in 'world' to the history
+	public void update( WorldData world )
+	{
+		if ( started && ServerTime.isStale( lastTime, world.time ) )
+			return;			// a duplicated or reordered packet
+		started = true;
+		lastTime = world.time;
+
+		add( BALL, world.time, world.getBall().position );
+
+		Vector<Player> team = world.getMyTeam();
+		for ( int i = 0; i < team.size(); i++ ) {
+			Player player = team.elementAt( i );
+			int slot = getSlot( true, player.id );
+			if ( slot >= 0 )
+				add( slot, world.time, player.position );
+		}
+
+		team = world.getTheirTeam();
+		for ( int i = 0; i < team.size(); i++ ) {
+			Player player = team.elementAt( i );
+			int slot = getSlot( false, player.id );
+			if ( slot >= 0 )
+				add( slot, world.time, player.position );
+		}
+	}
+
+
+	private void add( int e, int time, Vector2d pos )
+	{
+		int base = e * HISTORY;
+		int h = head[e];
+
+		int gap = ( count[e] == 0 ) ? 0 : ServerTime.delta( stamp[base + h], time );
+		if ( count[e] > 0 && ServerTime.isStale( stamp[base + h], time ) ) {
+			return;
+		} else if ( gap > MAX_GAP || gap <= 0 ) {
+			count[e] = 0;			// too old to estimate the motion from
+		}
+
+		h = ( count[e] == 0 ) ? 0 : ( h + 1 ) % HISTORY;
+		head[e] = h;
+		stamp[base + h] = time;
+		posX[base + h] = pos.getX();
+		posY[base + h] = pos.getY();
+		if ( count[e] < HISTORY )
+			count[e]++;
+
+		// the velocity between the two latest samples
+		if ( count[e] < 2 ) {
+			velX[e] = velY[e] = 0;
+			accX[e] = accY[e] = 0;
+			return;
+		}
+		int p = base + ( h + HISTORY - 1 ) % HISTORY;
+		double vx = ( posX[base + h] - posX[p] ) / gap;
+		double vy = ( posY[base + h] - posY[p] ) / gap;
+
+		// the acceleration between the two latest velocities, which
+		// are half the gaps apart
+		if ( count[e] >= 3 ) {
+			int pp = base + ( h + HISTORY - 2 ) % HISTORY;
+			int gap0 = ServerTime.delta( stamp[pp], stamp[p] );
+			double vx0 = ( posX[p] - posX[pp] ) / gap0;
+			double vy0 = ( posY[p] - posY[pp] ) / gap0;
+			double dt = 0.5 * ( gap0 + gap );
+			accX[e] = ( vx - vx0 ) / dt;
+			accY[e] = ( vy - vy0 ) / dt;
+		} else {
+			accX[e] = accY[e] = 0;
+		}
+		velX[e] = vx;
+		velY[e] = vy;
+	}
+
+
+	// returns the slot of the player 'id' of my team ('teammate') or the
+	// opponent team, or -1 if the id is out of range
+	public static int getSlot( boolean teammate, int id )
+	{
+		if ( id < 0 || id >= MAX_ID )
+			return -1;
+		return 1 + ( teammate ? 0 : MAX_ID ) + id;
+	}
+
+
+	// returns the number of steps since 'slot' was last seen, 
+	// or Integer.MAX_VALUE if it has never been seen
+	public int getAge( int slot, int time )
+	{
+		if ( slot < 0 || count[slot] == 0 )
+			return Integer.MAX_VALUE;
+		return ServerTime.delta( stamp[slot * HISTORY + head[slot]], time );
+	}
+
+
+	// returns the number of the samples in the history of 'slot'
+	public int getCount( int slot )
+	{
+		return ( slot < 0 ) ? 0 : count[slot];
+	}
+
+
+	// the velocity in meters per step (0 if unknown)
+	public double getVx( int slot )
+	{
+		return ( slot < 0 ) ? 0 : velX[slot];
+	}
+
+	public double getVy( int slot )
+	{
+		return ( slot < 0 ) ? 0 : velY[slot];
+	}
+
+
+	// the acceleration in meters per step per step (0 if unknown)
+	public double getAx( int slot )
+	{
+		return ( slot < 0 ) ? 0 : accX[slot];
+	}
+
+	public double getAy( int slot )
+	{
+		return ( slot < 0 ) ? 0 : accY[slot];
+	}
+
+
+	// stores the velocity of 'slot' in 'vel'
+	public void getVelocity( int slot, Vector2d vel )
+	{
+		vel.setXY( getVx( slot ), getVy( slot ) );
+	}
+}
@@ -0,0 +1,253 @@
+/* NetworkMonitor.java
+
+   Statistics of the packets received by one player.
+
+*/
+
+package tos_teams.africa;
+
+import soccer.common.*;
+
+/**
+ * This class watches the SEE and REFEREE packets received by a player and
+ * tells where the missed cycles come from. The server stamps each SEE
+ * packet with its step number (modulo ServerTime.MODULUS), so a gap in the
+ * numbers is a burst of lost packets, a step number seen before is a
+ * duplicate, and a slightly older one is a reordered packet. A gap longer
+ * than half the modulus cannot be told from the step numbers, so it is
+ * measured by the time elapsed since the previous packet.
+ *
+ * A loss is blamed on my own CPU if my previous cycle took longer than
+ * a step, or if the packet had already been waiting in the socket when
+ * I read it (it was read much sooner than a step after the previous one);
+ * otherwise it is blamed on the network. 
+ *
+ * Everything is counted in preallocated counters and histograms, and a
+ * summary is printed every REPORT_PACKETS SEE packets.
+ */
+
+public class NetworkMonitor
+{
+	private static final int 	REPORT_PACKETS = 5000;
+
+	private static final long 	STEP_NANOS 
+							= (long)( WorldModel.SIM_STEP_SECONDS * 1.0e9 );
+
+	// a packet read sooner than this after the previous one was queued
+	private static final long 	QUEUED_NANOS = STEP_NANOS / 5;
+
+	// the histogram of the SEE inter-arrival times, in 5 ms bins
+	private static final int 	ARRIVAL_BIN_MS = 5;
+	private final int[] 		arrivalHist = new int[21];
+
+	// the histogram of the REFEREE arrivals after the latest SEE, in 5 ms bins
+	private final int[] 		refereeHist = new int[11];
+
+	// the histogram of the burst-loss lengths
+	private static final int[] 	BURST_LIMITS = { 1, 2, 3, 4, 5, 10, 50 };
+	private static final String[] BURST_NAMES = { "1", "2", "3", "4", "5-9",
+												  "10-49", "50+" };
+	private final int[] 		burstHist = new int[BURST_LIMITS.length];
+
+	private final String 		name;
+
+	private boolean 			started = false;
+	private int 				lastTime;
+	private long 				lastSeeNanos;
+	private long 				lastBusyNanos = 0;	// my previous cycle
+	private boolean 			refereeSinceSee = false;
+
+	// counters since the previous report
+	private int 		seeCount = 0;
+	private int 		lostCount = 0;
+	private int 		lostCpuCount = 0;
+	private int 		queuedCount = 0;
+	private int 		duplicateCount = 0;
+	private int 		reorderedCount = 0;
+	private int 		wrapCount = 0;
+	private int 		longGapCount = 0;
+	private int 		refereeCount = 0;
+	private int 		refereeBunchedCount = 0;
+
+	// lost packets since the last call of takeLostCount()
+	private int 		lostSinceTaken = 0;
+
+	// the smoothed loss; a warning is printed if it gets large
+	private double 		lossFactor = 0;
+
+
+	public NetworkMonitor( String name )
+	{
+		this.name = name;
+	}
+
+
+	// this method is called with each packet as soon as it is read;
+	// 'readNanos' is System.nanoTime() then
+	public void onPacket( Packet packet, long readNanos )
+	{
+		if ( packet.packetType == Packet.SEE )
+			onSee( ((SeeData)packet.data).time, readNanos );
+		else if ( packet.packetType == Packet.REFEREE )
+			onReferee( readNanos );
+	}
+
+
+	// this method is called after the command is sent; 'busyNanos' is 
+	// how long the cycle took after reading the packet
+	public void cycleDone( long busyNanos )
+	{
+		lastBusyNanos = busyNanos;
+	}
+
+
+	private void onSee( int time, long readNanos )
+	{
+		if ( !started ) {
+			started = true;
+			lastTime = time;
+			lastSeeNanos = readNanos;
+			return;
+		}
+
+		long interval = readNanos - lastSeeNanos;
+		int delta = ServerTime.delta( lastTime, time );
+
+		if ( delta == 0 ) {
+			duplicateCount++;
+			return;
+		}
+		if ( delta < 0 && delta > -ServerTime.REORDER_WINDOW ) {
+			reorderedCount++;
+			return;
+		}
+
+		seeCount++;
+		int bin = (int)( interval / ( ARRIVAL_BIN_MS * 1000000L ) );
+		arrivalHist[ Math.min( bin, arrivalHist.length - 1 ) ]++;
+
+		boolean queued = interval < QUEUED_NANOS;
+		if ( queued )
+			queuedCount++;
+
+		// the number of steps since the previous packet; if it is more 
+		// than half the modulus, the step numbers cannot tell it
+		long elapsedSteps = Math.round( (double)interval / STEP_NANOS );
+		int lost;
+		if ( elapsedSteps > ServerTime.MODULUS/2 ) {
+			lost = (int)elapsedSteps - 1;
+			longGapCount++;
+		} else if ( delta < 0 ) {
+			lost = 0; 		// the server has restarted counting
+		} else {
+			lost = delta - 1;
+		}
+		if ( time < lastTime && delta > 0 )
+			wrapCount++;
+
+		if ( lost > 0 ) {
+			lostCount += lost;
+			lostSinceTaken += lost;
+			if ( queued || lastBusyNanos > STEP_NANOS )
+				lostCpuCount += lost;
+			int k = 0;
+			while ( k < BURST_LIMITS.length - 1 && lost >= BURST_LIMITS[k + 1] )
+				k++;
+			burstHist[k]++;
+		}
+
+		// the exponential smoothing, as it has always been done here
+		lossFactor = 0.5 * lost + 0.5 * lossFactor;
+		if ( lossFactor > 2.0 )
+			System.out.println( "** " + name + " lost " + lost + " packets"  
+							+ "  lostPacketFactor = " 
+							+ ((int)(1000.0*lossFactor))/1000.0 + "  **" );
+
+		lastTime = time;
+		lastSeeNanos = readNanos;
+		refereeSinceSee = false;
+
+		if ( seeCount >= REPORT_PACKETS )
+			report();
+	}
+
+
+	private void onReferee( long readNanos )
+	{
+		refereeCount++;
+		if ( refereeSinceSee )
+			refereeBunchedCount++;		// no SEE since the previous one
+		refereeSinceSee = true;
+
+		if ( started ) {
+			int bin = (int)( ( readNanos - lastSeeNanos ) / ( ARRIVAL_BIN_MS * 1000000L ) );
+			refereeHist[ Math.max( 0, Math.min( bin, refereeHist.length - 1 ) ) ]++;
+		}
+	}
+
+
+	// returns the number of packets lost since the previous call
+	public int takeLostCount()
+	{
+		int lost = lostSinceTaken;
+		lostSinceTaken = 0;
+		return lost;
+	}
+
+
+	// prints the summary and resets the counters
+	private void report()
+	{
+		StringBuffer sb = new StringBuffer( "\n@@@  " + name + " network: " );
+		sb.append( "packets " + seeCount + ", lost " + lostCount 
+				+ " (cpu " + lostCpuCount + ", net " + ( lostCount - lostCpuCount ) + ")"
+				+ ", queued " + queuedCount 
+				+ ", duplicate " + duplicateCount 
+				+ ", reordered " + reorderedCount 
+				+ ", wraps " + wrapCount );
+		if ( longGapCount > 0 )
+			sb.append( ", long gaps " + longGapCount );
+
+		sb.append( "\n inter-arrival ms:" );
+		appendHistogram( sb, arrivalHist );
+
+		boolean any = false;
+		for ( int k = 0; k < burstHist.length; k++ )
+			any |= burstHist[k] > 0;
+		if ( any ) {
+			sb.append( "\n loss bursts:" );
+			for ( int k = 0; k < burstHist.length; k++ ) {
+				if ( burstHist[k] > 0 )
+					sb.append( " " + BURST_NAMES[k] + ":" + burstHist[k] );
+				burstHist[k] = 0;
+			}
+		}
+
+		if ( refereeCount > 0 ) {
+			sb.append( "\n referee " + refereeCount + ", bunched " 
+						+ refereeBunchedCount + ", ms after SEE:" );
+			appendHistogram( sb, refereeHist );
+		}
+		System.out.println( sb );
+
+		seeCount = lostCount = lostCpuCount = queuedCount = 0;
+		duplicateCount = reorderedCount = wrapCount = longGapCount = 0;
+		refereeCount = refereeBunchedCount = 0;
+	}
+
+
+	// appends the non-empty bins and clears the histogram
+	private static void appendHistogram( StringBuffer sb, int[] hist )
+	{
+		for ( int k = 0; k < hist.length; k++ ) {
+			if ( hist[k] == 0 )
+				continue;
+			if ( k == hist.length - 1 )
+				sb.append( " " + k * ARRIVAL_BIN_MS + "+:" + hist[k] );
+			else
+				sb.append( " " + k * ARRIVAL_BIN_MS + "-" + ( k + 1 ) * ARRIVAL_BIN_MS 
+							+ ":" + hist[k] );
+			hist[k] = 0;
+		}
+	}
+}
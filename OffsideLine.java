@@ -0,0 +1,113 @@
+/* OffsideLine.java
+
+   The offside line of the opponent team as perceived by one player.
+
+*/
+
+package tos_teams.africa;
+
+import soccer.common.*;
+
+import java.util.*;
+
+/**
+ * The offside line is the farthest of the second-to-last opponent, the
+ * ball and the halfway line (the coordinates are those of my team playing
+ * on the left). It is updated once per visual cycle in a single pass over
+ * the opponents, and then any point can be checked against it in O(1),
+ * so the pass evaluation and the positioning can drop the offside options
+ * before spending any time on them.
+ *
+ * The server still has the last word; its offside calls are handled
+ * in WorldModel.checkOffsideState().
+ */
+
+public class OffsideLine
+{
+	// a player this close to the line is treated as being at risk
+	// (the positions are noisy and the line moves)
+	public static final double MARGIN = 1.0;
+
+	private double 		lastDefenderX = WorldModel.LENGTH/2;
+	private double 		secondLastDefenderX = WorldModel.LENGTH/2;
+	private double 		line = WorldModel.LENGTH/2;
+	private double 		lineChange = 0;		// since the previous update
+
+
+	// this method updates the line from the positions in 'world'
+	public void update( WorldData world )
+	{
+		// the two opponents nearest to their goal line (the goalie
+		// is usually one of them)
+		double first = -WorldModel.LENGTH;
+		double second = -WorldModel.LENGTH;
+		Vector<Player> opponents = world.getTheirTeam();
+		for ( int i = 0; i < opponents.size(); i++ ) {
+			double x = opponents.elementAt( i ).position.getX();
+			if ( x > first ) {
+				second = first;
+				first = x;
+			} else if ( x > second ) {
+				second = x;
+			}
+		}
+
+		// with fewer than two opponents, nobody is behind the line
+		if ( opponents.size() < 2 )
+			second = WorldModel.LENGTH/2;
+
+		lastDefenderX = first;
+		secondLastDefenderX = second;
+
+		double newLine = Math.max( second, world.getBall().position.getX() );
+		newLine = Math.max( newLine, 0 );
+		lineChange = newLine - line;
+		line = newLine;
+	}
+
+
+	// returns true if a player in 'pos' would be offside when the ball is played
+	public boolean isOffside( Vector2d pos )
+	{
+		return pos.getX() > line;
+	}
+
+
+	// returns true if a player in 'pos' is offside or close to being offside
+	public boolean isAtRisk( Vector2d pos )
+	{
+		return pos.getX() > line - MARGIN;
+	}
+
+
+	// returns the farthest x-coordinate where a player is safe from offside
+	public double getSafeX()
+	{
+		return line - MARGIN;
+	}
+
+
+	public double getLine()
+	{
+		return line;
+	}
+
+
+	// returns how far the line has moved since the previous update
+	public double getLineChange()
+	{
+		return lineChange;
+	}
+
+
+	public double getLastDefenderX()
+	{
+		return lastDefenderX;
+	}
+
+
+	public double getSecondLastDefenderX()
+	{
+		return secondLastDefenderX;
+	}
+}
@@ -0,0 +1,501 @@
+/* PassEvaluator.java
+
+   Evaluation of the passing lanes of one player, split across the
+   decision pool.
+
+*/
+
+package tos_teams.africa;
+
+import soccer.common.*;
+
+import java.util.concurrent.*;
+
+/**
+ * This class owns the pass lane snapshot of one player and evaluates it
+ * with the pass lane kernel. The directions are split into chunks;
+ * the player evaluates the first chunk itself while the decision pool
+ * works on the others. The chunks that are not finished by the deadline
+ * are skipped in this cycle, so the player is never late because of
+ * the pool. If the teams are isolated, the pool is that of the player's
+ * team (see TeamDomain), and the pool threads charge their processor
+ * time to it. A skipped chunk is still completed in the background, and
+ * it is awaited before the snapshot is refilled.
+ *
+ * While waiting for the next packet, the player may evaluate the state
+ * predicted for the next step in a spare snapshot (speculate()). If the
+ * real state turns out to be within the tolerance of the prediction, 
+ * that result is taken and nothing is evaluated on the critical path.
+ *
+ * Otherwise, the evaluation is warm-started from the previous one: for
+ * each player, the position relative to the ball, the velocity and the
+ * direction seen from the passer at the last evaluation of his lanes are
+ * kept as the reference, and only the lanes of the players who have
+ * changed by more than a threshold since then are evaluated again (the
+ * intercept times depend only on these). Every FULL_REFRESH_STEPS steps,
+ * or if the passer changes too much, everything is evaluated again.
+ */
+
+public class PassEvaluator
+{
+	// the smallest number of directions worth sending to the pool
+	private static final int MIN_CHUNK = 32;
+
+	// the predicted positions must be this close to the real ones
+	public static final double POSITION_TOLERANCE = 0.3;	// meters
+	public static final double VELOCITY_TOLERANCE = 0.05;	// meters per step
+
+	// a player is moved if he has changed this much since his reference
+	public static final double MOVE_THRESHOLD 		= 0.2;		// meters
+	public static final double DIR_THRESHOLD 		= 0.5;		// degrees
+	public static final double VELOCITY_THRESHOLD 	= 0.03;		// meters per step
+
+	// all directions are evaluated again after this many steps
+	public static final int FULL_REFRESH_STEPS 		= 10;
+
+	private static boolean 			speculative = true;
+	private static boolean 			incremental = true;
+
+	private final PassLaneKernel 	kernel;
+	private PassLaneSnapshot 		snapshot = new PassLaneSnapshot();
+	private PassLaneSnapshot 		spare = new PassLaneSnapshot();
+	private Chunk[]					chunks;
+	private TeamDomain 				domain = null;		// null if not isolated
+
+	// set if 'spare' holds the evaluation of the predicted state
+	private boolean 				hasSpeculation = false;
+	private int 					speculationHits = 0;
+	private int 					speculationMisses = 0;
+
+	// these are only accessed by the player thread
+	private final boolean[]			skipped
+								= new boolean[PassLaneSnapshot.MAX_DIRECTIONS];
+	private int 					numOfSkipped = 0;
+
+	// the references for warm-starting, as explained above
+	private final double[][]		refRelX = new double[2][PassLaneSnapshot.MAX_PLAYERS];
+	private final double[][]		refRelY = new double[2][PassLaneSnapshot.MAX_PLAYERS];
+	private final double[][]		refVx 	= new double[2][PassLaneSnapshot.MAX_PLAYERS];
+	private final double[][]		refVy 	= new double[2][PassLaneSnapshot.MAX_PLAYERS];
+	private final double[][]		refDir 	= new double[2][PassLaneSnapshot.MAX_PLAYERS];
+	private final double[][]		refDist = new double[2][PassLaneSnapshot.MAX_PLAYERS];
+	private final int[][]			refSlot = new int[2][PassLaneSnapshot.MAX_PLAYERS];
+	private final int[] 			refSize = new int[2];
+	private double 					refForce;
+	private int 					refNumOfDir = -1;		// none
+	private int 					refTime;				// of the full evaluation
+	private final boolean[]			dirty
+								= new boolean[PassLaneSnapshot.MAX_DIRECTIONS];
+
+	// the directions evaluated, and those that could have been 
+	private long 					evaluatedDirCount = 0;
+	private long 					totalDirCount = 0;
+
+	// what was done in the last evaluate()
+	private int 					lastEvaluated = 0;
+	private boolean 				lastSpeculationHit = false;
+
+
+	public PassEvaluator( PassLaneKernel kernel )
+	{
+		this.kernel = kernel;
+		createChunks( DecisionPool.getParallelism() );
+	}
+
+
+	private void createChunks( int parallelism )
+	{
+		chunks = new Chunk[ Math.max( 1, parallelism + 1 ) ];
+		for ( int i = 0; i < chunks.length; i++ )
+			chunks[i] = new Chunk();
+	}
+
+
+	// the pool of 'domain' is used from now on, instead of the decision pool
+	public void setDomain( TeamDomain domain )
+	{
+		awaitChunks();
+		this.domain = domain;
+		createChunks( domain.getParallelism() );
+	}
+
+
+	// this method evaluates 'numOfDir' passing directions in the current
+	// world state, with the player velocities estimated by 'motion'; 
+	// 'force' is the dash force of the intercepting players;
+	// the teammates beyond 'offsideX' are not considered as receivers;
+	// 'deadlineNanos' is the latest System.nanoTime() to wait for the pool
+	public void evaluate( WorldData world, MotionTracker motion, double force, 
+						  double offsideX, int numOfDir, long deadlineNanos )
+	{
+		awaitChunks();
+
+		if ( snapshot.getNumOfDir() != numOfDir )
+			snapshot.setDirections( numOfDir );
+		snapshot.fill( world, motion, force, offsideX );
+
+		int n = snapshot.getNumOfDir();
+		numOfSkipped = 0;
+		lastEvaluated = 0;
+		lastSpeculationHit = false;
+
+		// the state may have been evaluated in advance
+		if ( hasSpeculation ) {
+			hasSpeculation = false;
+			if ( spare.matches( snapshot, POSITION_TOLERANCE, VELOCITY_TOLERANCE ) ) {
+				PassLaneSnapshot s = snapshot;
+				snapshot = spare;
+				spare = s;
+				markSkipped( 0, n, false );
+				setReferences( snapshot.getTime() );
+				totalDirCount += n;
+				speculationHits++;
+				lastSpeculationHit = true;
+				return;
+			}
+			speculationMisses++;
+		}
+
+		// only the lanes of the players who have moved need evaluating
+		if ( incremental && canWarmStart() ) {
+			int numOfDirty = markDirty();
+			if ( numOfDirty <= n/2 ) {
+				evaluateDirty( n );
+				evaluatedDirCount += numOfDirty;
+				totalDirCount += n;
+				lastEvaluated = numOfDirty;
+				return;
+			}
+		}
+
+		evaluateAll( n, deadlineNanos );
+		setReferences( snapshot.getTime() );
+		evaluatedDirCount += n;
+		totalDirCount += n;
+		lastEvaluated = n;
+	}
+
+
+	// this method evaluates all directions, splitting them across the pool
+	private void evaluateAll( int n, long deadlineNanos )
+	{
+		ForkJoinPool pool = ( domain != null ) ? domain.getPool() 
+											   : DecisionPool.getPool();
+		int numOfChunks = Math.min( chunks.length, n/MIN_CHUNK );
+
+		if ( pool == null || numOfChunks <= 1 ) {
+			kernel.evaluate( snapshot, 0, n );
+			markSkipped( 0, n, false );
+			return;
+		}
+
+		for ( int k = 0; k < numOfChunks; k++ ) {
+			chunks[k].from 	= k * n/numOfChunks;
+			chunks[k].to 	= (k + 1) * n/numOfChunks;
+		}
+
+		for ( int k = 1; k < numOfChunks; k++ ) {
+			chunks[k].reinitialize();
+			chunks[k].submitted = true;
+			pool.execute( chunks[k] );
+		}
+
+		// I evaluate the first chunk myself
+		kernel.evaluate( snapshot, chunks[0].from, chunks[0].to );
+		markSkipped( chunks[0].from, chunks[0].to, false );
+
+		for ( int k = 1; k < numOfChunks; k++ ) {
+			boolean done;
+			try {
+				long wait = Math.max( 0, deadlineNanos - System.nanoTime() );
+				chunks[k].get( wait, TimeUnit.NANOSECONDS );
+				done = true;
+			} catch ( TimeoutException e ) {
+				done = false;
+			} catch ( InterruptedException e ) {
+				done = false;
+			} catch ( ExecutionException e ) {
+				System.out.println( "PassEvaluator: " + e.getCause() );
+				done = false;
+			}
+			markSkipped( chunks[k].from, chunks[k].to, !done );
+			if ( !done )
+				numOfSkipped += chunks[k].to - chunks[k].from;
+		}
+	}
+
+
+	// this method evaluates the state predicted for the next step in the 
+	// spare snapshot; it is done by the player alone, as it is not urgent
+	// and the pool may be busy with the actual decisions of the others
+	public void speculate( WorldData world, MotionTracker motion, 
+						   WorldPredictor predictor, double force, 
+						   double offsideX, int numOfDir )
+	{
+		if ( spare.getNumOfDir() != numOfDir )
+			spare.setDirections( numOfDir );
+		spare.fillAhead( world, motion, predictor, 1, force, offsideX );
+		kernel.evaluate( spare, 0, spare.getNumOfDir() );
+		hasSpeculation = true;
+	}
+
+
+	// sets the opponents value of a lane clear enough for passing
+	// (see TuningParameters)
+	public void setClearanceThreshold( double threshold )
+	{
+		snapshot.setClearanceThreshold( threshold );
+		spare.setClearanceThreshold( threshold );
+	}
+
+
+	public static void setSpeculative( boolean on )
+	{
+		speculative = on;
+	}
+
+	public static boolean isSpeculative()
+	{
+		return speculative;
+	}
+
+
+	// returns the number of evaluations taken from the speculation
+	// (and resets the counter)
+	public int takeSpeculationHits()
+	{
+		int hits = speculationHits;
+		speculationHits = 0;
+		return hits;
+	}
+
+	// returns the number of speculations that did not match the real
+	// state (and resets the counter)
+	public int takeSpeculationMisses()
+	{
+		int misses = speculationMisses;
+		speculationMisses = 0;
+		return misses;
+	}
+
+
+	// returns true if the previous evaluation can be warm-started from
+	private boolean canWarmStart()
+	{
+		if ( refNumOfDir != snapshot.getNumOfDir() || refForce != snapshot.force )
+			return false;
+		int age = ServerTime.delta( refTime, snapshot.getTime() );
+		if ( age < 0 || age >= FULL_REFRESH_STEPS )
+			return false;
+		for ( int team = 0; team < 2; team++ ) {
+			if ( refSize[team] != snapshot.size[team] )
+				return false;
+			for ( int p = 0; p < refSize[team]; p++ )
+				if ( refSlot[team][p] != snapshot.plrSlot[team][p] )
+					return false;
+		}
+		return true;
+	}
+
+
+	// this method marks the directions in the lanes of the players who have
+	// moved (both where they were and where they are now) and the skipped 
+	// ones, and updates the references of the moved players; 
+	// it returns the number of the marked directions
+	private int markDirty()
+	{
+		PassLaneSnapshot s = snapshot;
+		int n = s.getNumOfDir();
+		int count = 0;
+		for ( int d = 0; d < n; d++ ) {
+			dirty[d] = skipped[d];
+			if ( dirty[d] )
+				count++;
+		}
+
+		double moved2 = MOVE_THRESHOLD * MOVE_THRESHOLD;
+		for ( int team = 0; team < 2; team++ ) {
+			double width = PassLaneSnapshot.LANE_WIDTH[ team ];
+			for ( int p = 0; p < s.size[team]; p++ ) {
+				double relX = s.plrX[team][p] - s.ballX;
+				double relY = s.plrY[team][p] - s.ballY;
+				double dx = relX - refRelX[team][p];
+				double dy = relY - refRelY[team][p];
+				boolean moved = dx*dx + dy*dy > moved2
+					|| Math.abs( s.plrVx[team][p] - refVx[team][p] ) > VELOCITY_THRESHOLD
+					|| Math.abs( s.plrVy[team][p] - refVy[team][p] ) > VELOCITY_THRESHOLD
+					|| Math.abs( Util.normal_dir( s.plrDir[team][p] 
+								- refDir[team][p] ) ) > DIR_THRESHOLD
+					|| crosses( refDist[team][p], s.plrDist[team][p], 
+								PassLaneSnapshot.BLOCK_DISTANCE )
+					|| crosses( refDist[team][p], s.plrDist[team][p], 
+								PassLaneSnapshot.IGNORE_DISTANCE );
+				if ( !moved )
+					continue;
+
+				count += markLane( refDir[team][p], width, n );
+				count += markLane( s.plrDir[team][p], width, n );
+				setReference( team, p );
+			}
+		}
+		return count;
+	}
+
+
+	private static boolean crosses( double a, double b, double limit )
+	{
+		return ( a < limit ) != ( b < limit );
+	}
+
+
+	// marks the directions within 'width' of 'dir' and returns how many
+	// of them were not marked yet
+	private int markLane( double dir, double width, int n )
+	{
+		double step = 360.0/n;
+		int center = (int)Math.round( dir/step );
+		int span = (int)Math.ceil( width/step ) + 1;
+		int count = 0;
+		for ( int k = center - span; k <= center + span; k++ ) {
+			int d = Math.floorMod( k, n );
+			if ( !dirty[d] ) {
+				dirty[d] = true;
+				count++;
+			}
+		}
+		return count;
+	}
+
+
+	// evaluates the runs of the marked directions by myself
+	private void evaluateDirty( int n )
+	{
+		int d = 0;
+		while ( d < n ) {
+			if ( !dirty[d] ) {
+				d++;
+				continue;
+			}
+			int from = d;
+			while ( d < n && dirty[d] )
+				d++;
+			kernel.evaluate( snapshot, from, d );
+			markSkipped( from, d, false );
+		}
+	}
+
+
+	private void setReferences( int time )
+	{
+		for ( int team = 0; team < 2; team++ ) {
+			refSize[team] = snapshot.size[team];
+			for ( int p = 0; p < refSize[team]; p++ )
+				setReference( team, p );
+		}
+		refForce = snapshot.force;
+		refNumOfDir = snapshot.getNumOfDir();
+		refTime = time;
+	}
+
+
+	private void setReference( int team, int p )
+	{
+		PassLaneSnapshot s = snapshot;
+		refRelX[team][p] 	= s.plrX[team][p] - s.ballX;
+		refRelY[team][p] 	= s.plrY[team][p] - s.ballY;
+		refVx[team][p] 		= s.plrVx[team][p];
+		refVy[team][p] 		= s.plrVy[team][p];
+		refDir[team][p] 	= s.plrDir[team][p];
+		refDist[team][p] 	= s.plrDist[team][p];
+		refSlot[team][p] 	= s.plrSlot[team][p];
+	}
+
+
+	public static void setIncremental( boolean on )
+	{
+		incremental = on;
+	}
+
+
+	// returns the percentage of the directions actually evaluated 
+	// (and resets the counters)
+	public double takeEvaluatedPercent()
+	{
+		double percent = ( totalDirCount == 0 ) ? 100 
+							: 100.0 * evaluatedDirCount / totalDirCount;
+		evaluatedDirCount = 0;
+		totalDirCount = 0;
+		return percent;
+	}
+
+
+	// waits for the chunks left running after the previous deadline
+	private void awaitChunks()
+	{
+		for ( int k = 1; k < chunks.length; k++ ) {
+			if ( chunks[k].submitted ) {
+				chunks[k].quietlyJoin();
+				chunks[k].submitted = false;
+			}
+		}
+	}
+
+
+	private void markSkipped( int from, int to, boolean value )
+	{
+		for ( int d = from; d < to; d++ )
+			skipped[d] = value;
+	}
+
+
+	public PassLaneSnapshot getSnapshot()
+	{
+		return snapshot;
+	}
+
+	// returns true if direction 'd' was not evaluated in time
+	public boolean isSkipped( int d )
+	{
+		return skipped[d];
+	}
+
+	public int getNumOfSkipped()
+	{
+		return numOfSkipped;
+	}
+
+	// returns the number of directions evaluated in the last evaluate(),
+	// including the skipped ones
+	public int getNumOfEvaluated()
+	{
+		return lastEvaluated;
+	}
+
+	// returns true if the last evaluate() took the speculation
+	public boolean wasSpeculationHit()
+	{
+		return lastSpeculationHit;
+	}
+
+
+	// a range of directions evaluated by the pool
+	private class Chunk extends RecursiveAction
+	{
+		private static final long serialVersionUID = 1L;
+
+		int 		from;
+		int 		to;
+		boolean 	submitted = false; 	// only used by the player thread
+
+		protected void compute()
+		{
+			if ( domain == null ) {
+				kernel.evaluate( snapshot, from, to );
+				return;
+			}
+			long cpu = TeamDomain.getThreadCpuNanos();
+			kernel.evaluate( snapshot, from, to );
+			domain.charge( TeamDomain.getThreadCpuNanos() - cpu );
+		}
+	}
+}
@@ -0,0 +1,248 @@
+/* PassLaneKernel.java
+
+   Evaluation of passing lanes for all candidate directions at once.
+
+*/
+
+package tos_teams.africa;
+
+import soccer.common.*;
+
+/**
+ * This class evaluates the candidate passing directions stored in the
+ * PassLaneSnapshot against all players. For each direction and team it
+ * computes the same heuristic value the player has always used:
+ * zero if a player of this team is blocking the lane close to the passer,
+ * otherwise (mean interception time) * 2 + (earliest interception time) * 10.
+ * Greater value means the lane is clearer of the players of this team.
+ *
+ * The work is split in two stages. First, the (direction, player) pairs
+ * where the player is inside the lane are collected into flat arrays
+ * (only a few per cent of all pairs are). Second, the ball interception
+ * is simulated for all collected pairs. The second stage dominates the cost
+ * and is implemented by the subclasses, either in plain scalar code or
+ * with the data-parallel Vector API. The vector kernel is built apart
+ * (in the directory 'vector'), only where the incubator module is present.
+ */
+
+public abstract class PassLaneKernel
+{
+	// the system property that forces the kernel ("scalar" or "vector")
+	public static final String KERNEL_PROPERTY = "africa.pass_kernel";
+
+	// number of pairs simulated in one batch
+	protected static final int BATCH_SIZE = 256;
+
+	private static PassLaneKernel instance;
+
+
+	// this method returns the kernel; the vector kernel is used if the
+	// jdk.incubator.vector module is available, the scalar one otherwise
+	public static synchronized PassLaneKernel getInstance()
+	{
+		if ( instance == null ) {
+			String choice = System.getProperty( KERNEL_PROPERTY, "auto" );
+			if ( !choice.equals( "scalar" ) )
+				instance = loadVectorKernel();
+			if ( instance == null )
+				instance = new ScalarPassLaneKernel();
+			System.out.println( "Pass lane kernel: " + instance.getName() );
+		}
+		return instance;
+	}
+
+
+	// the vector kernel is loaded by name, so that this class can be
+	// linked even if the incubator module is not added to the JVM, or the
+	// kernel was not compiled at all (see vector/VectorPassLaneKernel.java)
+	private static PassLaneKernel loadVectorKernel()
+	{
+		try {
+			Class<?> c = Class.forName( "tos_teams.africa.VectorPassLaneKernel" );
+			// the CPU may have no useful vector width
+			if ( !((Boolean)c.getMethod( "isUseful" ).invoke( null )).booleanValue() )
+				return null;
+			return (PassLaneKernel)c.getDeclaredConstructor().newInstance();
+		} catch ( Throwable e ) {
+			// the kernel or the module is missing
+			return null;
+		}
+	}
+
+
+	// scratch arrays of one thread
+	protected static class Workspace
+	{
+		final int[]		pairDir 	= new int[BATCH_SIZE];
+		final double[]	ballVx 		= new double[BATCH_SIZE];
+		final double[]	ballVy 		= new double[BATCH_SIZE];
+		final double[]	plrX 		= new double[BATCH_SIZE];
+		final double[]	plrY 		= new double[BATCH_SIZE];
+		final double[]	plrVx 		= new double[BATCH_SIZE];
+		final double[]	plrVy 		= new double[BATCH_SIZE];
+		final int[]		time 		= new int[BATCH_SIZE];
+		final double[]	timeD 		= new double[BATCH_SIZE];
+	}
+
+	private final ThreadLocal<Workspace> workspace = new ThreadLocal<Workspace>() {
+		protected Workspace initialValue()
+		{
+			return new Workspace();
+		}
+	};
+
+
+	public abstract String getName();
+
+
+	// this method simulates the ball interception for 'n' pairs stored in
+	// the workspace and saves the number of steps needed in w.time;
+	// the ball starts in (ballX, ballY); 'fk' is the dash force times K1
+	protected abstract void simulate( Workspace w, int n,
+									double ballX, double ballY, double fk );
+
+
+	// this method evaluates the directions 'from' (inclusive) to 'to'
+	// (exclusive) for both teams; the opponents go first, as the teammates
+	// are only evaluated in the lanes clear of the opponents.
+	// different ranges can be evaluated concurrently.
+	public void evaluate( PassLaneSnapshot s, int from, int to )
+	{
+		Workspace w = workspace.get();
+		evaluateTeam( s, w, PassLaneSnapshot.OPPONENTS, from, to, false );
+		evaluateTeam( s, w, PassLaneSnapshot.TEAMMATES, from, to, true );
+	}
+
+
+	private void evaluateTeam( PassLaneSnapshot s, Workspace w, int team,
+								int from, int to, boolean gated )
+	{
+		double width = PassLaneSnapshot.LANE_WIDTH[ team ];
+		double[] plrDir = s.plrDir[ team ];
+		double[] plrDist = s.plrDist[ team ];
+		int size = s.size[ team ];
+		int n = 0;
+
+		for ( int d = from; d < to; d++ ) {
+			s.blocked[team][d] 	= false;
+			s.bestTime[team][d] = 200;
+			s.sumTime[team][d] 	= 0;
+			s.count[team][d] 	= 0;
+
+			if ( gated && s.value[PassLaneSnapshot.OPPONENTS][d]
+											<= s.clearanceThreshold ) {
+				s.blocked[team][d] = true;		// not evaluated
+				continue;
+			}
+
+			double dir = s.dirs[d];
+
+			// is there a nearby player in this direction?
+			boolean blocked = false;
+			for ( int p = 0; p < size; p++ ) {
+				if ( plrDist[p] < PassLaneSnapshot.BLOCK_DISTANCE
+						&& Math.abs( Util.normal_dir( plrDir[p] - dir ) ) < width ) {
+					blocked = true;
+					break;
+				}
+			}
+			if ( blocked ) {
+				s.blocked[team][d] = true;
+				continue;
+			}
+
+			// collect the players in the lane
+			for ( int p = 0; p < size; p++ ) {
+				if ( plrDist[p] < PassLaneSnapshot.IGNORE_DISTANCE
+						&& Math.abs( Util.normal_dir( plrDir[p] - dir ) ) < width ) {
+					w.pairDir[n] 	= d;
+					w.ballVx[n] 	= s.ballVx[d];
+					w.ballVy[n] 	= s.ballVy[d];
+					w.plrX[n] 		= s.plrX[team][p];
+					w.plrY[n] 		= s.plrY[team][p];
+					w.plrVx[n] 		= s.plrVx[team][p];
+					w.plrVy[n] 		= s.plrVy[team][p];
+					n++;
+					if ( n == BATCH_SIZE ) {
+						flush( s, w, team, n );
+						n = 0;
+					}
+				}
+			}
+		}
+		flush( s, w, team, n );
+
+		for ( int d = from; d < to; d++ ) {
+			if ( s.blocked[team][d] ) {
+				s.value[team][d] = 0;
+			} else {
+				int count = s.count[team][d];
+				int meanTime = ( count == 0 ) ? 200 : s.sumTime[team][d]/count;
+				s.value[team][d] = meanTime * 2 + s.bestTime[team][d] * 10;
+			}
+		}
+	}
+
+
+	private void flush( PassLaneSnapshot s, Workspace w, int team, int n )
+	{
+		if ( n == 0 )
+			return;
+
+		simulate( w, n, s.ballX, s.ballY, s.force * WorldModel.K1 );
+		s.simulations.addAndGet( n );
+
+		for ( int k = 0; k < n; k++ ) {
+			int d = w.pairDir[k];
+			int time = w.time[k];
+			s.sumTime[team][d] += time;
+			s.count[team][d]++;
+			if ( time < s.bestTime[team][d] )
+				s.bestTime[team][d] = time;
+		}
+	}
+
+
+	// this method simulates one interception; the player runs towards
+	// the current ball position with the constant force
+	// (velocities are measured in meters per simulation step)
+	protected static int simulateOne( double bx, double by,
+									  double bvx, double bvy,
+									  double px, double py,
+									  double vx, double vy, double fk )
+	{
+		double decay = 1.0 - WorldModel.FRICTIONFACTOR;
+		double cr2 = WorldModel.CONTROLRANGE * WorldModel.CONTROLRANGE;
+		double ax = 0, ay = 0;
+
+		for ( int t = 0; t < PassLaneSnapshot.MAX_TIME; t++ ) {
+			bx += bvx;
+			by += bvy;
+			bvx *= decay;
+			bvy *= decay;
+
+			// the unit vector pointing from the player to the ball
+			double dx = bx - px;
+			double dy = by - py;
+			double dist = Math.sqrt( dx*dx + dy*dy );
+			double ux = 1.0, uy = 0.0;
+			if ( dist > 0 ) {
+				ux = dx/dist;
+				uy = dy/dist;
+			}
+
+			px += vx;
+			py += vy;
+			vx += ax;
+			vy += ay;
+			ax = fk * ux - vx * WorldModel.K2;
+			ay = fk * uy - vy * WorldModel.K2;
+
+			double ex = px - bx;
+			double ey = py - by;
+			if ( ex*ex + ey*ey < cr2 )
+				return t;
+		}
+		return PassLaneSnapshot.MAX_TIME;
+	}
+}
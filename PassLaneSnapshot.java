@@ -0,0 +1,261 @@
+/* PassLaneSnapshot.java
+
+   A primitive copy of the world state used for evaluating passing lanes.
+
+*/
+
+package tos_teams.africa;
+
+import soccer.common.*;
+
+import java.util.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * This class holds everything the pass lane kernel needs in flat arrays
+ * of doubles, so that the evaluation of all passing directions against
+ * all players could be done without touching the Player and Vector2d
+ * objects. The arrays are allocated once and reused in every cycle.
+ * Index TEAMMATES is for my team (myself excluded) and index OPPONENTS
+ * is for the opponent team.
+ */
+
+public class PassLaneSnapshot
+{
+	public static final int TEAMMATES = 0;
+	public static final int OPPONENTS = 1;
+
+	public static final int MAX_PLAYERS 	= 32;
+	public static final int MAX_DIRECTIONS 	= 3600;
+
+	// a player in the lane closer than this is blocking the pass
+	public static final double BLOCK_DISTANCE 	= 9.0;
+	// players further than this are ignored
+	public static final double IGNORE_DISTANCE 	= 40.0;
+	// maximal number of simulation steps for the interception
+	public static final int    MAX_TIME 		= 150;
+
+	// angular half width of the lane for my teammates and opponents (degrees)
+	static final double[] LANE_WIDTH = { 1.0, 12.0 };
+
+	// the simulation step this snapshot describes
+	int 		time;
+
+	// the passer and the ball
+	double 		myX, myY;
+	double 		ballX, ballY;
+
+	// dash force used by the players intercepting the ball
+	double 		force;
+
+	// players; the direction and distance are seen from the passer
+	final int[]			size 	= new int[2];
+	final double[][]	plrX 	= new double[2][MAX_PLAYERS];
+	final double[][]	plrY 	= new double[2][MAX_PLAYERS];
+	final double[][]	plrVx 	= new double[2][MAX_PLAYERS];
+	final double[][]	plrVy 	= new double[2][MAX_PLAYERS];
+	final double[][]	plrDir 	= new double[2][MAX_PLAYERS];
+	final double[][]	plrDist = new double[2][MAX_PLAYERS];
+	final int[][]		plrSlot = new int[2][MAX_PLAYERS];	// in MotionTracker
+
+	// candidate passing directions (degrees)
+	int 			numOfDir;
+	final double[]	dirs 	= new double[MAX_DIRECTIONS];
+	final double[]	ballVx 	= new double[MAX_DIRECTIONS];
+	final double[]	ballVy 	= new double[MAX_DIRECTIONS];
+
+	// opponents are considered in all directions, teammates only in the
+	// directions where the opponents value exceeds this threshold
+	double 			clearanceThreshold = 1900.0;
+
+	// results; the value of each direction for each team
+	// (see PassLaneKernel for how it is calculated)
+	final double[][]	value 		= new double[2][MAX_DIRECTIONS];
+	final int[][]		bestTime 	= new int[2][MAX_DIRECTIONS];
+	final int[][]		sumTime 	= new int[2][MAX_DIRECTIONS];
+	final int[][]		count 		= new int[2][MAX_DIRECTIONS];
+	final boolean[][]	blocked 	= new boolean[2][MAX_DIRECTIONS];
+
+	// the interceptions simulated since the snapshot was filled
+	// (the chunks may be evaluated by several threads at once)
+	final AtomicInteger	simulations = new AtomicInteger();
+
+	// used while filling
+	private final Vector2d 	myPos 	= new Vector2d();
+	private final Vector2d 	plrPos 	= new Vector2d();
+
+
+	// this method sets 'numOfDir' evenly spaced passing directions
+	public void setDirections( int numOfDir )
+	{
+		if ( numOfDir > MAX_DIRECTIONS )
+			numOfDir = MAX_DIRECTIONS;
+		this.numOfDir = numOfDir;
+
+		for ( int i = 0; i < numOfDir; i++ ) {
+			double dir = Util.normal_dir( i * 360.0/numOfDir );
+			dirs[i] = dir;
+			// the initial ball velocity in meters per simulation step
+			double rad = Util.Deg2Rad( dir );
+			ballVx[i] = WorldModel.BALLMAXSPEED * Math.cos( rad )
+											* WorldModel.SIM_STEP_SECONDS;
+			ballVy[i] = WorldModel.BALLMAXSPEED * Math.sin( rad )
+											* WorldModel.SIM_STEP_SECONDS;
+		}
+	}
+
+
+	// this method copies the positions from the world data and the 
+	// velocities from 'motion'; 'force' is the dash force of the 
+	// intercepting players; the teammates beyond 'offsideX' cannot 
+	// receive the pass and are left out
+	public void fill( WorldData world, MotionTracker motion, 
+					  double force, double offsideX )
+	{
+		Player me = world.getMyself();
+		myPos.setXY( me.position );
+		ballX = world.getBall().position.getX();
+		ballY = world.getBall().position.getY();
+		fill( world, motion, 0, force, offsideX );
+	}
+
+
+	// this method fills the snapshot with the state predicted 'steps'
+	// steps after the latest packet: the ball and I move as 'predictor'
+	// extrapolates, and the other players keep their velocity 
+	public void fillAhead( WorldData world, MotionTracker motion, 
+						   WorldPredictor predictor, int steps,
+						   double force, double offsideX )
+	{
+		predictor.predictMyself( steps, myPos, null );
+		predictor.predictBall( steps, plrPos, null );
+		ballX = plrPos.getX();
+		ballY = plrPos.getY();
+		fill( world, motion, steps, force, offsideX );
+	}
+
+
+	private void fill( WorldData world, MotionTracker motion, int steps,
+					   double force, double offsideX )
+	{
+		time = world.time + steps;
+		simulations.set( 0 );
+		myX = myPos.getX();
+		myY = myPos.getY();
+		this.force = force;
+
+		Player me = world.getMyself();
+		fillTeam( TEAMMATES, world.getMyTeam(), me, motion, steps, offsideX );
+		fillTeam( OPPONENTS, world.getTheirTeam(), me, motion, steps,
+				  Double.POSITIVE_INFINITY );
+	}
+
+
+	private void fillTeam( int team, Vector<Player> players, Player me, 
+						   MotionTracker motion, int steps, double maxX )
+	{
+		int n = 0;
+		for ( int i = 0; i < players.size() && n < MAX_PLAYERS; i++ ) {
+			Player player = players.elementAt( i );
+
+			// I exclude myself
+			if ( player.equals( me ) )
+				continue;
+			if ( player.position.getX() > maxX )
+				continue;
+
+			int slot = MotionTracker.getSlot( team == TEAMMATES, player.id );
+			plrSlot[team][n] 	= slot;
+			plrVx[team][n] 		= motion.getVx( slot );
+			plrVy[team][n] 		= motion.getVy( slot );
+			plrPos.setXY( player.position.getX() + plrVx[team][n] * steps, 
+						  player.position.getY() + plrVy[team][n] * steps );
+			plrX[team][n] 		= plrPos.getX();
+			plrY[team][n] 		= plrPos.getY();
+			plrDir[team][n] 	= myPos.direction( plrPos );
+			plrDist[team][n] 	= myPos.distance( plrPos );
+			n++;
+		}
+		size[team] = n;
+	}
+
+
+	// this method returns true if 'other' describes the same step and 
+	// every position in it is within 'tolerance' of this one (and every 
+	// velocity within 'velTolerance'), so that the results of either 
+	// could be used for the other one
+	public boolean matches( PassLaneSnapshot other, 
+							double tolerance, double velTolerance )
+	{
+		if ( other.time != time || other.numOfDir != numOfDir 
+				|| other.force != force )
+			return false;
+		double tol2 = tolerance * tolerance;
+		if ( dist2( myX - other.myX, myY - other.myY ) > tol2 
+				|| dist2( ballX - other.ballX, ballY - other.ballY ) > tol2 )
+			return false;
+		for ( int team = 0; team < 2; team++ ) {
+			if ( other.size[team] != size[team] )
+				return false;
+			for ( int p = 0; p < size[team]; p++ ) {
+				if ( dist2( plrX[team][p] - other.plrX[team][p], 
+							plrY[team][p] - other.plrY[team][p] ) > tol2 )
+					return false;
+				if ( Math.abs( plrVx[team][p] - other.plrVx[team][p] ) > velTolerance
+						|| Math.abs( plrVy[team][p] - other.plrVy[team][p] ) > velTolerance )
+					return false;
+			}
+		}
+		return true;
+	}
+
+
+	private static double dist2( double dx, double dy )
+	{
+		return dx*dx + dy*dy;
+	}
+
+
+	// returns the simulation step this snapshot describes
+	public int getTime()
+	{
+		return time;
+	}
+
+
+	public int getNumOfDir()
+	{
+		return numOfDir;
+	}
+
+	public double getDirection( int i )
+	{
+		return dirs[i];
+	}
+
+	public double getValue( int team, int i )
+	{
+		return value[team][i];
+	}
+
+	public int getBestTime( int team, int i )
+	{
+		return bestTime[team][i];
+	}
+
+	// returns the number of interceptions simulated for this snapshot
+	public int getNumOfSimulations()
+	{
+		return simulations.get();
+	}
+
+	public double getClearanceThreshold()
+	{
+		return clearanceThreshold;
+	}
+
+	public void setClearanceThreshold( double threshold )
+	{
+		clearanceThreshold = threshold;
+	}
+}
@@ -0,0 +1,351 @@
+/* PositionGrid.java
+
+   Precomputed target positions of the players without the ball.
+
+*/
+
+package tos_teams.africa;
+
+import soccer.common.*;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * For each role of a formation and each ball possession state, this grid
+ * maps the ball position to the position where the player should move.
+ * The ball position is discretized into square cells covering the field
+ * with the sidewalks; between the nodes, the target is interpolated
+ * bilinearly. As the grid can hold any shape, it can be tuned far beyond
+ * the weighted sum of the ball and the reference position that the
+ * players have always used. It is not cheaper than that sum: the lookup
+ * takes some 25 ns per target against some 14 ns for the sum (see
+ * 'PositionGrid -time'), which is a few hundred ns per cycle either way.
+ *
+ * The grids are stored in a compact binary file (see save() and the
+ * main() method that creates it). If there is no file for a formation,
+ * the grid is built from the weighted sum with the tuning parameters of
+ * the team (see TuningParameters), so the default positioning is the
+ * same as before.
+ */
+
+public class PositionGrid
+{
+	private static final int MAGIC 		= 0x50475244;		// "PGRD"
+	private static final int VERSION 	= 1;
+
+	// number of ball possession states (our, neutral, their ball)
+	public static final int STATES 		= 3;
+
+	// default distance between the grid nodes (meters)
+	public static final double DEFAULT_CELL = 2.0;
+
+	// the directory with <formation name>.grid files; null disables the grids
+	private static String 	directory = ".";
+	// the grids built for each parameter set
+	private static final Map<TuningParameters, Map<Formation, PositionGrid>> grids
+				= new IdentityHashMap<TuningParameters, Map<Formation, PositionGrid>>();
+
+	private final int 		roles;
+	private final int 		nx, ny;			// number of nodes
+	private final double 	x0, y0;			// the position of node (0, 0)
+	private final double 	cell;
+	private final float[] 	target;			// (x, y) pairs
+
+
+	private PositionGrid( int roles, int nx, int ny,
+						  double x0, double y0, double cell )
+	{
+		this.roles = roles;
+		this.nx = nx;
+		this.ny = ny;
+		this.x0 = x0;
+		this.y0 = y0;
+		this.cell = cell;
+		this.target = new float[ roles * STATES * nx * ny * 2 ];
+	}
+
+
+	// sets the directory with the grid files (null disables the grids)
+	public static synchronized void setDirectory( String dir )
+	{
+		directory = dir;
+		grids.clear();
+	}
+
+
+	// this method returns the grid of 'formation' played with 'parameters',
+	// or null if the grids are disabled; the grid is loaded or built once
+	// and then shared
+	public static synchronized PositionGrid forFormation( Formation formation,
+													  TuningParameters parameters )
+	{
+		if ( directory == null )
+			return null;
+
+		Map<Formation, PositionGrid> built = grids.get( parameters );
+		if ( built == null ) {
+			built = new IdentityHashMap<Formation, PositionGrid>();
+			grids.put( parameters, built );
+		}
+		PositionGrid grid = built.get( formation );
+		if ( grid == null ) {
+			File file = new File( directory, formation.getName() + ".grid" );
+			if ( file.exists() ) {
+				try {
+					grid = load( file );
+					System.out.println( "Loaded position grid " + file );
+				} catch ( IOException e ) {
+					System.out.println( "Cannot load " + file + ": " + e );
+				}
+			}
+			if ( grid == null || grid.roles < formation.size() )
+				grid = build( formation, parameters, DEFAULT_CELL );
+			built.put( formation, grid );
+		}
+		return grid;
+	}
+
+
+	// this method builds the grid from the weighted sum of the ball
+	// position and the reference position of each role
+	public static PositionGrid build( Formation formation,
+									  TuningParameters parameters, double cell )
+	{
+		double xmin = -WorldModel.LENGTH/2.0 - WorldModel.SIDEWALK;
+		double ymin = -WorldModel.WIDTH/2.0 - WorldModel.SIDEWALK;
+		int nx = (int)Math.ceil( -2 * xmin / cell ) + 1;
+		int ny = (int)Math.ceil( -2 * ymin / cell ) + 1;
+		int roles = formation.size();
+
+		PositionGrid grid = new PositionGrid( roles, nx, ny, xmin, ymin, cell );
+
+		Vector2d homePos = new Vector2d();
+		Vector2d offensePos = new Vector2d();
+		Vector2d defensePos = new Vector2d();
+		Vector2d ballPos = new Vector2d();
+		Vector2d pos = new Vector2d();
+
+		for ( int role = 0; role < roles; role++ ) {
+			WorldModel.getFormationPositions( formation, role, parameters,
+										homePos, offensePos, defensePos );
+			for ( int state = 0; state < STATES; state++ ) {
+				Vector2d refPsn = WorldModel.getReferencePos(
+							state - 1, homePos, offensePos, defensePos );
+				for ( int iy = 0; iy < ny; iy++ ) {
+					for ( int ix = 0; ix < nx; ix++ ) {
+						ballPos.setXY( xmin + ix * cell, ymin + iy * cell );
+						WorldModel.blendPosition( ballPos, refPsn,
+										formation.isGoalie( role ),
+										parameters.getPositionWeight(), pos );
+						int k = grid.index( role, state, ix, iy );
+						grid.target[k] 		= (float)pos.getX();
+						grid.target[k + 1] 	= (float)pos.getY();
+					}
+				}
+			}
+		}
+		return grid;
+	}
+
+
+	private int index( int role, int state, int ix, int iy )
+	{
+		return 2 * ( ( ( role * STATES + state ) * ny + iy ) * nx + ix );
+	}
+
+
+	// this method stores in 'pos' the target position of 'role' for the
+	// ball in 'ballPos'; 'whoseBallIs' is WorldModel.OUR_BALL, etc.
+	public void lookup( int role, int whoseBallIs, Vector2d ballPos, Vector2d pos )
+	{
+		// the ball position in the grid coordinates (clamped to the grid)
+		double gx = ( ballPos.getX() - x0 ) / cell;
+		double gy = ( ballPos.getY() - y0 ) / cell;
+		if ( gx < 0 )
+			gx = 0;
+		else if ( gx > nx - 1 )
+			gx = nx - 1;
+		if ( gy < 0 )
+			gy = 0;
+		else if ( gy > ny - 1 )
+			gy = ny - 1;
+
+		int ix = Math.min( (int)gx, nx - 2 );
+		int iy = Math.min( (int)gy, ny - 2 );
+		double fx = gx - ix;
+		double fy = gy - iy;
+
+		int k00 = index( role, whoseBallIs + 1, ix, iy );
+		int k10 = k00 + 2;
+		int k01 = k00 + 2 * nx;
+		int k11 = k01 + 2;
+
+		double w00 = ( 1 - fx ) * ( 1 - fy );
+		double w10 = fx * ( 1 - fy );
+		double w01 = ( 1 - fx ) * fy;
+		double w11 = fx * fy;
+
+		pos.setXY( w00 * target[k00] + w10 * target[k10]
+					+ w01 * target[k01] + w11 * target[k11],
+				   w00 * target[k00 + 1] + w10 * target[k10 + 1]
+					+ w01 * target[k01 + 1] + w11 * target[k11 + 1] );
+	}
+
+
+	// this method saves the grid in the binary format
+	public void save( File file ) throws IOException
+	{
+		DataOutputStream out = new DataOutputStream(
+					new BufferedOutputStream( new FileOutputStream( file ) ) );
+		try {
+			out.writeInt( MAGIC );
+			out.writeInt( VERSION );
+			out.writeInt( roles );
+			out.writeInt( nx );
+			out.writeInt( ny );
+			out.writeDouble( x0 );
+			out.writeDouble( y0 );
+			out.writeDouble( cell );
+			for ( int i = 0; i < target.length; i++ )
+				out.writeFloat( target[i] );
+		} finally {
+			out.close();
+		}
+	}
+
+
+	// this method loads the grid saved by save()
+	public static PositionGrid load( File file ) throws IOException
+	{
+		DataInputStream in = new DataInputStream(
+					new BufferedInputStream( new FileInputStream( file ) ) );
+		try {
+			if ( in.readInt() != MAGIC || in.readInt() != VERSION )
+				throw new IOException( "not a position grid file" );
+			int roles = in.readInt();
+			int nx = in.readInt();
+			int ny = in.readInt();
+			double x0 = in.readDouble();
+			double y0 = in.readDouble();
+			double cell = in.readDouble();
+			if ( nx < 2 || ny < 2 || cell <= 0 )
+				throw new IOException( "bad grid size" );
+
+			PositionGrid grid = new PositionGrid( roles, nx, ny, x0, y0, cell );
+			for ( int i = 0; i < grid.target.length; i++ )
+				grid.target[i] = in.readFloat();
+			return grid;
+		} finally {
+			in.close();
+		}
+	}
+
+
+	// this program writes the default grid of a formation to a file,
+	// which could then be edited by a tuning tool:
+	//   PositionGrid <formations file> <formation> <grid file> [cell size]
+	//                [parameter file]
+	// or prints the time of the default grid against the weighted sum:
+	//   PositionGrid -time <formations file> <formation>
+	public static void main( String argv[] ) throws IOException
+	{
+		if ( argv.length == 3 && argv[0].equals( "-time" ) ) {
+			Formation formation = Formation.load( argv[1] ).get( argv[2] );
+			if ( formation == null ) {
+				System.err.println( "No formation " + argv[2] + " in " + argv[1] );
+				return;
+			}
+			time( formation );
+			return;
+		}
+		if ( argv.length < 3 ) {
+			System.err.println( "USAGE: PositionGrid formations_file formation "
+								+ "grid_file [cell_size] [parameter_file]\n"
+								+ "       PositionGrid -time formations_file formation" );
+			return;
+		}
+
+		Formation formation = Formation.load( argv[0] ).get( argv[1] );
+		if ( formation == null ) {
+			System.err.println( "No formation " + argv[1] + " in " + argv[0] );
+			return;
+		}
+		double cell = DEFAULT_CELL;
+		if ( argv.length > 3 )
+			cell = Double.parseDouble( argv[3] );
+
+		TuningParameters parameters = TuningParameters.DEFAULTS;
+		if ( argv.length > 4 )
+			parameters = TuningParameters.load( argv[4] );
+
+		PositionGrid grid = build( formation, parameters, cell );
+		grid.save( new File( argv[2] ) );
+		System.out.println( "Saved " + grid.nx + "x" + grid.ny + " grid of "
+							+ grid.roles + " roles to " + argv[2] );
+	}
+
+
+	// this method prints the time per target of the grid lookup and of the
+	// weighted sum it replaces (as in WorldModel.determinePlayerPos()), 
+	// for random ball positions and possession states
+	private static void time( Formation formation )
+	{
+		final int POSITIONS = 4096;
+		final int ROUNDS = 2000;
+		TuningParameters parameters = TuningParameters.DEFAULTS;
+		PositionGrid grid = build( formation, parameters, DEFAULT_CELL );
+		int roles = formation.size();
+
+		Vector2d[] homePos = new Vector2d[roles];
+		Vector2d[] offensePos = new Vector2d[roles];
+		Vector2d[] defensePos = new Vector2d[roles];
+		for ( int role = 0; role < roles; role++ ) {
+			homePos[role] = new Vector2d();
+			offensePos[role] = new Vector2d();
+			defensePos[role] = new Vector2d();
+			WorldModel.getFormationPositions( formation, role, parameters,
+									homePos[role], offensePos[role], defensePos[role] );
+		}
+		SplittableRandom random = new SplittableRandom( 0 );
+		Vector2d[] ballPos = new Vector2d[POSITIONS];
+		int[] whoseBallIs = new int[POSITIONS];
+		for ( int i = 0; i < POSITIONS; i++ ) {
+			ballPos[i] = new Vector2d( random.nextDouble( -WorldModel.LENGTH/2.0, 
+														  WorldModel.LENGTH/2.0 ),
+									   random.nextDouble( -WorldModel.WIDTH/2.0, 
+														  WorldModel.WIDTH/2.0 ) );
+			whoseBallIs[i] = random.nextInt( STATES ) - 1;
+		}
+
+		Vector2d pos = new Vector2d();
+		double sum = 0;			// (keeps the results alive)
+		for ( int pass = 0; pass < 3; pass++ ) {	// the first two warm up
+			long start = System.nanoTime();
+			for ( int r = 0; r < ROUNDS; r++ )
+				for ( int i = 0; i < POSITIONS; i++ ) {
+					int role = i % roles;
+					Vector2d refPsn = WorldModel.getReferencePos( whoseBallIs[i],
+							homePos[role], offensePos[role], defensePos[role] );
+					WorldModel.blendPosition( ballPos[i], refPsn, formation.isGoalie( role ),
+											  parameters.getPositionWeight(), pos );
+					sum += pos.getX();
+				}
+			long blend = System.nanoTime() - start;
+
+			start = System.nanoTime();
+			for ( int r = 0; r < ROUNDS; r++ )
+				for ( int i = 0; i < POSITIONS; i++ ) {
+					grid.lookup( i % roles, whoseBallIs[i], ballPos[i], pos );
+					sum += pos.getX();
+				}
+			long lookup = System.nanoTime() - start;
+
+			if ( pass == 2 )
+				System.out.println( String.format( Locale.US,
+						"%s: weighted sum %.1f ns, grid lookup %.1f ns per target (%s)",
+						formation.getName(), (double)blend / ROUNDS / POSITIONS,
+						(double)lookup / ROUNDS / POSITIONS, sum != 0 ? "ok" : "-" ) );
+		}
+	}
+}
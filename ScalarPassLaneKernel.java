@@ -0,0 +1,28 @@
+/* ScalarPassLaneKernel.java
+
+   The plain Java pass lane kernel.
+
+*/
+
+package tos_teams.africa;
+
+// this kernel simulates the interceptions one by one; it is used
+// if the Vector API is not available
+
+public class ScalarPassLaneKernel extends PassLaneKernel
+{
+	public String getName()
+	{
+		return "scalar";
+	}
+
+	protected void simulate( Workspace w, int n,
+							double ballX, double ballY, double fk )
+	{
+		for ( int k = 0; k < n; k++ )
+			w.time[k] = simulateOne( ballX, ballY,
+									 w.ballVx[k], w.ballVy[k],
+									 w.plrX[k], w.plrY[k],
+									 w.plrVx[k], w.plrVy[k], fk );
+	}
+}
@@ -0,0 +1,340 @@
+/* SelfPlayTuner.java
+
+   Tunes the parameters of the team by playing headless matches against itself.
+
+*/
+
+package tos_teams.africa;
+
+import soccer.common.*;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * This program searches for better tuning parameters (see
+ * TuningParameters) by random search. Each candidate parameter set plays
+ * a number of matches against the baseline set (the defaults, or a file),
+ * half of them on the left and half on the right; the matches are played
+ * by HeadlessMatch, in parallel on all cores, with the same seeds for
+ * every candidate so that they are compared on the same noise.
+ *
+ * The search runs in rounds. The first round samples the whole range of
+ * every parameter; each later round samples half of its candidates around
+ * the best set so far (a normal step of 'spread' times the range in every
+ * parameter) and the other half from the whole range again.
+ *
+ * The score of a match is the goal difference plus the average position
+ * of the ball as a fraction of half the field length (towards the goal
+ * of the opponent), which ranks the matches with few or no goals by the
+ * territory gained. A candidate is ranked by the lower bound of the 95%
+ * confidence interval of its mean score, so that a lucky candidate does
+ * not win; the baseline itself is evaluated first, and its interval
+ * should cover zero.
+ *
+ * After every round, the best candidates are printed with their intervals,
+ * with the throughput in matches per hour per core, and the best set is
+ * saved to a property file that Africa_Team reads with the property
+ * left_parameters (or right_parameters).
+ *
+ * The players run in the deterministic mode, without the decision pool,
+ * the flight recorders and the position grids (a grid is built for every
+ * parameter set otherwise), and their output is suppressed unless
+ * -verbose is given. The other properties are read from the property file
+ * as by Africa_Team.
+ *
+ * USAGE: SelfPlayTuner [-pf property_file] [-rounds 4] [-candidates 16]
+ *                      [-matches 8] [-steps 3000] [-threads cores]
+ *                      [-seed 1] [-spread 0.1] [-top 5] [-baseline file]
+ *                      [-out tuned.properties] [-verbose]
+ */
+
+public class SelfPlayTuner
+{
+	// the two-sided 97.5% quantiles of Student's t for 1 to 30 degrees of
+	// freedom; beyond that the normal quantile is close enough
+	private static final double[] T_975 = {
+				12.706, 4.303, 3.182, 2.776, 2.571, 2.447, 2.365, 2.306, 2.262, 2.228,
+				2.201, 2.179, 2.160, 2.145, 2.131, 2.120, 2.110, 2.101, 2.093, 2.086,
+				2.080, 2.074, 2.069, 2.064, 2.060, 2.056, 2.052, 2.048, 2.045, 2.042 };
+
+	private static int 		rounds = 4;
+	private static int 		candidatesPerRound = 16;
+	private static int 		matches = 8;			// per candidate
+	private static int 		steps = 3000;			// per match
+	private static int 		threads = Runtime.getRuntime().availableProcessors();
+	private static long 	seed = 1;
+	private static double 	spread = 0.1;
+	private static int 		top = 5;
+	private static String 	baselineFile = null;
+	private static String 	outFile = "tuned.properties";
+	private static boolean 	verbose = false;
+
+	private static PrintStream 	console = System.out;
+
+
+	/**
+	 * A parameter set and the results of its matches.
+	 */
+	private static class Candidate
+	{
+		final int 				id;
+		final TuningParameters 	parameters;
+		final double[] 			score;				// of each match
+		final double[] 			meanBallX;			// towards the opponent goal
+		int 					goalsFor, goalsAgainst;
+
+		double 	mean, low, high;					// of the score
+
+		Candidate( int id, TuningParameters parameters )
+		{
+			this.id = id;
+			this.parameters = parameters;
+			score = new double[ matches ];
+			meanBallX = new double[ matches ];
+		}
+
+		synchronized void record( int match, HeadlessMatch.Result result, boolean onLeft )
+		{
+			int ours = onLeft ? result.goalsLeft : result.goalsRight;
+			int theirs = onLeft ? result.goalsRight : result.goalsLeft;
+			meanBallX[ match ] = onLeft ? result.meanBallX : -result.meanBallX;
+			score[ match ] = ours - theirs + meanBallX[ match ] / ( WorldModel.LENGTH/2.0 );
+			goalsFor += ours;
+			goalsAgainst += theirs;
+		}
+
+		void summarize()
+		{
+			int n = score.length;
+			double sum = 0;
+			for ( int i = 0; i < n; i++ )
+				sum += score[i];
+			mean = sum / n;
+			double ss = 0;
+			for ( int i = 0; i < n; i++ )
+				ss += ( score[i] - mean ) * ( score[i] - mean );
+			double half = 0;
+			if ( n > 1 )
+				half = tQuantile( n - 1 ) * Math.sqrt( ss / ( n - 1 ) / n );
+			low = mean - half;
+			high = mean + half;
+		}
+
+		double getMeanBallX()
+		{
+			double sum = 0;
+			for ( int i = 0; i < meanBallX.length; i++ )
+				sum += meanBallX[i];
+			return sum / meanBallX.length;
+		}
+	}
+
+
+	public static void main( String argv[] ) throws Exception
+	{
+		Properties properties = new Properties();
+		try {
+			for ( int c = 0; c < argv.length; c += 2 ) {
+				if ( argv[c].equals( "-verbose" ) ) {
+					verbose = true;
+					c--;
+				} else if ( argv[c].equals( "-pf" ) )
+					properties.load( new FileInputStream( argv[c + 1] ) );
+				else if ( argv[c].equals( "-rounds" ) )
+					rounds = Integer.parseInt( argv[c + 1] );
+				else if ( argv[c].equals( "-candidates" ) )
+					candidatesPerRound = Integer.parseInt( argv[c + 1] );
+				else if ( argv[c].equals( "-matches" ) )
+					matches = Math.max( 2, Integer.parseInt( argv[c + 1] ) );
+				else if ( argv[c].equals( "-steps" ) )
+					steps = Integer.parseInt( argv[c + 1] );
+				else if ( argv[c].equals( "-threads" ) )
+					threads = Math.max( 1, Integer.parseInt( argv[c + 1] ) );
+				else if ( argv[c].equals( "-seed" ) )
+					seed = Long.parseLong( argv[c + 1] );
+				else if ( argv[c].equals( "-spread" ) )
+					spread = Double.parseDouble( argv[c + 1] );
+				else if ( argv[c].equals( "-top" ) )
+					top = Integer.parseInt( argv[c + 1] );
+				else if ( argv[c].equals( "-baseline" ) )
+					baselineFile = argv[c + 1];
+				else if ( argv[c].equals( "-out" ) )
+					outFile = argv[c + 1];
+				else
+					throw new IllegalArgumentException( argv[c] );
+			}
+		} catch ( Exception e ) {
+			System.err.println( "USAGE: SelfPlayTuner [-pf property_file] [-rounds 4] "
+						+ "[-candidates 16] [-matches 8] [-steps 3000] [-threads cores] "
+						+ "[-seed 1] [-spread 0.1] [-top 5] [-baseline file] "
+						+ "[-out tuned.properties] [-verbose]" );
+			System.exit( 2 );
+		}
+
+		Africa_Team.setProperties( properties );
+		AgentRandom.setDeterministic( true );
+		DecisionPool.setParallelism( 0 );
+		FlightRecorder.setCycles( 0 );
+		PositionGrid.setDirectory( null );
+		AIPlayer.setLogActions( false );
+
+		final Formation formation = Formation.load( properties.getProperty(
+					"formation_file", "formations.txt" ) ).get(
+					properties.getProperty( "left_formation", "343" ) );
+		SetPieceLibrary library = null;
+		String setPieceFile = properties.getProperty( "setpiece_file", "setpieces.txt" );
+		if ( !setPieceFile.equals( "none" ) && new File( setPieceFile ).exists() )
+			library = SetPieceLibrary.load( setPieceFile );
+		final SetPieceLibrary setPieces = library;
+		final boolean coordinated = Boolean.valueOf( properties
+					.getProperty( "team_coordinator", "false" ) ).booleanValue();
+
+		final TuningParameters baseline = ( baselineFile != null )
+					? TuningParameters.load( baselineFile ) : TuningParameters.DEFAULTS;
+
+		console.println( "Tuning with " + threads + " threads: " + rounds + " rounds of "
+						 + candidatesPerRound + " candidates, " + matches + " matches of "
+						 + steps + " steps each against the baseline" );
+		console.println( "baseline: " + baseline );
+		if ( !verbose )
+			System.setOut( new PrintStream( OutputStream.nullOutputStream() ) );
+
+		ExecutorService executor = Executors.newFixedThreadPool( threads );
+		SplittableRandom random = new SplittableRandom( seed );
+		List<Candidate> evaluated = new ArrayList<Candidate>();
+		Candidate best = null;
+		int numOfCandidates = 0;
+		long numOfMatches = 0;
+		long startNanos = System.nanoTime();
+
+		try {
+			for ( int round = 0; round < rounds; round++ ) {
+				List<Candidate> candidates = new ArrayList<Candidate>();
+				for ( int c = 0; c < candidatesPerRound; c++ ) {
+					TuningParameters parameters;
+					if ( numOfCandidates == 0 )
+						parameters = baseline;
+					else if ( best != null && c % 2 == 0 )
+						parameters = perturb( best.parameters, random );
+					else
+						parameters = sample( random );
+					candidates.add( new Candidate( numOfCandidates++, parameters ) );
+				}
+
+				List<Future<?>> futures = new ArrayList<Future<?>>();
+				for ( final Candidate candidate : candidates ) {
+					for ( int m = 0; m < matches; m++ ) {
+						final int match = m;
+						futures.add( executor.submit( new Callable<Void>() {
+							public Void call() throws Exception
+							{
+								// the candidate plays on the left in the even matches
+								boolean onLeft = ( match % 2 == 0 );
+								TuningParameters[] sides = onLeft
+										? new TuningParameters[] { candidate.parameters, baseline }
+										: new TuningParameters[] { baseline, candidate.parameters };
+								HeadlessMatch game = new HeadlessMatch( formation,
+										formation.size(), sides,
+										new boolean[] { coordinated, coordinated },
+										setPieces, seed * 1000003L + match / 2 );
+								candidate.record( match, game.play( steps ), onLeft );
+								return null;
+							}
+						} ) );
+					}
+				}
+				for ( Future<?> future : futures )
+					future.get();
+				numOfMatches += futures.size();
+
+				for ( Candidate candidate : candidates ) {
+					candidate.summarize();
+					evaluated.add( candidate );
+					if ( best == null || candidate.low > best.low )
+						best = candidate;
+				}
+				report( round, evaluated, numOfMatches, System.nanoTime() - startNanos );
+				best.parameters.save( outFile, String.format( Locale.US,
+						"candidate %d, score %.3f [%.3f, %.3f] in %d matches",
+						best.id, best.mean, best.low, best.high, matches ) );
+			}
+		} finally {
+			executor.shutdownNow();
+			System.setOut( console );
+		}
+		console.println( "\nBest parameters saved to " + outFile );
+	}
+
+
+	// a parameter set drawn uniformly from the tuning ranges
+	private static TuningParameters sample( SplittableRandom random )
+	{
+		double[] values = new double[ TuningParameters.SIZE ];
+		for ( int i = 0; i < values.length; i++ )
+			values[i] = TuningParameters.getMin( i ) + random.nextDouble()
+						* ( TuningParameters.getMax( i ) - TuningParameters.getMin( i ) );
+		return new TuningParameters( values );
+	}
+
+
+	// a parameter set near 'center', within the tuning ranges
+	private static TuningParameters perturb( TuningParameters center,
+											 SplittableRandom random )
+	{
+		double[] values = center.toArray();
+		for ( int i = 0; i < values.length; i++ ) {
+			double min = TuningParameters.getMin( i );
+			double max = TuningParameters.getMax( i );
+			values[i] += spread * ( max - min ) * gaussian( random );
+			values[i] = Math.max( min, Math.min( values[i], max ) );
+		}
+		return new TuningParameters( values );
+	}
+
+
+	// a standard normal number (the Box-Muller transform)
+	private static double gaussian( SplittableRandom random )
+	{
+		double u = 1.0 - random.nextDouble();
+		double v = random.nextDouble();
+		return Math.sqrt( -2 * Math.log( u ) ) * Math.cos( 2 * Math.PI * v );
+	}
+
+
+	private static double tQuantile( int df )
+	{
+		return ( df <= T_975.length ) ? T_975[ df - 1 ] : 1.96;
+	}
+
+
+	// this method prints the best candidates so far and the throughput
+	private static void report( int round, List<Candidate> evaluated,
+								long numOfMatches, long nanos )
+	{
+		List<Candidate> ranked = new ArrayList<Candidate>( evaluated );
+		Collections.sort( ranked, new Comparator<Candidate>() {
+			public int compare( Candidate a, Candidate b )
+			{
+				return Double.compare( b.low, a.low );
+			}
+		} );
+
+		double hours = nanos / 3.6e12;
+		console.println( String.format( Locale.US,
+				"\n@@@  round %d: %d candidates, %d matches in %.1f s, "
+				+ "%.0f matches per hour per core",
+				round + 1, evaluated.size(), numOfMatches, nanos / 1e9,
+				numOfMatches / hours / threads ) );
+		console.println( "  cand      score     95% interval      goals for:against  ball x" );
+		for ( int i = 0; i < Math.min( top, ranked.size() ); i++ ) {
+			Candidate c = ranked.get( i );
+			console.println( String.format( Locale.US,
+					"  %4d %+10.3f  [%+7.3f, %+7.3f] %10d:%-8d %+6.1f%s",
+					c.id, c.mean, c.low, c.high, c.goalsFor, c.goalsAgainst,
+					c.getMeanBallX(), c.id == 0 ? "   (baseline)" : "" ) );
+			console.println( "       " + c.parameters );
+		}
+	}
+}
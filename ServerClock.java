@@ -0,0 +1,188 @@
+/* ServerClock.java
+
+   The phase of the server simulation steps, as estimated by one player.
+
+*/
+
+package tos_teams.africa;
+
+/**
+ * The server sends a SEE packet at each simulation step, and the packet
+ * carries the step number. The earliest arrivals (those delayed the least
+ * by the network and the scheduler) follow the server clock, so the lower
+ * envelope of the arrival times, base + k * period, gives the time of each
+ * step as seen by the player. Packets arriving later than the envelope
+ * measure the jitter.
+ *
+ * The envelope is moved down at once by any earlier arrival, and up at the
+ * end of each window of WINDOW packets to the earliest arrival in it (the
+ * server may be slower than it should). The period is corrected from the
+ * drift of the earliest arrivals between the windows.
+ *
+ * The command for a step must reach the server before the next step, so
+ * getNextTickNanos() is the real deadline for the planning; a command sent
+ * after it was probably applied one step late.
+ */
+
+public class ServerClock
+{
+	// number of packets in the window for correcting the envelope
+	private static final int 	WINDOW = 40;
+
+	// the command must be sent this long before the next step 
+	// (for the time it takes to reach the server)
+	private static final long 	SEND_MARGIN_NANOS = 1000000;
+
+	// the nominal step duration 
+	private static final double STEP_NANOS = WorldModel.SIM_STEP_SECONDS * 1.0e9;
+
+	// weights of the period correction and of the jitter filter
+	private static final double PERIOD_GAIN = 0.5;
+	private static final double JITTER_WEIGHT = 0.05;
+
+	private boolean 	started = false;
+	private int 		lastTime;				// the latest step number
+	private long 		step;					// the steps since the start
+	private long 		origin;					// System.nanoTime() of the start
+	private double 		base;					// the envelope (nanos from origin)
+	private double 		period = STEP_NANOS;
+	private int 		samples = 0;
+
+	// the earliest arrival in this and in the previous window
+	private double 		winMinErr;
+	private long 		winMinStep;
+	private int 		winCount = 0;
+	private double 		prevWinMinErr;
+	private long 		prevWinMinStep = -1;
+
+	private double 		jitter = 0;				// averaged (nanos)
+	private long 		lastArrival;			// of the latest packet
+	private int 		lateCount = 0;			// commands sent after the step
+
+
+	// this method is called with each SEE packet: 'time' is its step
+	// number and 'arrivalNanos' is System.nanoTime() when it arrived
+	public void onSee( int time, long arrivalNanos )
+	{
+		if ( started && ServerTime.isStale( lastTime, time ) )
+			return;			// a duplicated or reordered packet 
+
+		int delta = started ? ServerTime.delta( lastTime, time ) : 0;
+		if ( !started || delta <= 0 ) {
+			// the first packet, or the server has restarted counting
+			started = true;
+			step = 0;
+			origin = arrivalNanos;
+			base = 0;
+			period = STEP_NANOS;
+			samples = 0;
+			winCount = 0;
+			prevWinMinStep = -1;
+		}
+		lastTime = time;
+		step += delta;
+		lastArrival = arrivalNanos;
+		samples++;
+
+		double err = ( arrivalNanos - origin ) - ( base + step * period );
+		if ( err < 0 ) {
+			// the earliest arrival so far; this is the new envelope
+			base += err;
+			winMinErr -= err;
+			prevWinMinErr -= err;
+			err = 0;
+		}
+		jitter = JITTER_WEIGHT * err + ( 1 - JITTER_WEIGHT ) * jitter;
+
+		if ( winCount == 0 || err < winMinErr ) {
+			winMinErr = err;
+			winMinStep = step;
+		}
+		if ( ++winCount < WINDOW )
+			return;
+
+		// the end of the window: correct the period from the drift of
+		// the earliest arrivals, and lift the envelope to the earliest one
+		if ( prevWinMinStep >= 0 && winMinStep > prevWinMinStep ) {
+			double drift = ( winMinErr - prevWinMinErr ) 
+								/ ( winMinStep - prevWinMinStep );
+			double correction = PERIOD_GAIN * drift;
+			// keep it within 5% of the nominal step
+			correction = Math.max( 0.95 * STEP_NANOS - period, 
+								   Math.min( 1.05 * STEP_NANOS - period, correction ) );
+			period += correction;
+			base -= correction * winMinStep;	// no jump at the window minimum
+		}
+		base += winMinErr;
+		prevWinMinErr = 0;			// it is now on the envelope
+		prevWinMinStep = winMinStep;
+		winCount = 0;
+	}
+
+
+	// returns true once the phase has been estimated
+	public boolean isSynced()
+	{
+		return samples >= WINDOW;
+	}
+
+
+	// returns System.nanoTime() by which the command for the latest step 
+	// must be sent; without the estimate, it is one step after the arrival
+	public long getNextTickNanos()
+	{
+		if ( !isSynced() )
+			return lastArrival + (long)STEP_NANOS - SEND_MARGIN_NANOS;
+		return origin + (long)( base + ( step + 1 ) * period ) - SEND_MARGIN_NANOS;
+	}
+
+
+	// returns System.nanoTime() when the latest step has started, so that 
+	// the step ends at getNextTickNanos()
+	public long getStepStartNanos()
+	{
+		return getNextTickNanos() - (long)period;
+	}
+
+
+	// returns the time left until the command deadline (may be negative)
+	public long getNanosToNextTick( long nowNanos )
+	{
+		return getNextTickNanos() - nowNanos;
+	}
+
+
+	// this method is called when the command for the latest step is sent;
+	// it returns true if the command is late
+	public boolean commandSent( long nowNanos )
+	{
+		if ( isSynced() && nowNanos > getNextTickNanos() ) {
+			lateCount++;
+			return true;
+		}
+		return false;
+	}
+
+
+	// returns the number of the commands sent late (and resets it)
+	public int takeLateCount()
+	{
+		int late = lateCount;
+		lateCount = 0;
+		return late;
+	}
+
+
+	// the averaged delay of the packets after the envelope (nanos)
+	public double getJitterNanos()
+	{
+		return jitter;
+	}
+
+
+	// the estimated step duration (nanos)
+	public double getPeriodNanos()
+	{
+		return period;
+	}
+}
@@ -0,0 +1,45 @@
+/* ServerTime.java
+
+   Arithmetic on the simulation step numbers sent by the server.
+
+*/
+
+package tos_teams.africa;
+
+/**
+ * The server stamps each SEE packet with the simulation step number
+ * modulo MODULUS. This class calculates the number of steps between two
+ * such stamps, taking the wrap-around into account; a stamp that is
+ * more than half the cycle behind is taken as an older (reordered or
+ * duplicated) packet, and the delta is then zero or negative.
+ */
+
+public class ServerTime
+{
+	// the step numbers wrap around at this value
+	public static final int MODULUS = 1000;
+
+	// a packet this many steps behind the latest one is taken as reordered;
+	// a bigger jump back means that the server has restarted the count
+	public static final int REORDER_WINDOW = 10;
+
+
+	// returns the number of steps from stamp 'from' to stamp 'to',
+	// in the range ( -MODULUS/2, MODULUS/2 ]
+	public static int delta( int from, int to )
+	{
+		int delta = Math.floorMod( to - from, MODULUS );
+		if ( delta > MODULUS/2 )
+			delta -= MODULUS;
+		return delta;
+	}
+
+
+	// returns true if stamp 'time' is a duplicate or a reordered packet
+	// with respect to the latest stamp 'latest'
+	public static boolean isStale( int latest, int time )
+	{
+		int delta = delta( latest, time );
+		return delta <= 0 && delta > -REORDER_WINDOW;
+	}
+}
@@ -0,0 +1,318 @@
+/* SetPieceLibrary.java
+
+   Stored player positions for the interruptions of the game.
+
+*/
+
+package tos_teams.africa;
+
+import soccer.common.*;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * A library of set-piece cases. Each case is a situation (the formation
+ * of my team, the game mode, whose restart it is and the ball position)
+ * with the positions of all players of my team. When the game is
+ * interrupted by the referee, the player looks up the case with the
+ * nearest ball position for its current formation and mode and moves to
+ * its position in that case. The roles of different formations play in
+ * different places, so a formation without cases of its own uses none.
+ *
+ * The cases of each formation and mode are kept in a 2-d tree laid out in flat arrays
+ * (the median of each range is its root), so the lookup takes about
+ * log2(n) distance calculations and allocates nothing; thousands of cases
+ * are as fast as a few. The library is read-only once loaded and is
+ * shared by all players.
+ *
+ * The file format is as follows (all for the left-hand team):
+ *
+ *   # comment
+ *   case 343 corner_kick our 50.0 32.5
+ *   -30.0   5.0
+ *   ...					(one line per role, the goalie first)
+ *
+ * The first word after 'case' is the name of the formation (as in the
+ * formation file); the modes are throw_in, corner_kick, goal_kick and
+ * offside; 'our' or 'their' tells who continues the game. The situations saved from the
+ * Soccer Monitor can be converted to this format.
+ */
+
+public class SetPieceLibrary
+{
+	// the kinds of interruption
+	private static final String[] 	KINDS = { "throw_in", "corner_kick",
+											  "goal_kick", "offside" };
+
+	// the case is not used if its ball position is farther than this
+	public static final double 	MAX_CASE_DISTANCE = 15.0;
+
+	// the trees of each formation, one for each kind and who continues 
+	// (kind*2 + 0 is ours)
+	private final Map<String, Tree[]> 	trees = new HashMap<String, Tree[]>();
+	private int 			numOfCases = 0;
+
+
+	private SetPieceLibrary()
+	{
+	}
+
+
+	// this method loads the library; if there is no such file,
+	// the file with this name is looked up next to the team classes
+	public static SetPieceLibrary load( String fileName ) throws IOException
+	{
+		InputStream in;
+		File file = new File( fileName );
+		if ( file.exists() )
+			in = new FileInputStream( file );
+		else {
+			in = SetPieceLibrary.class.getResourceAsStream( fileName );
+			if ( in == null )
+				throw new FileNotFoundException( fileName );
+		}
+
+		// the cases of each formation, by kind and who continues
+		Map<String, List<List<double[]>>> cases 
+							= new LinkedHashMap<String, List<List<double[]>>>();
+
+		BufferedReader reader = new BufferedReader( new InputStreamReader( in ) );
+		try {
+			List<double[]> current = null;		// the case being read
+			double[] header = null;
+			String formation = null;
+			String line;
+			int lineNumber = 0;
+
+			while ( ( line = reader.readLine() ) != null ) {
+				lineNumber++;
+				int comment = line.indexOf( '#' );
+				if ( comment >= 0 )
+					line = line.substring( 0, comment );
+				StringTokenizer st = new StringTokenizer( line );
+				if ( !st.hasMoreTokens() )
+					continue;
+
+				String word = st.nextToken();
+				if ( word.equals( "case" ) ) {
+					if ( header != null )
+						add( cases, formation, header, current );
+					formation = st.nextToken();
+					int kind = Arrays.asList( KINDS ).indexOf( st.nextToken() );
+					String whose = st.nextToken();
+					if ( kind < 0 || !( whose.equals( "our" ) || whose.equals( "their" ) ) )
+						throw new IOException( fileName + ":" + lineNumber
+												+ ": unknown set piece" );
+					header = new double[] { kind * 2 + ( whose.equals( "our" ) ? 0 : 1 ),
+											Double.parseDouble( st.nextToken() ),
+											Double.parseDouble( st.nextToken() ) };
+					current = new ArrayList<double[]>();
+				} else if ( header == null ) {
+					throw new IOException( fileName + ":" + lineNumber
+											+ ": case expected" );
+				} else {
+					current.add( new double[] { Double.parseDouble( word ),
+										Double.parseDouble( st.nextToken() ) } );
+				}
+			}
+			if ( header != null )
+				add( cases, formation, header, current );
+		} catch ( RuntimeException e ) {
+			throw new IOException( fileName + ": " + e );
+		} finally {
+			reader.close();
+		}
+
+		SetPieceLibrary library = new SetPieceLibrary();
+		for ( Map.Entry<String, List<List<double[]>>> entry : cases.entrySet() ) {
+			Tree[] formationTrees = new Tree[ KINDS.length * 2 ];
+			for ( int i = 0; i < formationTrees.length; i++ ) {
+				List<double[]> kindCases = entry.getValue().get( i );
+				if ( !kindCases.isEmpty() ) {
+					formationTrees[i] = new Tree( kindCases );
+					library.numOfCases += kindCases.size();
+				}
+			}
+			library.trees.put( entry.getKey(), formationTrees );
+		}
+		return library;
+	}
+
+
+	// this method adds the case that has just been read to the cases of
+	// 'formation'
+	private static void add( Map<String, List<List<double[]>>> cases, String formation, 
+							 double[] header, List<double[]> positions )
+	{
+		List<List<double[]>> formationCases = cases.get( formation );
+		if ( formationCases == null ) {
+			formationCases = new ArrayList<List<double[]>>();
+			for ( int i = 0; i < KINDS.length * 2; i++ )
+				formationCases.add( new ArrayList<double[]>() );
+			cases.put( formation, formationCases );
+		}
+		formationCases.get( (int)header[0] ).add( toCase( header, positions ) );
+	}
+
+
+	// the case is stored as { ball x, ball y, x0, y0, x1, y1, ... }
+	private static double[] toCase( double[] header, List<double[]> positions )
+	{
+		double[] c = new double[ 2 + 2 * positions.size() ];
+		c[0] = header[1];
+		c[1] = header[2];
+		for ( int i = 0; i < positions.size(); i++ ) {
+			c[2 + 2*i] 		= positions.get( i )[0];
+			c[2 + 2*i + 1] 	= positions.get( i )[1];
+		}
+		return c;
+	}
+
+
+	public int getNumOfCases()
+	{
+		return numOfCases;
+	}
+
+
+	// returns the names of the formations that have cases
+	public Set<String> getFormations()
+	{
+		return Collections.unmodifiableSet( trees.keySet() );
+	}
+
+
+	// this method stores in 'pos' the position of 'role' in the nearest
+	// case of 'formation' for 'gameMode'; 'ours' is true if my team 
+	// continues the game. it returns false if there is no suitable case.
+	public boolean lookup( Formation formation, int gameMode, boolean ours, int role,
+						   Vector2d ballPos, Vector2d pos )
+	{
+		int kind = getKind( gameMode );
+		if ( kind < 0 )
+			return false;
+		Tree[] formationTrees = trees.get( formation.getName() );
+		if ( formationTrees == null )
+			return false;
+		Tree tree = formationTrees[ kind * 2 + ( ours ? 0 : 1 ) ];
+		if ( tree == null )
+			return false;
+
+		double x = ballPos.getX();
+		double y = ballPos.getY();
+		int best = tree.nearest( 0, tree.size, 0, x, y, -1 );
+		if ( tree.dist2( best, x, y ) > MAX_CASE_DISTANCE * MAX_CASE_DISTANCE
+				|| role >= tree.roles[best] )
+			return false;
+
+		pos.setXY( tree.posX[best][role], tree.posY[best][role] );
+		return true;
+	}
+
+
+	private static int getKind( int gameMode )
+	{
+		if ( gameMode == RefereeData.THROW_IN_L || gameMode == RefereeData.THROW_IN_R )
+			return 0;
+		else if ( gameMode == RefereeData.CORNER_KICK_L
+					|| gameMode == RefereeData.CORNER_KICK_R )
+			return 1;
+		else if ( gameMode == RefereeData.GOAL_KICK_L
+					|| gameMode == RefereeData.GOAL_KICK_R )
+			return 2;
+		else if ( gameMode == RefereeData.OFFSIDE_L || gameMode == RefereeData.OFFSIDE_R )
+			return 3;
+		else
+			return -1;
+	}
+
+
+	// the 2-d tree over the ball positions of the cases of one mode;
+	// the root of range [lo, hi) is its middle element, and its left and
+	// right subtrees are split on the other coordinate
+	private static class Tree
+	{
+		final int 			size;
+		final double[] 		ballX;
+		final double[] 		ballY;
+		final int[] 		roles;
+		final double[][] 	posX;
+		final double[][] 	posY;
+
+
+		Tree( List<double[]> cases )
+		{
+			build( cases, 0, cases.size(), 0 );
+
+			size = cases.size();
+			ballX = new double[size];
+			ballY = new double[size];
+			roles = new int[size];
+			posX = new double[size][];
+			posY = new double[size][];
+			for ( int i = 0; i < size; i++ ) {
+				double[] c = cases.get( i );
+				ballX[i] = c[0];
+				ballY[i] = c[1];
+				roles[i] = ( c.length - 2 ) / 2;
+				posX[i] = new double[ roles[i] ];
+				posY[i] = new double[ roles[i] ];
+				for ( int r = 0; r < roles[i]; r++ ) {
+					posX[i][r] = c[2 + 2*r];
+					posY[i][r] = c[2 + 2*r + 1];
+				}
+			}
+		}
+
+
+		// sorts the range on the coordinate 'axis' and its halves on the other one
+		private static void build( List<double[]> cases, int lo, int hi, final int axis )
+		{
+			if ( hi - lo < 2 )
+				return;
+			Collections.sort( cases.subList( lo, hi ), new Comparator<double[]>() {
+				public int compare( double[] a, double[] b )
+				{
+					return Double.compare( a[axis], b[axis] );
+				}
+			});
+			int mid = ( lo + hi ) >>> 1;
+			build( cases, lo, mid, 1 - axis );
+			build( cases, mid + 1, hi, 1 - axis );
+		}
+
+
+		double dist2( int i, double x, double y )
+		{
+			double dx = ballX[i] - x;
+			double dy = ballY[i] - y;
+			return dx*dx + dy*dy;
+		}
+
+
+		// returns the case nearest to (x, y) in range [lo, hi), or 'best'
+		// if none is nearer than it
+		int nearest( int lo, int hi, int axis, double x, double y, int best )
+		{
+			if ( lo >= hi )
+				return best;
+
+			int mid = ( lo + hi ) >>> 1;
+			if ( best < 0 || dist2( mid, x, y ) < dist2( best, x, y ) )
+				best = mid;
+
+			double diff = ( axis == 0 ) ? x - ballX[mid] : y - ballY[mid];
+			if ( diff < 0 ) {
+				best = nearest( lo, mid, 1 - axis, x, y, best );
+				if ( diff * diff < dist2( best, x, y ) )
+					best = nearest( mid + 1, hi, 1 - axis, x, y, best );
+			} else {
+				best = nearest( mid + 1, hi, 1 - axis, x, y, best );
+				if ( diff * diff < dist2( best, x, y ) )
+					best = nearest( lo, mid, 1 - axis, x, y, best );
+			}
+			return best;
+		}
+	}
+}
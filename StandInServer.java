@@ -0,0 +1,423 @@
+/* StandInServer.java
+
+   A stand-in for the soccer server that loads the players with packets.
+
+*/
+
+package tos_teams.africa;
+
+import soccer.common.*;
+
+import java.io.*;
+import java.net.*;
+import java.util.*;
+
+/**
+ * This program takes the place of the soccer server to find out at what
+ * packet rate and with how many players the team stops keeping up. It
+ * accepts the players as the server does (a CONNECT packet is answered by
+ * an INIT packet), and once they have all connected, it sends each of
+ * them a SEE packet per step from a synthetic match (see SyntheticMatch),
+ * and a REFEREE packet now and then. The step rate is raised over the
+ * run, and for each rate the program prints how fast the players answer
+ * with their commands and how many SEE packets are left unanswered.
+ *
+ *   - 'loss' is the fraction of the SEE packets dropped on purpose;
+ *   - 'jitter' delays each SEE packet by a random time (ms) up to this,
+ *     but at most one step;
+ *   - 'crowd' is the number of players of each team seen on the field;
+ *     the connected players are always among them.
+ *
+ * The response time is measured from sending the SEE packet to receiving
+ * the first command after it. A player may legitimately do nothing, but
+ * in the play-on mode it almost always sends a command, so the packets
+ * left unanswered are the cycles it has lost. A command arriving after
+ * the next SEE packet is counted for the newer one.
+ *
+ * USAGE: StandInServer [-port 7777] [-agents 22] [-rates 20,50,100,200,500]
+ *                      [-seconds 10] [-loss 0.0] [-jitter 0] [-crowd 11]
+ *                      [-formation_file formations.txt] [-formation 343]
+ *
+ * Then start the team with the same port number in its property file.
+ */
+
+public class StandInServer
+{
+	// the statistics are not collected for this long after changing the rate
+	private static final long 	SETTLE_NANOS = 1000000000L;
+
+	// the server repeats the referee info once in this many steps
+	private static final int 	REFEREE_STEPS = 20;
+
+	// the response times kept for each rate (the latest ones)
+	private static final int 	SAMPLES = 1 << 16;
+
+	private static int 			port = 7777;
+	private static int 			numOfAgents = 22;
+	private static int[] 		rates = { 20, 50, 100, 200, 500 };
+	private static double 		seconds = 10;
+	private static double 		loss = 0;
+	private static double 		jitterMs = 0;
+	private static int 			crowd = 11;
+	private static String 		formationFile = "formations.txt";
+	private static String 		formationName = "343";
+
+	private static Transceiver 	transceiver;
+	private static final Map<String, Agent> agents = new LinkedHashMap<String, Agent>();
+
+	private static volatile boolean 	measuring = false;
+
+
+	/**
+	 * A connected player and its statistics for the current rate.
+	 */
+	private static class Agent
+	{
+		final InetAddress 	address;
+		final int 			port;
+		final char 			side;
+		final int 			id;
+
+		long 		seeSentNanos = 0;
+		boolean 	answered = true;
+		boolean 	measured = false;	// the last SEE packet is measured
+
+		int 		sent, dropped, answers, missing;
+		long[] 		response = new long[ 4096 ];
+		int 		responses;
+
+
+		Agent( InetAddress address, int port, char side, int id )
+		{
+			this.address = address;
+			this.port = port;
+			this.side = side;
+			this.id = id;
+		}
+
+
+		synchronized void reset()
+		{
+			sent = dropped = answers = missing = responses = 0;
+			measured = false;
+		}
+
+
+		// a SEE packet has been sent (or dropped) to this player
+		synchronized void seeSent( long now, boolean drop )
+		{
+			if ( measured && !answered )
+				missing++;
+			measured = measuring;
+			if ( drop ) {
+				// it cannot answer what it has not received
+				answered = true;
+				if ( measured )
+					dropped++;
+				return;
+			}
+			seeSentNanos = now;
+			answered = false;
+			if ( measured )
+				sent++;
+		}
+
+
+		// a command has been received from this player
+		synchronized void commandReceived( long now )
+		{
+			if ( answered )
+				return;
+			answered = true;
+			if ( !measured )
+				return;
+			answers++;
+			if ( responses == response.length )
+				response = Arrays.copyOf( response, 2 * response.length );
+			response[ responses++ ] = now - seeSentNanos;
+		}
+	}
+
+
+	public static void main( String argv[] ) throws Exception
+	{
+		try {
+			for ( int c = 0; c < argv.length; c += 2 ) {
+				String value = argv[c + 1];
+				if ( argv[c].equals( "-port" ) )
+					port = Integer.parseInt( value );
+				else if ( argv[c].equals( "-agents" ) )
+					numOfAgents = Integer.parseInt( value );
+				else if ( argv[c].equals( "-rates" ) ) {
+					StringTokenizer st = new StringTokenizer( value, "," );
+					rates = new int[ st.countTokens() ];
+					for ( int i = 0; i < rates.length; i++ )
+						rates[i] = Integer.parseInt( st.nextToken() );
+				} else if ( argv[c].equals( "-seconds" ) )
+					seconds = Double.parseDouble( value );
+				else if ( argv[c].equals( "-loss" ) )
+					loss = Double.parseDouble( value );
+				else if ( argv[c].equals( "-jitter" ) )
+					jitterMs = Double.parseDouble( value );
+				else if ( argv[c].equals( "-crowd" ) )
+					crowd = Integer.parseInt( value );
+				else if ( argv[c].equals( "-formation_file" ) )
+					formationFile = value;
+				else if ( argv[c].equals( "-formation" ) )
+					formationName = value;
+				else
+					throw new IllegalArgumentException( argv[c] );
+			}
+		} catch ( Exception e ) {
+			System.err.println( "USAGE: StandInServer [-port 7777] [-agents 22] "
+						+ "[-rates 20,50,100,200,500] [-seconds 10] [-loss 0.0] "
+						+ "[-jitter 0] [-crowd 11] [-formation_file formations.txt] "
+						+ "[-formation 343]" );
+			return;
+		}
+
+		Formation formation = Formation.load( formationFile ).get( formationName );
+		if ( formation == null ) {
+			System.out.println( "Formation " + formationName + " is not in " + formationFile );
+			return;
+		}
+
+		transceiver = new Transceiver( port );
+		Thread receiver = new Thread( "StandInServer-receiver" ) {
+			public void run()
+			{
+				receive();
+			}
+		};
+		receiver.setDaemon( true );
+		receiver.start();
+
+		System.out.println( "Waiting for " + numOfAgents + " players on port " + port );
+		synchronized ( agents ) {
+			while ( agents.size() < numOfAgents )
+				agents.wait();
+		}
+
+		// the connected players must be on the field
+		int maxId = 1;
+		for ( Agent agent : getAgents() )
+			maxId = Math.max( maxId, agent.id );
+		SyntheticMatch match = new SyntheticMatch( formation,
+										Math.max( crowd, maxId ), 0 );
+		System.out.println( "All players connected, " + match.getPlayersPerTeam()
+							+ " players per team on the field\n" );
+
+		List<String> curve = new ArrayList<String>();
+		for ( int i = 0; i < rates.length; i++ )
+			curve.add( runRate( match, rates[i] ) );
+
+		System.out.println( "\nSaturation curve (" + numOfAgents + " players, loss "
+							+ loss + ", jitter " + jitterMs + " ms, crowd "
+							+ match.getPlayersPerTeam() + ")" );
+		System.out.println( "  rate Hz   SEE sent  answered %  missing %   p50 ms   "
+							+ "p90 ms   p99 ms   max ms  worst player" );
+		for ( String line : curve )
+			System.out.println( line );
+		System.exit( 0 );
+	}
+
+
+	private static List<Agent> getAgents()
+	{
+		synchronized ( agents ) {
+			return new ArrayList<Agent>( agents.values() );
+		}
+	}
+
+
+	// this method streams the packets at 'rate' steps per second and
+	// returns the line of the saturation curve
+	private static String runRate( SyntheticMatch match, int rate )
+							throws IOException
+	{
+		List<Agent> list = getAgents();
+		for ( Agent agent : list )
+			agent.reset();
+		measuring = false;
+
+		long period = 1000000000L / rate;
+		long jitter = Math.min( (long)( jitterMs * 1e6 ), period );
+		SplittableRandom random = new SplittableRandom( rate );
+		long[] delay = new long[ list.size() ];
+		Integer[] order = new Integer[ list.size() ];
+
+		RefereeData referee = new RefereeData();
+		referee.period = RefereeData.FIRST_HALF;
+		referee.mode = RefereeData.PLAY_ON;
+		referee.sideToContinue = 'l';
+
+		long start = System.nanoTime();
+		long end = start + SETTLE_NANOS + (long)( seconds * 1e9 );
+		long tick = start;
+		while ( tick < end ) {
+			if ( !measuring && tick - start >= SETTLE_NANOS )
+				measuring = true;
+
+			match.step();
+			int time = match.getStep() % 1000;
+
+			// each player gets its SEE packet with its own delay
+			for ( int i = 0; i < order.length; i++ ) {
+				delay[i] = ( jitter > 0 ) ? random.nextLong( jitter ) : 0;
+				order[i] = i;
+			}
+			final long[] d = delay;
+			Arrays.sort( order, new Comparator<Integer>() {
+				public int compare( Integer a, Integer b )
+				{
+					return Long.compare( d[a], d[b] );
+				}
+			});
+			for ( int k = 0; k < order.length; k++ ) {
+				Agent agent = list.get( order[k] );
+				sleepUntil( tick + delay[ order[k] ] );
+				boolean drop = random.nextDouble() < loss;
+				agent.seeSent( System.nanoTime(), drop );
+				if ( !drop )
+					transceiver.send( new Packet( Packet.SEE,
+								match.see( time, agent.side, agent.id ),
+								agent.address, agent.port ) );
+			}
+
+			if ( match.getStep() % REFEREE_STEPS == 0 )
+				for ( Agent agent : list )
+					transceiver.send( new Packet( Packet.REFEREE, referee,
+												  agent.address, agent.port ) );
+
+			tick += period;
+			if ( System.nanoTime() > tick + period ) {
+				// the server itself cannot keep up; skip the steps
+				tick = System.nanoTime();
+			}
+			sleepUntil( tick );
+		}
+		measuring = false;
+
+		// the per-player report and the line of the curve
+		System.out.println( "--- " + rate + " Hz ---" );
+		int sent = 0, dropped = 0, answers = 0, missing = 0;
+		List<Long> all = new ArrayList<Long>();
+		Agent worst = null;
+		double worstMissing = -1;
+		for ( Agent agent : list ) {
+			synchronized ( agent ) {
+				long[] samples = Arrays.copyOf( agent.response, agent.responses );
+				Arrays.sort( samples );
+				double missingPercent = 100.0 * agent.missing / Math.max( agent.sent, 1 );
+				System.out.println( String.format( Locale.US,
+							"  %2d-%c  sent %6d  dropped %5d  answered %6d  missing %5.1f%%"
+							+ "  p50 %7.3f ms  p99 %7.3f ms",
+							agent.id, agent.side, agent.sent, agent.dropped, agent.answers,
+							missingPercent, ThroughputBenchmark.percentile( samples, 0.5 ),
+							ThroughputBenchmark.percentile( samples, 0.99 ) ) );
+				sent += agent.sent;
+				dropped += agent.dropped;
+				answers += agent.answers;
+				missing += agent.missing;
+				for ( int i = 0; i < agent.responses; i++ )
+					if ( all.size() < SAMPLES )
+						all.add( agent.response[i] );
+				if ( missingPercent > worstMissing ) {
+					worstMissing = missingPercent;
+					worst = agent;
+				}
+			}
+		}
+		long[] samples = new long[ all.size() ];
+		for ( int i = 0; i < samples.length; i++ )
+			samples[i] = all.get( i );
+		Arrays.sort( samples );
+
+		return String.format( Locale.US,
+					"%9d %10d %11.1f %10.1f %8.3f %8.3f %8.3f %8.3f  %s",
+					rate, sent, 100.0 * answers / Math.max( sent, 1 ),
+					100.0 * missing / Math.max( sent, 1 ),
+					ThroughputBenchmark.percentile( samples, 0.5 ),
+					ThroughputBenchmark.percentile( samples, 0.9 ),
+					ThroughputBenchmark.percentile( samples, 0.99 ),
+					ThroughputBenchmark.percentile( samples, 1.0 ),
+					worst == null ? "" : worst.id + "-" + worst.side
+							+ String.format( Locale.US, " (%.1f%% missing)", worstMissing ) );
+	}
+
+
+	// this method is run by the receiver thread: it connects the players
+	// and takes their commands
+	private static void receive()
+	{
+		while ( true ) {
+			Packet packet;
+			try {
+				packet = transceiver.receive();
+			} catch ( IOException e ) {
+				System.out.println( "StandInServer: " + e );
+				continue;
+			}
+			long now = System.nanoTime();
+			String key = packet.address.getHostAddress() + ":" + packet.port;
+
+			if ( packet.packetType == Packet.CONNECT ) {
+				try {
+					connect( packet, key );
+				} catch ( IOException e ) {
+					System.out.println( "StandInServer: " + e );
+				}
+			} else {
+				Agent agent;
+				synchronized ( agents ) {
+					agent = agents.get( key );
+				}
+				if ( agent != null )
+					agent.commandReceived( now );
+			}
+		}
+	}
+
+
+	// the player gets the next free id of its team; a repeated CONNECT
+	// packet (the INIT packet has been lost) is answered again
+	private static void connect( Packet packet, String key ) throws IOException
+	{
+		ConnectData connect = (ConnectData)packet.data;
+		synchronized ( agents ) {
+			Agent agent = agents.get( key );
+			if ( agent == null ) {
+				char side = ( connect.sideType == ConnectData.LEFT ) ? 'l' : 'r';
+				int id = 1;
+				for ( Agent other : agents.values() )
+					if ( other.side == side )
+						id++;
+				agent = new Agent( packet.address, packet.port, side, id );
+				agents.put( key, agent );
+				System.out.println( "Connected player " + id + "-" + side
+									+ " from " + key );
+				agents.notifyAll();
+			}
+		}
+		InitData init = new InitData();
+		init.maxGrabSteps = WorldModel.MAX_GRABBED_STEPS;
+		transceiver.send( new Packet( Packet.INIT, init, packet.address, packet.port ) );
+	}
+
+
+	private static void sleepUntil( long nanos )
+	{
+		long left;
+		while ( ( left = nanos - System.nanoTime() ) > 0 ) {
+			if ( left > 200000 )
+				try {
+					Thread.sleep( ( left - 100000 ) / 1000000,
+								  (int)( ( left - 100000 ) % 1000000 ) );
+				} catch ( InterruptedException e ) {
+					return;
+				}
+			else
+				Thread.yield();
+		}
+	}
+}
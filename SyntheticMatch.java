@@ -0,0 +1,335 @@
+/* SyntheticMatch.java
+
+   A crude simulation of a match that produces the visual info for the players.
+
+*/
+
+package tos_teams.africa;
+
+import soccer.common.*;
+
+import java.util.*;
+
+/**
+ * This class moves the ball and up to 22 players around the field in a
+ * plausible way, so that the players can be run without the server.
+ * The players keep to their formation shifted towards the ball, the
+ * nearest player of each team runs to the ball, and the ball holder
+ * dribbles towards the opponent goal for a while and then kicks the ball
+ * to a teammate or anywhere. It is no substitute for the server (there
+ * are no collisions or offsides, and the referee just calls the set
+ * pieces on a fixed schedule, see refereeAt()), but every branch of the
+ * decision making is visited, with realistic crowds around the ball.
+ *
+ * The positions are in the true server coordinates, and the player ids
+ * are the roles plus one. The Player and Ball objects of each step are
+ * new and never changed afterwards, so the SeeData of any player and step
+ * can be kept and fed again later.
+ */
+
+public class SyntheticMatch
+{
+	// the ball holder keeps the ball for this many steps at most
+	private static final int 	MAX_HOLD_STEPS = 40;
+	// and cannot control the ball again for this many steps after the kick
+	private static final int 	KICK_STEPS = 3;
+
+	private static final char[] SIDES = { 'l', 'r' };
+
+	// the referee calls a set piece of this many steps in every 
+	// 'PERIOD_STEPS' steps, each time a different one
+	private static final int 	PERIOD_STEPS = 100;
+	private static final int 	SET_PIECE_STEPS = 20;
+	private static final int[] 	SET_PIECES = {
+				RefereeData.THROW_IN_L, RefereeData.CORNER_KICK_R,
+				RefereeData.GOAL_KICK_L, RefereeData.OFFSIDE_R,
+				RefereeData.KICK_OFF_L, RefereeData.THROW_IN_R,
+				RefereeData.CORNER_KICK_L, RefereeData.GOAL_KICK_R,
+				RefereeData.OFFSIDE_L, RefereeData.KICK_OFF_R };
+
+	// the server repeats the referee info once in this many steps
+	// (the set pieces start and end on these steps)
+	private static final int 	REFEREE_STEPS = 20;
+
+	private final int 			size;				// players per team
+	private final double[][] 	homeX, homeY;		// [team][role]
+	private final double[][] 	x, y, dir;
+	private final SplittableRandom 	random;
+
+	private double 	ballX = 0, ballY = 0;
+	private double 	ballVx = 0, ballVy = 0;		// meters per step
+	private int 	holderTeam = -1;			// -1 if the ball is free
+	private int 	holderRole;
+	private int 	holdSteps;
+	private int 	kickerTeam = -1, kickerRole, kickSteps;
+
+	// the immutable objects of the current step
+	private Player[][] 	players;
+	private Ball 		ball;
+	private int 		step = 0;
+
+
+	// 'playersPerTeam' (1 to formation.size()) sets the crowd density;
+	// the same seed produces the same match
+	public SyntheticMatch( Formation formation, int playersPerTeam, long seed )
+	{
+		size = Math.max( 1, Math.min( playersPerTeam, formation.size() ) );
+		random = new SplittableRandom( seed );
+		homeX = new double[2][size];
+		homeY = new double[2][size];
+		x = new double[2][size];
+		y = new double[2][size];
+		dir = new double[2][size];
+
+		for ( int team = 0; team < 2; team++ ) {
+			double sign = ( team == 0 ) ? 1 : -1;	// the right team is inverted
+			for ( int role = 0; role < size; role++ ) {
+				homeX[team][role] = sign * formation.getHomeX( role );
+				homeY[team][role] = sign * formation.getHomeY( role );
+				x[team][role] = homeX[team][role];
+				y[team][role] = homeY[team][role];
+				dir[team][role] = ( team == 0 ) ? 0 : 180;
+			}
+		}
+		publish();
+	}
+
+
+	public int getStep()
+	{
+		return step;
+	}
+
+
+	public int getPlayersPerTeam()
+	{
+		return size;
+	}
+
+
+	// this method advances the match by one simulation step
+	public void step()
+	{
+		moveBall();
+		for ( int team = 0; team < 2; team++ ) {
+			int chaser = nearestToBall( team );
+			for ( int role = 0; role < size; role++ )
+				movePlayer( team, role, role == chaser );
+		}
+		if ( holderTeam < 0 )
+			takeControl();
+		step++;
+		publish();
+	}
+
+
+	// this method returns the referee info sent at step 's' of the match,
+	// or null if none is sent at this step
+	public static Packet refereeAt( int s )
+	{
+		if ( s % REFEREE_STEPS != 0 )
+			return null;
+		RefereeData referee = new RefereeData();
+		referee.period = RefereeData.FIRST_HALF;
+		referee.mode = RefereeData.PLAY_ON;
+		if ( s % PERIOD_STEPS >= PERIOD_STEPS - SET_PIECE_STEPS )
+			referee.mode = SET_PIECES[ ( s / PERIOD_STEPS ) % SET_PIECES.length ];
+		// the kick-off and the restarts of the left side are odd modes
+		referee.sideToContinue = ( referee.mode % 2 == 1 ) ? 'l' : 'r';
+		return new Packet( Packet.REFEREE, referee, null, 0 );
+	}
+
+
+	// this method returns the referee info sent at step 's' of a match
+	// that is never stopped (play on all the time), or null if none is
+	// sent at this step
+	public static Packet playOnAt( int s )
+	{
+		if ( s % REFEREE_STEPS != 0 )
+			return null;
+		RefereeData referee = new RefereeData();
+		referee.period = RefereeData.FIRST_HALF;
+		referee.mode = RefereeData.PLAY_ON;
+		referee.sideToContinue = 'l';
+		return new Packet( Packet.REFEREE, referee, null, 0 );
+	}
+
+
+	// this method returns the SEE packet data received by player 'id' of
+	// team 'side' in the current step; 'time' is the server step number
+	public SeeData see( int time, char side, int id )
+	{
+		int me = ( side == 'l' ) ? 0 : 1;
+		Vector<Player> left = new Vector<Player>( size );
+		Vector<Player> right = new Vector<Player>( size );
+		Player myself = null;
+		for ( int team = 0; team < 2; team++ ) {
+			for ( int role = 0; role < size; role++ ) {
+				Player player = players[team][role];
+				if ( team == me && role == id - 1 )
+					myself = player;		// the server skips me in my team
+				else if ( team == 0 )
+					left.addElement( player );
+				else
+					right.addElement( player );
+			}
+		}
+		if ( myself == null )
+			throw new IllegalArgumentException( "no player " + id + "-" + side );
+		return new SeeData( time, myself, SeeData.NO_OFFSIDE, ball, left, right );
+	}
+
+
+	private void publish()
+	{
+		players = new Player[2][size];
+		for ( int team = 0; team < 2; team++ )
+			for ( int role = 0; role < size; role++ )
+				players[team][role] = new Player( SIDES[team], role + 1,
+									new Vector2d( x[team][role], y[team][role] ),
+									dir[team][role] );
+		if ( holderTeam >= 0 )
+			ball = new Ball( new Vector2d( ballX, ballY ),
+							 SIDES[holderTeam], holderRole + 1 );
+		else
+			ball = new Ball( new Vector2d( ballX, ballY ), 'f', 0 );
+	}
+
+
+	private void moveBall()
+	{
+		if ( holderTeam >= 0 ) {
+			holdSteps--;
+			if ( holdSteps <= 0 )
+				kick();
+			else {
+				// the ball is kept in front of the holder
+				double a = Math.toRadians( dir[holderTeam][holderRole] );
+				ballX = x[holderTeam][holderRole] + 0.5 * Math.cos( a );
+				ballY = y[holderTeam][holderRole] + 0.5 * Math.sin( a );
+				return;
+			}
+		}
+
+		ballX += ballVx;
+		ballY += ballVy;
+		ballVx *= 1 - WorldModel.FRICTIONFACTOR;
+		ballVy *= 1 - WorldModel.FRICTIONFACTOR;
+
+		// the ball bounces off the field boundary
+		double maxX = WorldModel.LENGTH / 2.0;
+		double maxY = WorldModel.WIDTH / 2.0;
+		if ( Math.abs( ballX ) > maxX ) {
+			ballX = Math.signum( ballX ) * maxX;
+			ballVx = -ballVx;
+		}
+		if ( Math.abs( ballY ) > maxY ) {
+			ballY = Math.signum( ballY ) * maxY;
+			ballVy = -ballVy;
+		}
+		if ( kickSteps > 0 )
+			kickSteps--;
+	}
+
+
+	// the holder kicks the ball to a random teammate, or anywhere
+	private void kick()
+	{
+		double tx, ty;
+		int mate = random.nextInt( size );
+		if ( mate != holderRole && random.nextInt( 4 ) > 0 ) {
+			tx = x[holderTeam][mate];
+			ty = y[holderTeam][mate];
+		} else {
+			tx = ( random.nextDouble() - 0.5 ) * WorldModel.LENGTH;
+			ty = ( random.nextDouble() - 0.5 ) * WorldModel.WIDTH;
+		}
+		double a = Math.atan2( ty - ballY, tx - ballX );
+		double speed = ( 0.4 + 0.6 * random.nextDouble() )
+						* WorldModel.BALLMAXSPEED * WorldModel.SIM_STEP_SECONDS;
+		ballVx = speed * Math.cos( a );
+		ballVy = speed * Math.sin( a );
+
+		kickerTeam = holderTeam;
+		kickerRole = holderRole;
+		kickSteps = KICK_STEPS;
+		holderTeam = -1;
+	}
+
+
+	// the nearest player within the control range gets the free ball
+	private void takeControl()
+	{
+		double best = WorldModel.CONTROLRANGE * WorldModel.CONTROLRANGE;
+		for ( int team = 0; team < 2; team++ ) {
+			for ( int role = 0; role < size; role++ ) {
+				if ( kickSteps > 0 && team == kickerTeam && role == kickerRole )
+					continue;
+				double dx = x[team][role] - ballX;
+				double dy = y[team][role] - ballY;
+				if ( dx*dx + dy*dy < best ) {
+					best = dx*dx + dy*dy;
+					holderTeam = team;
+					holderRole = role;
+				}
+			}
+		}
+		if ( holderTeam >= 0 ) {
+			holdSteps = 1 + random.nextInt( MAX_HOLD_STEPS );
+			ballVx = 0;
+			ballVy = 0;
+		}
+	}
+
+
+	private int nearestToBall( int team )
+	{
+		int nearest = -1;
+		double best = Double.MAX_VALUE;
+		for ( int role = 0; role < size; role++ ) {
+			double dx = x[team][role] - ballX;
+			double dy = y[team][role] - ballY;
+			if ( dx*dx + dy*dy < best ) {
+				best = dx*dx + dy*dy;
+				nearest = role;
+			}
+		}
+		return nearest;
+	}
+
+
+	private void movePlayer( int team, int role, boolean chaser )
+	{
+		double sign = ( team == 0 ) ? 1 : -1;
+		double tx, ty;
+		if ( team == holderTeam && role == holderRole ) {
+			// dribble towards the opponent goal
+			tx = sign * WorldModel.LENGTH / 2.0;
+			ty = 0;
+		} else if ( chaser && holderTeam != team ) {
+			tx = ballX;
+			ty = ballY;
+		} else {
+			// keep the formation shifted towards the ball
+			tx = homeX[team][role] + 0.5 * ( ballX + sign * WorldModel.LENGTH / 6.0 );
+			ty = homeY[team][role] + 0.3 * ( ballY - homeY[team][role] );
+			if ( role == 0 )
+				tx = homeX[team][role];
+		}
+		tx += random.nextDouble() * 2 - 1;
+		ty += random.nextDouble() * 2 - 1;
+
+		double dx = tx - x[team][role];
+		double dy = ty - y[team][role];
+		double dist = Math.sqrt( dx*dx + dy*dy );
+		double maxStep = WorldModel.MAXSPEED * WorldModel.SIM_STEP_SECONDS;
+		if ( dist > maxStep ) {
+			dx *= maxStep / dist;
+			dy *= maxStep / dist;
+		}
+		x[team][role] += dx;
+		y[team][role] += dy;
+		if ( dist > 0.1 )
+			dir[team][role] = Math.toDegrees( Math.atan2( dy, dx ) );
+	}
+}
@@ -0,0 +1,182 @@
+/* TeamBlackboard.java
+
+   Intentions of the players of one team, shared between their threads.
+
+*/
+
+package tos_teams.africa;
+
+import java.util.concurrent.atomic.*;
+import java.util.concurrent.locks.*;
+
+/**
+ * Both teams usually run in one application, so the teammates can tell
+ * each other what they are going to do without any messages.
+ * Each player owns one slot of the blackboard, and it is the only writer
+ * of this slot. In each cycle it publishes its current action, target
+ * point, intended pass receiver and its distance to the ball.
+ * The slots are read with optimistic StampedLock reads (a sequence lock),
+ * so reading the blackboard never blocks the player's cycle; a read that
+ * overlaps with a write is retried a few times and then given up.
+ */
+
+public class TeamBlackboard
+{
+	public static final int MAX_PLAYERS = 11;
+
+	// no intended receiver
+	public static final int NO_RECEIVER = -1;
+
+	// number of attempts to read a slot that is being written
+	private static final int READ_ATTEMPTS = 3;
+
+	// number of published intentions between the reports
+	private static final int REPORT_WRITES = MAX_PLAYERS * 2000;
+
+	private final char 		myside;
+	private final Slot[] 	slots = new Slot[MAX_PLAYERS];
+
+	// statistics
+	private final AtomicLong 	writes = new AtomicLong();
+	private final AtomicLong 	chases = new AtomicLong();
+	private final AtomicLong 	duplicateChases = new AtomicLong();
+	private final AtomicLong 	avoidedChases = new AtomicLong();
+
+
+	// the intention of one player as it is read from the blackboard
+	public static class Intent
+	{
+		public int 		time = -1;		// the cycle it was published in
+		public int 		action;			// WorldModel action code
+		public double 	targetX;
+		public double 	targetY;
+		public int 		receiver = NO_RECEIVER;		// the role of the pass receiver
+		public double 	distance2Ball;
+	}
+
+
+	private static class Slot
+	{
+		final StampedLock 	lock = new StampedLock();
+		int 				time = -1;
+		int 				action = WorldModel.NOACTION;
+		double 				targetX;
+		double 				targetY;
+		int 				receiver = NO_RECEIVER;
+		double 				distance2Ball;
+	}
+
+
+	public TeamBlackboard( char side )
+	{
+		myside = side;
+		for ( int i = 0; i < MAX_PLAYERS; i++ )
+			slots[i] = new Slot();
+	}
+
+
+	// this method publishes the intention of 'role' in cycle 'time';
+	// it must only be called by the player of this role
+	public void publish( int role, int time, int action,
+						 double targetX, double targetY,
+						 int receiver, double distance2Ball )
+	{
+		Slot slot = slots[role];
+		long stamp = slot.lock.writeLock();
+		slot.time 			= time;
+		slot.action 		= action;
+		slot.targetX 		= targetX;
+		slot.targetY 		= targetY;
+		slot.receiver 		= receiver;
+		slot.distance2Ball 	= distance2Ball;
+		slot.lock.unlockWrite( stamp );
+
+		if ( action == WorldModel.CHASE ) {
+			chases.incrementAndGet();
+			if ( countChasers( role, time ) > 0 )
+				duplicateChases.incrementAndGet();
+		}
+
+		if ( writes.incrementAndGet() % REPORT_WRITES == 0 )
+			report();
+	}
+
+
+	// this method copies the intention of 'role' into 'intent';
+	// returns false if the slot could not be read without waiting
+	public boolean read( int role, Intent intent )
+	{
+		Slot slot = slots[role];
+		for ( int attempt = 0; attempt < READ_ATTEMPTS; attempt++ ) {
+			long stamp = slot.lock.tryOptimisticRead();
+			int time 			= slot.time;
+			int action 			= slot.action;
+			double targetX 		= slot.targetX;
+			double targetY 		= slot.targetY;
+			int receiver 		= slot.receiver;
+			double distance 	= slot.distance2Ball;
+			if ( stamp != 0 && slot.lock.validate( stamp ) ) {
+				intent.time 			= time;
+				intent.action 			= action;
+				intent.targetX 			= targetX;
+				intent.targetY 			= targetY;
+				intent.receiver 		= receiver;
+				intent.distance2Ball 	= distance;
+				return true;
+			}
+		}
+		return false;
+	}
+
+
+	// this method returns true if a teammate closer to the ball than
+	// 'distance2Ball' is chasing it in cycle 'time'; the tie is resolved
+	// in favour of the smaller role; a chase of an earlier cycle does not
+	// count, as the teammate may have given it up to me since then
+	public boolean isChasedByTeammate( int role, int time, double distance2Ball,
+									   Intent scratch )
+	{
+		for ( int other = 0; other < MAX_PLAYERS; other++ ) {
+			if ( other == role || !read( other, scratch ) )
+				continue;
+			if ( scratch.action == WorldModel.CHASE && scratch.time == time
+					&& ( scratch.distance2Ball < distance2Ball
+						|| ( scratch.distance2Ball == distance2Ball && other < role ) ) )
+				return true;
+		}
+		return false;
+	}
+
+
+	// the player calls this when it gives up chasing because of a teammate
+	public void chaseAvoided()
+	{
+		avoidedChases.incrementAndGet();
+	}
+
+
+	// counts the teammates of 'role' that are chasing the ball in 'time'
+	private int countChasers( int role, int time )
+	{
+		int count = 0;
+		for ( int other = 0; other < MAX_PLAYERS; other++ ) {
+			Slot slot = slots[other];
+			if ( other == role )
+				continue;
+			long stamp = slot.lock.tryOptimisticRead();
+			boolean chasing = slot.action == WorldModel.CHASE && slot.time == time;
+			if ( stamp != 0 && slot.lock.validate( stamp ) && chasing )
+				count++;
+		}
+		return count;
+	}
+
+
+	private void report()
+	{
+		System.out.println( "\n@@@  blackboard " + myside
+				+ ": chases " + chases.getAndSet( 0 )
+				+ ", duplicate chases " + duplicateChases.getAndSet( 0 )
+				+ ", avoided chases " + avoidedChases.getAndSet( 0 ) );
+	}
+}
@@ -0,0 +1,250 @@
+/* TeamCoordinator.java
+
+   Plans the ball possession and the positions of all players of one
+   team once per cycle.
+
+*/
+
+package tos_teams.africa;
+
+import soccer.common.*;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.concurrent.locks.*;
+
+/**
+ * Without the coordinator, each player decides about the ball possession
+ * and its own destination independently, with its own random noise, so
+ * teammates may disagree. With the coordinator, the first player that
+ * receives the SEE packet of a new cycle computes the possession and the
+ * destinations of the whole team from its own world data, and publishes
+ * them; the teammates just read their destinations.
+ * The plan is published with an optimistic read lock, so the readers
+ * do not block once it is there. A player that finds the plan for the
+ * current cycle claimed but not published yet waits for it briefly
+ * (PLAN_WAIT_NANOS at most), and only then plans for itself. A player
+ * still on the previous cycle never claims it back, as its plan would
+ * replace the current one; it reads the previous plan, which is kept
+ * until the next one is published.
+ */
+
+public class TeamCoordinator
+{
+	private static final int MAX_ROLES = 11;
+
+	// a reader waits at most this long for the plan being made
+	private static final long PLAN_WAIT_NANOS = 1000000L;	// 1 ms
+
+	private final char 			myside;
+	private final TeamFormation	teamFormation;
+
+	// the formation the reference positions are calculated for
+	private Formation 			formation = null;
+	private PositionGrid 		positionGrid = null;	// may be null
+
+	// reference positions of each role
+	private final Vector2d[] 	homePos 	= new Vector2d[MAX_ROLES];
+	private final Vector2d[] 	offensePos 	= new Vector2d[MAX_ROLES];
+	private final Vector2d[] 	defensePos 	= new Vector2d[MAX_ROLES];
+
+	// the possession filter of the team; only used by the planning player
+	private final BallPossession 	possession;
+	private TuningParameters 		parameters = TuningParameters.DEFAULTS;
+
+	// the cycle the latest plan was claimed for
+	private final AtomicInteger 	claimedTime = new AtomicInteger( -1 );
+
+	// the published plans: the latest one, and the one before it for the
+	// players still on the previous cycle
+	private final StampedLock 	lock = new StampedLock();
+	private int 				latest = 0;			// the slot of the latest plan
+	private final int[] 		planTime = { -1, -1 };
+	private final int[] 		planPossession = { WorldModel.NEUTRAL_BALL,
+												   WorldModel.NEUTRAL_BALL };
+	private final double[][] 	destX = new double[2][MAX_ROLES];
+	private final double[][] 	destY = new double[2][MAX_ROLES];
+
+	// scratch variable of the planning player
+	private final Vector2d 		dest = new Vector2d();
+
+
+	public TeamCoordinator( char side, TeamFormation teamFormation )
+	{
+		this.myside = side;
+		this.teamFormation = teamFormation;
+		this.possession = new BallPossession( AgentRandom.forTeam( side ) );
+
+		for ( int role = 0; role < MAX_ROLES; role++ ) {
+			homePos[role] = new Vector2d();
+			offensePos[role] = new Vector2d();
+			defensePos[role] = new Vector2d();
+		}
+	}
+
+
+	// this method sets the tuning parameters of the team; it is called
+	// before the players start
+	public void setParameters( TuningParameters parameters )
+	{
+		this.parameters = parameters;
+		possession.setParameters( parameters );
+		formation = null;		// the positions are calculated again
+	}
+
+
+	// this method is called by every player after updating its world model
+	// with a SEE packet; only the first player in each cycle makes the plan
+	public void update( WorldModel world, Player nearestPlayerToBall,
+						double minPlayerDistance )
+	{
+		WorldData worldData = world.getWorldData();
+		int time = worldData.time;
+		for (;;) {
+			int claimed = claimedTime.get();
+			if ( claimed >= 0 && ServerTime.isStale( claimed, time ) )
+				return;		// a teammate is planning this or a newer cycle
+			if ( claimedTime.compareAndSet( claimed, time ) )
+				break;
+		}
+
+		// the planning of a slow teammate may still be running
+		long stamp = lock.writeLock();
+		try {
+			// a teammate on a newer cycle may have got the lock first
+			int newest = planTime[latest];
+			if ( newest >= 0 && ServerTime.isStale( newest, time ) )
+				return;
+			int slot = 1 - latest;
+
+			// the team may have switched its formation
+			if ( teamFormation.get() != formation ) {
+				formation = teamFormation.get();
+				positionGrid = PositionGrid.forFormation( formation, parameters );
+				for ( int role = 0; role < MAX_ROLES; role++ )
+					WorldModel.getFormationPositions( formation, role, parameters,
+											homePos[role], offensePos[role],
+											defensePos[role] );
+			}
+
+			int whoseBallIs = possession.update( worldData,
+												 world.getGameMode(),
+												 world.getSideToContinue(),
+												 myside,
+												 nearestPlayerToBall,
+												 minPlayerDistance );
+
+			Vector2d ballPos = worldData.getBall().position;
+
+			for ( int role = 0; role < MAX_ROLES; role++ ) {
+				if ( positionGrid != null ) {
+					positionGrid.lookup( role, whoseBallIs, ballPos, dest );
+				} else {
+					Vector2d refPsn = WorldModel.getReferencePos( whoseBallIs,
+							homePos[role], offensePos[role], defensePos[role] );
+					WorldModel.blendPosition( ballPos, refPsn,
+											  formation.isGoalie( role ),
+											  parameters.getPositionWeight(), dest );
+				}
+				destX[slot][role] = dest.getX();
+				destY[slot][role] = dest.getY();
+			}
+			planPossession[slot] = whoseBallIs;
+			planTime[slot] = time;
+			latest = slot;
+		} finally {
+			lock.unlockWrite( stamp );
+		}
+	}
+
+
+	// returns the ball possession planned for cycle 'time', or
+	// Integer.MIN_VALUE if there is no such plan yet
+	public int getBallPossession( int time )
+	{
+		long stamp = lock.tryOptimisticRead();
+		int slot = findSlot( time );
+		int p = ( slot >= 0 ) ? planPossession[slot] : 0;
+		if ( lock.validate( stamp ) ) {
+			if ( slot >= 0 )
+				return p;
+			if ( claimedTime.get() != time )
+				return Integer.MIN_VALUE;	// nobody is planning this cycle
+		}
+
+		stamp = awaitPlan( time );
+		if ( stamp == 0 )
+			return Integer.MIN_VALUE;
+		p = planPossession[ findSlot( time ) ];
+		lock.unlockRead( stamp );
+		return p;
+	}
+
+
+	// copies the destination of 'role' planned for cycle 'time' into 'pos';
+	// returns false if there is no such plan yet
+	public boolean getDestination( int time, int role, Vector2d pos )
+	{
+		long stamp = lock.tryOptimisticRead();
+		int slot = findSlot( time );
+		double x = ( slot >= 0 ) ? destX[slot][role] : 0;
+		double y = ( slot >= 0 ) ? destY[slot][role] : 0;
+		if ( !lock.validate( stamp ) || slot < 0 ) {
+			if ( lock.validate( stamp ) && claimedTime.get() != time )
+				return false;		// nobody is planning this cycle
+			stamp = awaitPlan( time );
+			if ( stamp == 0 )
+				return false;
+			slot = findSlot( time );
+			x = destX[slot][role];
+			y = destY[slot][role];
+			lock.unlockRead( stamp );
+		}
+		pos.setXY( x, y );
+		return true;
+	}
+
+
+	// returns the slot of the plan of cycle 'time', or -1 if there is none;
+	// the caller holds the lock or validates its optimistic read afterwards
+	private int findSlot( int time )
+	{
+		int slot = latest;
+		if ( planTime[slot] == time )
+			return slot;
+		if ( planTime[1 - slot] == time )
+			return 1 - slot;
+		return -1;
+	}
+
+
+	// this method waits for the plan of cycle 'time' while a teammate is
+	// making it; it returns the stamp of the read lock held on the plans
+	// (to be unlocked by the caller) once the plan is there, or 0 if it
+	// is not there in PLAN_WAIT_NANOS
+	private long awaitPlan( int time )
+	{
+		long deadline = System.nanoTime() + PLAN_WAIT_NANOS;
+		for (;;) {
+			long left = deadline - System.nanoTime();
+			if ( left <= 0 )
+				return 0;
+			long stamp;
+			try {
+				stamp = lock.tryReadLock( left, TimeUnit.NANOSECONDS );
+			} catch ( InterruptedException e ) {
+				return 0;
+			}
+			if ( stamp == 0 )
+				return 0;
+			if ( findSlot( time ) >= 0 )
+				return stamp;
+			lock.unlockRead( stamp );
+			// the teammate may have claimed the cycle but not locked the
+			// plans yet
+			if ( claimedTime.get() != time )
+				return 0;
+			Thread.onSpinWait();
+		}
+	}
+}
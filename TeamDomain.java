@@ -0,0 +1,226 @@
+/* TeamDomain.java
+
+   The scheduling domain of one team when both teams run in one application.
+
+*/
+
+package tos_teams.africa;
+
+import java.lang.management.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+
+/**
+ * When both teams are run by one application, their threads share the
+ * processors, and the team that plans more (say, with more pass
+ * directions) takes the processor time from the other one, which then
+ * misses its deadlines for no fault of its own. With the isolation on,
+ * each team gets a domain of its own:
+ *
+ *   - its own decision pool, with threads for its core budget only
+ *     (the budget less the one core of the ball holder itself);
+ *   - its own count of the players planning in each criticality tier,
+ *     so that the critical players of one team do not hold back the
+ *     players of the other one (see CriticalityScheduler);
+ *   - a CPU quota: the processor time of the team's players and pool
+ *     threads is charged to the domain, and once it has used up its
+ *     budget in the current period of PERIOD_NANOS, the domain is
+ *     throttled until the period ends. A throttled team does not use its
+ *     pool, and its players that are not critical reuse their previous
+ *     plans (as under the time pressure), so the team's own play suffers
+ *     from its cost rather than the other team's;
+ *   - its own statistics, printed for both teams every REPORT_NANOS:
+ *     the processor time used (in cores and as the share of both
+ *     teams), the periods throttled, and the deadline misses.
+ *
+ * The JVM cannot pin the threads to the cores, so the quota is enforced
+ * by the team itself, one cycle late at worst.
+ */
+
+public class TeamDomain
+{
+	// the quota is accounted in periods of this length
+	private static final long 	PERIOD_NANOS = 100000000L;	// 100 ms
+	// the reports are printed this often
+	private static final long 	REPORT_NANOS = 30000000000L;	// 30 s
+
+	private static final ThreadMXBean 	threads = ManagementFactory.getThreadMXBean();
+	private static final boolean 	cpuTimeSupported
+							= threads.isCurrentThreadCpuTimeSupported();
+
+	// all domains, for the report
+	private static final List<TeamDomain> 	domains = new ArrayList<TeamDomain>();
+	private static long 	lastReportNanos = System.nanoTime();
+
+	private final char 		side;
+	private final double 	coreBudget;			// 0 means no quota
+	private final int 		poolThreads;
+	private ForkJoinPool 	pool;
+
+	// players of each criticality tier currently planning
+	final AtomicIntegerArray 	planning
+							= new AtomicIntegerArray( CriticalityScheduler.NUM_OF_TIERS );
+
+	// the quota of the current period
+	private long 				periodStartNanos = System.nanoTime();
+	private long 				periodCpuNanos = 0;
+	private volatile boolean 	throttled = false;
+
+	// statistics since the last report
+	private long 				cpuNanos = 0;
+	private long 				periods = 0;
+	private long 				throttledPeriods = 0;
+	private final AtomicLong 	cycles = new AtomicLong();
+	private final AtomicLong 	missed = new AtomicLong();
+	private final AtomicLong 	reused = new AtomicLong();
+
+
+	// 'coreBudget' is the number of cores the team may use (0 for no quota)
+	public TeamDomain( char side, double coreBudget )
+	{
+		this.side = side;
+		this.coreBudget = coreBudget;
+		int cores = ( coreBudget > 0 ) ? (int)Math.floor( coreBudget )
+									   : Runtime.getRuntime().availableProcessors();
+		this.poolThreads = Math.max( 0, cores - 1 );
+		synchronized ( TeamDomain.class ) {
+			domains.add( this );
+		}
+	}
+
+
+	public char getSide()
+	{
+		return side;
+	}
+
+
+	public int getParallelism()
+	{
+		return poolThreads;
+	}
+
+
+	// returns the decision pool of the team, or null if it has no pool
+	// or is throttled
+	public synchronized ForkJoinPool getPool()
+	{
+		if ( poolThreads < 1 || throttled )
+			return null;
+
+		if ( pool == null ) {
+			ForkJoinPool.ForkJoinWorkerThreadFactory factory
+								= new ForkJoinPool.ForkJoinWorkerThreadFactory() {
+				public ForkJoinWorkerThread newThread( ForkJoinPool p )
+				{
+					ForkJoinWorkerThread thread = ForkJoinPool
+								.defaultForkJoinWorkerThreadFactory.newThread( p );
+					thread.setName( "DecisionPool-" + side + "-" + thread.getPoolIndex() );
+					thread.setPriority( Thread.NORM_PRIORITY + 1 );
+					return thread;
+				}
+			};
+			pool = new ForkJoinPool( poolThreads, factory, null, false );
+			System.out.println( "DecisionPool of team " + side + ": started "
+								+ poolThreads + " threads" );
+		}
+		return pool;
+	}
+
+
+	public boolean isThrottled()
+	{
+		return throttled;
+	}
+
+
+	// returns the processor time (ns) used by the calling thread so far
+	public static long getThreadCpuNanos()
+	{
+		if ( cpuTimeSupported )
+			return threads.getCurrentThreadCpuTime();
+		return System.nanoTime();
+	}
+
+
+	// this method charges the processor time 'nanos' used by a thread
+	// of the team to the quota and the statistics
+	public void charge( long nanos )
+	{
+		long now = System.nanoTime();
+		synchronized ( this ) {
+			if ( now - periodStartNanos >= PERIOD_NANOS ) {
+				long elapsed = ( now - periodStartNanos ) / PERIOD_NANOS;
+				periods += elapsed;
+				periodStartNanos += elapsed * PERIOD_NANOS;
+				periodCpuNanos = 0;
+				throttled = false;
+			}
+			periodCpuNanos += nanos;
+			cpuNanos += nanos;
+			if ( !throttled && coreBudget > 0
+					&& periodCpuNanos > coreBudget * PERIOD_NANOS ) {
+				throttled = true;
+				throttledPeriods++;
+			}
+		}
+		if ( now - lastReportNanos >= REPORT_NANOS )
+			report( now );
+	}
+
+
+	// this method is called by the player at the end of its cycle
+	// (see CriticalityScheduler.endCycle())
+	void cycleDone( boolean planReused, boolean deadlineMissed )
+	{
+		cycles.incrementAndGet();
+		if ( planReused )
+			reused.incrementAndGet();
+		if ( deadlineMissed )
+			missed.incrementAndGet();
+	}
+
+
+	// prints the statistics of all domains since the previous report
+	private static synchronized void report( long now )
+	{
+		if ( now - lastReportNanos < REPORT_NANOS )
+			return;		// another player has just printed it
+		double seconds = ( now - lastReportNanos ) / 1.0e9;
+		lastReportNanos = now;
+
+		long total = 0;
+		for ( TeamDomain domain : domains )
+			synchronized ( domain ) {
+				total += domain.cpuNanos;
+			}
+
+		StringBuffer sb = new StringBuffer( "\n@@@  team domains:" );
+		for ( TeamDomain domain : domains ) {
+			long cpu, periods, throttledPeriods;
+			synchronized ( domain ) {
+				cpu = domain.cpuNanos;
+				periods = Math.max( 1, domain.periods );
+				throttledPeriods = domain.throttledPeriods;
+				domain.cpuNanos = 0;
+				domain.periods = 0;
+				domain.throttledPeriods = 0;
+			}
+			long n = domain.cycles.getAndSet( 0 );
+			long m = domain.missed.getAndSet( 0 );
+			long r = domain.reused.getAndSet( 0 );
+			sb.append( "\n team " + domain.side + ": cpu "
+					+ ((int)( 100.0 * cpu / 1.0e9 / seconds ))/100.0 + " cores ("
+					+ ((int)( 1000.0 * cpu / Math.max( 1, total ) ))/10.0 + "% of the teams)"
+					+ ", budget " + ( domain.coreBudget > 0 ? "" + domain.coreBudget : "none" )
+					+ ", throttled " + ((int)( 1000.0 * throttledPeriods / periods ))/10.0
+					+ "% of the periods"
+					+ ", cycles " + n
+					+ ", reused plans " + r
+					+ ", deadline misses " + m
+					+ " (" + ((int)( 100000.0 * m / Math.max( 1, n ) ))/1000.0 + "%)" );
+		}
+		System.out.println( sb.toString() );
+	}
+}
@@ -0,0 +1,90 @@
+/* TeamFormation.java
+
+   The formation currently used by one team.
+
+*/
+
+package tos_teams.africa;
+
+import java.util.concurrent.atomic.*;
+
+/**
+ * All players of a team share one instance of this class. The current
+ * formation is an immutable object published through an atomic reference,
+ * so reading it takes no lock, and switching the formation of the whole
+ * team is one atomic swap that every player picks up in its next cycle.
+ *
+ * The formation can be switched by calling switchTo(), or automatically
+ * on the possession trend: if the opponents have been keeping the ball,
+ * the team switches to its defensive formation; if my team has, to its
+ * offensive one. The trend is reported by one player of the team.
+ */
+
+public class TeamFormation
+{
+	// weight of the exponential filter of the possession trend
+	private static final double TREND_WEIGHT = 0.002;
+
+	// the trend must exceed this to switch (-1 is always our ball,
+	// +1 is always their ball)
+	private static final double TREND_THRESHOLD = 0.3;
+
+	private final char 							myside;
+	private final AtomicReference<Formation> 	current;
+
+	// formations for the automatic switching (null disables it)
+	private Formation 		defensive = null;
+	private Formation 		offensive = null;
+
+	// only updated by the player reporting the trend
+	private double 			trend = 0;
+
+
+	public TeamFormation( char side, Formation initial )
+	{
+		myside = side;
+		current = new AtomicReference<Formation>( initial );
+	}
+
+
+	public Formation get()
+	{
+		return current.get();
+	}
+
+
+	// switches the whole team to 'formation' and returns the previous one
+	public Formation switchTo( Formation formation )
+	{
+		Formation previous = current.getAndSet( formation );
+		if ( previous != formation )
+			System.out.println( "Team " + myside + " switches formation "
+								+ previous.getName() + " -> " + formation.getName() );
+		return previous;
+	}
+
+
+	// sets the formations used when the possession trend is clear
+	public void setAutoSwitch( Formation defensive, Formation offensive )
+	{
+		this.defensive = defensive;
+		this.offensive = offensive;
+	}
+
+
+	// this method is called by one player of the team once per cycle
+	// with its ball possession decision (WorldModel.OUR_BALL, etc.)
+	public void reportPossession( int whoseBallIs )
+	{
+		if ( defensive == null || offensive == null )
+			return;
+
+		trend = TREND_WEIGHT * whoseBallIs + ( 1 - TREND_WEIGHT ) * trend;
+
+		Formation formation = current.get();
+		if ( trend > TREND_THRESHOLD && formation != defensive )
+			switchTo( defensive );
+		else if ( trend < -TREND_THRESHOLD && formation != offensive )
+			switchTo( offensive );
+	}
+}
@@ -0,0 +1,394 @@
+/* ThroughputBenchmark.java
+
+   Measures how many decision cycles per second the players can make.
+
+*/
+
+package tos_teams.africa;
+
+import soccer.common.*;
+
+import java.io.*;
+import java.lang.management.*;
+import java.util.*;
+
+/**
+ * This program runs the unchanged players (the same AIPlayer threads and
+ * settings as in a match) without the server: each player has its own
+ * in-memory transceiver that hands it the next SEE or REFEREE packet as
+ * soon as it asks for one. The packets are taken from a synthetic match
+ * (see SyntheticMatch), or from a recorded stream, and are fed again in
+ * a loop. The number of players is increased over the configurations,
+ * from one player to several matches, and for each configuration the
+ * program prints
+ *
+ *   - the cycles per second of all players together and of one player;
+ *   - the percentiles of the response time (from the packet handed to
+ *     the player to its first command in that cycle);
+ *   - the memory allocated by all threads, per cycle and per second.
+ *
+ * With the server running at 20 steps per second, each player needs
+ * 20 cycles per second, so the total rate divided by 20 is the number of
+ * players this computer could host if the network were free.
+ *
+ * USAGE: ThroughputBenchmark [-pf property_file] [-agents 1,2,4,11,22,44]
+ *                            [-warmup seconds] [-seconds seconds]
+ *                            [-steps steps] [-record packet_file]
+ *
+ * The property file is the one of the team (see Africa_Team); with the
+ * team_isolation property, the players of each side run in the domain of
+ * their team (see TeamDomain), which prints the CPU share of each. The packet
+ * file holds one packet per line as written by Packet.writePacket(); the
+ * positions of all players are taken from each SEE packet, so that every
+ * player of the recording can be fed its own view of the same stream.
+ */
+
+public class ThroughputBenchmark
+{
+	private static final int WARMING 	= 0;
+	private static final int MEASURING 	= 1;
+	private static final int STOPPED 	= 2;
+
+	// the response times kept per player (the latest ones)
+	private static final int SAMPLES = 1 << 15;
+
+	private static volatile int phase = WARMING;
+
+	// the scheduling domains of the left and the right players (null if
+	// the teams are not isolated)
+	private static TeamDomain[] domains = null;
+
+	private static int[] 	agentCounts = { 1, 2, 4, 8, 11, 22, 44 };
+	private static double 	warmupSeconds = 5;
+	private static double 	measureSeconds = 10;
+	private static int 		steps = 1200;			// one minute of the game
+	private static String 	recordFile = null;
+
+
+	/**
+	 * The packet stream of one player. It is run by the player thread.
+	 */
+	private static class AgentFeed extends Harness.LoopingFeed
+	{
+		private long 		deliveredNanos = 0;
+		private boolean 	measured = false;	// the current cycle is measured
+		private boolean 	answered = false;
+		private long 		cycles = 0;
+		private final long[] 	response = new long[ SAMPLES ];
+		private long 		responses = 0;
+
+
+		AgentFeed( List<Packet> stream )
+		{
+			super( stream );
+		}
+
+
+		public Packet next() throws IOException
+		{
+			long now = System.nanoTime();
+			if ( measured )
+				cycles++;
+
+			int current = phase;
+			if ( current == STOPPED )
+				throw stop( "the benchmark is over" );
+			measured = ( current == MEASURING );
+			deliveredNanos = now;
+			answered = false;
+			return nextPacket();
+		}
+
+
+		public void sent( Packet packet )
+		{
+			if ( answered )
+				return;
+			answered = true;
+			if ( measured ) {
+				response[ (int)( responses % SAMPLES ) ] = System.nanoTime() - deliveredNanos;
+				responses++;
+			}
+		}
+	}
+
+
+	public static void main( String argv[] ) throws Exception
+	{
+		Properties properties = new Properties();
+		try {
+			for ( int c = 0; c < argv.length; c += 2 ) {
+				if ( argv[c].equals( "-pf" ) )
+					properties.load( new FileInputStream( argv[c + 1] ) );
+				else if ( argv[c].equals( "-agents" ) ) {
+					StringTokenizer st = new StringTokenizer( argv[c + 1], "," );
+					agentCounts = new int[ st.countTokens() ];
+					for ( int i = 0; i < agentCounts.length; i++ )
+						agentCounts[i] = Integer.parseInt( st.nextToken() );
+				} else if ( argv[c].equals( "-warmup" ) )
+					warmupSeconds = Double.parseDouble( argv[c + 1] );
+				else if ( argv[c].equals( "-seconds" ) )
+					measureSeconds = Double.parseDouble( argv[c + 1] );
+				else if ( argv[c].equals( "-steps" ) )
+					steps = Integer.parseInt( argv[c + 1] );
+				else if ( argv[c].equals( "-record" ) )
+					recordFile = argv[c + 1];
+				else
+					throw new IllegalArgumentException( argv[c] );
+			}
+		} catch ( Exception e ) {
+			System.err.println( "USAGE: ThroughputBenchmark [-pf property_file] "
+						+ "[-agents 1,2,4,11,22,44] [-warmup seconds] [-seconds seconds] "
+						+ "[-steps steps] [-record packet_file]" );
+			return;
+		}
+
+		Africa_Team.setProperties( properties );
+		// (the domains live as long as the application, so all the
+		// configurations share them)
+		TeamDomain left = Africa_Team.createDomain( 'l' );
+		if ( left != null )
+			domains = new TeamDomain[] { left, Africa_Team.createDomain( 'r' ) };
+		Formation formation = Formation.load( properties.getProperty(
+					"formation_file", "formations.txt" ) ).get(
+					properties.getProperty( "left_formation", "343" ) );
+		SetPieceLibrary setPieces = null;
+		String setPieceFile = properties.getProperty( "setpiece_file", "setpieces.txt" );
+		if ( !setPieceFile.equals( "none" ) && new File( setPieceFile ).exists() )
+			setPieces = SetPieceLibrary.load( setPieceFile );
+
+		List<Packet> recorded = null;
+		if ( recordFile != null )
+			recorded = readRecord( recordFile );
+
+		String[] results = new String[ agentCounts.length ];
+		for ( int i = 0; i < agentCounts.length; i++ )
+			results[i] = run( agentCounts[i], formation, setPieces, recorded );
+
+		System.out.println();
+		System.out.println( "processors: " + Runtime.getRuntime().availableProcessors()
+							+ ", decision pool threads: " + DecisionPool.getParallelism()
+							+ ", stream: " + ( recordFile != null ? recordFile
+													: steps + " synthetic steps" ) );
+		System.out.println( "agents  cycles/s  per agent   p50 ms   p90 ms   p99 ms   "
+							+ "max ms  KB/cycle     MB/s" );
+		for ( int i = 0; i < results.length; i++ )
+			System.out.println( results[i] );
+		System.exit( 0 );
+	}
+
+
+	// this method runs one configuration and returns its line of the report
+	private static String run( int numOfAgents, Formation formation,
+							   SetPieceLibrary setPieces, List<Packet> recorded )
+							   throws IOException, InterruptedException
+	{
+		System.out.println( "\n ---  " + numOfAgents + " agents  ---\n" );
+
+		// the agents are taken alternately from both teams, the field
+		// players first; every 22 agents play their own match
+		int numOfMatches = ( numOfAgents + 21 ) / 22;
+		SyntheticMatch[] matches = new SyntheticMatch[ numOfMatches ];
+		TeamFormation[] formations = new TeamFormation[ 2 * numOfMatches ];
+		TeamBlackboard[] boards = new TeamBlackboard[ 2 * numOfMatches ];
+		for ( int m = 0; m < numOfMatches; m++ ) {
+			matches[m] = new SyntheticMatch( formation, formation.size(), m );
+			for ( int k = 0; k < 2; k++ ) {
+				char side = ( k == 0 ) ? 'l' : 'r';
+				formations[2*m + k] = new TeamFormation( side, formation );
+				boards[2*m + k] = new TeamBlackboard( side );
+			}
+		}
+
+		char[] sides = new char[ numOfAgents ];
+		int[] roles = new int[ numOfAgents ];
+		List<List<Packet>> streams = new ArrayList<List<Packet>>();
+		for ( int a = 0; a < numOfAgents; a++ ) {
+			int j = a % 22;
+			sides[a] = ( j % 2 == 0 ) ? 'l' : 'r';
+			roles[a] = ( j / 2 + 1 ) % formation.size();
+			streams.add( new ArrayList<Packet>() );
+		}
+
+		// every agent gets its own view of the same packets
+		if ( recorded != null ) {
+			for ( int a = 0; a < numOfAgents; a++ )
+				for ( Packet packet : recorded )
+					streams.get( a ).add( viewOf( packet, sides[a], roles[a] + 1 ) );
+		} else {
+			for ( int s = 0; s < steps; s++ ) {
+				for ( int a = 0; a < numOfAgents; a++ ) {
+					SeeData see = matches[ a / 22 ].see( s % 1000, sides[a], roles[a] + 1 );
+					streams.get( a ).add( new Packet( Packet.SEE, see, null, 0 ) );
+					// (the player must have seen the world before planning)
+					Packet referee = SyntheticMatch.playOnAt( s );
+					if ( referee != null )
+						streams.get( a ).add( referee );
+				}
+				for ( int m = 0; m < numOfMatches; m++ )
+					matches[m].step();
+			}
+		}
+
+		AIPlayer[] players = new AIPlayer[ numOfAgents ];
+		AgentFeed[] feeds = new AgentFeed[ numOfAgents ];
+		for ( int a = 0; a < numOfAgents; a++ ) {
+			int team = 2 * ( a / 22 ) + ( sides[a] == 'l' ? 0 : 1 );
+			feeds[a] = new AgentFeed( streams.get( a ) );
+			players[a] = Harness.createPlayer( feeds[a], sides[a], roles[a], formation,
+							formations[team], boards[team], null, setPieces );
+			if ( domains != null )
+				players[a].setDomain( domains[ sides[a] == 'l' ? 0 : 1 ] );
+		}
+		streams = null;
+		System.gc();
+
+		phase = WARMING;
+		for ( int a = 0; a < numOfAgents; a++ )
+			players[a].start();
+		Thread.sleep( (long)( warmupSeconds * 1000 ) );
+
+		Map<Long, Long> allocatedBefore = getAllocatedBytes();
+		long start = System.nanoTime();
+		phase = MEASURING;
+		Thread.sleep( (long)( measureSeconds * 1000 ) );
+		phase = STOPPED;
+		long elapsed = System.nanoTime() - start;
+		Map<Long, Long> allocatedAfter = getAllocatedBytes();
+
+		for ( int a = 0; a < numOfAgents; a++ )
+			players[a].join( 5000 );
+
+		// the totals of all players
+		long cycles = 0;
+		int numOfSamples = 0;
+		for ( int a = 0; a < numOfAgents; a++ ) {
+			cycles += feeds[a].cycles;
+			numOfSamples += (int)Math.min( feeds[a].responses, SAMPLES );
+		}
+		long[] samples = new long[ numOfSamples ];
+		int n = 0;
+		for ( int a = 0; a < numOfAgents; a++ ) {
+			int k = (int)Math.min( feeds[a].responses, SAMPLES );
+			System.arraycopy( feeds[a].response, 0, samples, n, k );
+			n += k;
+		}
+		Arrays.sort( samples );
+
+		double seconds = elapsed / 1e9;
+		long allocated = -1;
+		if ( allocatedBefore != null && allocatedAfter != null ) {
+			allocated = 0;
+			for ( Map.Entry<Long, Long> entry : allocatedAfter.entrySet() ) {
+				Long before = allocatedBefore.get( entry.getKey() );
+				allocated += entry.getValue() - ( before != null ? before : 0 );
+			}
+		}
+
+		return String.format( Locale.US, "%6d %9.0f %10.0f %8.3f %8.3f %8.3f %8.3f %9s %8s",
+					numOfAgents, cycles / seconds, cycles / seconds / numOfAgents,
+					percentile( samples, 0.50 ), percentile( samples, 0.90 ),
+					percentile( samples, 0.99 ), percentile( samples, 1.0 ),
+					allocated < 0 ? "n/a" : String.format( Locale.US, "%.2f",
+										allocated / 1024.0 / Math.max( cycles, 1 ) ),
+					allocated < 0 ? "n/a" : String.format( Locale.US, "%.1f",
+										allocated / 1048576.0 / seconds ) );
+	}
+
+
+	// returns the time (ms) of the fraction 'p' of the sorted samples (ns);
+	// the other harnesses report their percentiles with it too
+	static double percentile( long[] samples, double p )
+	{
+		if ( samples.length == 0 )
+			return 0;
+		int i = (int)Math.ceil( p * samples.length ) - 1;
+		return samples[ Math.max( i, 0 ) ] / 1e6;
+	}
+
+
+	// this method returns the bytes allocated so far by each live thread,
+	// or null if the JVM does not count them
+	private static Map<Long, Long> getAllocatedBytes()
+	{
+		ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if ( !( bean instanceof com.sun.management.ThreadMXBean ) )
+			return null;
+		com.sun.management.ThreadMXBean sunBean = (com.sun.management.ThreadMXBean)bean;
+		if ( !sunBean.isThreadAllocatedMemorySupported()
+				|| !sunBean.isThreadAllocatedMemoryEnabled() )
+			return null;
+
+		long[] ids = sunBean.getAllThreadIds();
+		long[] bytes = sunBean.getThreadAllocatedBytes( ids );
+		Map<Long, Long> allocated = new HashMap<Long, Long>();
+		for ( int i = 0; i < ids.length; i++ )
+			if ( bytes[i] >= 0 )
+				allocated.put( ids[i], bytes[i] );
+		return allocated;
+	}
+
+
+	// this method reads the packets recorded one per line
+	// (the lines starting with '#' are comments)
+	static List<Packet> readRecord( String fileName ) throws IOException
+	{
+		List<Packet> packets = new ArrayList<Packet>();
+		BufferedReader reader = new BufferedReader( new FileReader( fileName ) );
+		try {
+			String line;
+			while ( ( line = reader.readLine() ) != null ) {
+				if ( line.trim().length() == 0 || line.startsWith( "#" ) )
+					continue;
+				Packet packet = new Packet();
+				packet.readPacket( line );
+				if ( packet.packetType == Packet.SEE
+						|| packet.packetType == Packet.REFEREE )
+					packets.add( packet );
+			}
+		} finally {
+			reader.close();
+		}
+		if ( packets.isEmpty() )
+			throw new IOException( fileName + ": no SEE or REFEREE packets" );
+		System.out.println( "Read " + packets.size() + " packets from " + fileName );
+		return packets;
+	}
+
+
+	// this method returns the recorded packet as received by player 'id'
+	// of team 'side' (the referee packets are the same for all)
+	static Packet viewOf( Packet packet, char side, int id ) throws IOException
+	{
+		if ( packet.packetType != Packet.SEE )
+			return packet;
+
+		SeeData recorded = (SeeData)packet.data;
+		List<Player> all = new ArrayList<Player>();
+		all.add( recorded.player );
+		for ( int i = 0; i < recorded.leftTeam.size(); i++ )
+			all.add( (Player)recorded.leftTeam.elementAt( i ) );
+		for ( int i = 0; i < recorded.rightTeam.size(); i++ )
+			all.add( (Player)recorded.rightTeam.elementAt( i ) );
+
+		Player myself = null;
+		Vector<Player> left = new Vector<Player>();
+		Vector<Player> right = new Vector<Player>();
+		for ( Player player : all ) {
+			if ( player.side == side && player.id == id )
+				myself = player;
+			else if ( player.side == 'l' )
+				left.addElement( player );
+			else
+				right.addElement( player );
+		}
+		if ( myself == null )
+			throw new IOException( "player " + id + "-" + side + " is not in the record" );
+
+		// the offside status was that of the recording player
+		int status = ( myself == recorded.player ) ? recorded.status : SeeData.NO_OFFSIDE;
+		return new Packet( Packet.SEE,
+						   new SeeData( recorded.time, myself, status,
+										recorded.ball, left, right ), null, 0 );
+	}
+}
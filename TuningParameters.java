@@ -0,0 +1,245 @@
+/* TuningParameters.java
+
+   The tuning constants of the decision making of a team.
+
+*/
+
+package tos_teams.africa;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * The numbers the decision making has always been tuned by hand with:
+ *
+ *   ball_poss_weight, ball_poss_threshold   the possession filter (BallPossession)
+ *   position_weight        how far the players follow the ball (WorldModel.blendPosition())
+ *   <line>_delta_x_def/off the shift of the defensive and offensive positions of
+ *                          the defenders, midfielders and attackers from the home position
+ *   clearance_threshold    the opponents value of a pass lane clear enough for passing
+ *   max_pass_risk          the highest risk of a pass still taken
+ *   out_of_field_risk      the risk added to the passes out of the field
+ *   dribble_radius         no opponent may be this near to me for dribbling
+ *   shoot_distance         I shoot from this near to the opponent goal
+ *
+ * Each team has its own set, so two sets can play against each other in
+ * the same application (see SelfPlayTuner). A set is read from a property
+ * file with the names above; the missing names keep the default values,
+ * which are the ones the team has always played with. The sets are
+ * immutable and shared by all players of a team.
+ */
+
+public class TuningParameters
+{
+	public static final int 	BALL_POSS_WEIGHT 		= 0;
+	public static final int 	BALL_POSS_THRESHOLD 	= 1;
+	public static final int 	POSITION_WEIGHT 		= 2;
+	public static final int 	DEFENDER_DELTA_X_DEF 	= 3;
+	public static final int 	DEFENDER_DELTA_X_OFF 	= 4;
+	public static final int 	MIDFIELDER_DELTA_X_DEF 	= 5;
+	public static final int 	MIDFIELDER_DELTA_X_OFF 	= 6;
+	public static final int 	ATTACKER_DELTA_X_DEF 	= 7;
+	public static final int 	ATTACKER_DELTA_X_OFF 	= 8;
+	public static final int 	CLEARANCE_THRESHOLD 	= 9;
+	public static final int 	MAX_PASS_RISK 			= 10;
+	public static final int 	OUT_OF_FIELD_RISK 		= 11;
+	public static final int 	DRIBBLE_RADIUS 			= 12;
+	public static final int 	SHOOT_DISTANCE 			= 13;
+
+	public static final int 	SIZE = 14;
+
+	private static final String[] NAMES = {
+				"ball_poss_weight", "ball_poss_threshold", "position_weight",
+				"defender_delta_x_def", "defender_delta_x_off",
+				"midfielder_delta_x_def", "midfielder_delta_x_off",
+				"attacker_delta_x_def", "attacker_delta_x_off",
+				"clearance_threshold", "max_pass_risk", "out_of_field_risk",
+				"dribble_radius", "shoot_distance" };
+
+	private static final double[] DEFAULT_VALUES = {
+				0.15, 0.7, 0.30,
+				20, 20,
+				15, 30,
+				15, 40,
+				1900, 250, 55500,
+				5.0, 20.0 };
+
+	// the ranges the tuning searches in
+	private static final double[] MIN_VALUES = {
+				0.02, 0.2, 0.05,
+				0, 0,
+				0, 0,
+				0, 0,
+				1000, -250, 0,
+				1.0, 8.0 };
+	private static final double[] MAX_VALUES = {
+				0.6, 1.5, 0.6,
+				35, 35,
+				35, 45,
+				35, 50,
+				3500, 1000, 100000,
+				12.0, 35.0 };
+
+	public static final TuningParameters DEFAULTS = new TuningParameters( DEFAULT_VALUES );
+
+	private final double[] 	values;
+
+
+	// 'values' are in the order of the constants above
+	public TuningParameters( double[] values )
+	{
+		if ( values.length != SIZE )
+			throw new IllegalArgumentException( "expected " + SIZE + " values" );
+		this.values = values.clone();
+	}
+
+
+	// this method loads a parameter set from a property file
+	public static TuningParameters load( String fileName ) throws IOException
+	{
+		Properties properties = new Properties();
+		InputStream in = new FileInputStream( fileName );
+		try {
+			properties.load( in );
+		} finally {
+			in.close();
+		}
+
+		double[] values = DEFAULT_VALUES.clone();
+		for ( int i = 0; i < SIZE; i++ ) {
+			String value = properties.getProperty( NAMES[i] );
+			if ( value != null ) {
+				try {
+					values[i] = Double.parseDouble( value.trim() );
+				} catch ( NumberFormatException e ) {
+					throw new IOException( fileName + ": bad " + NAMES[i] + " " + value );
+				}
+			}
+		}
+		return new TuningParameters( values );
+	}
+
+
+	// this method stores the set in a property file that load() reads
+	public void save( String fileName, String comment ) throws IOException
+	{
+		PrintWriter out = new PrintWriter( new FileWriter( fileName ) );
+		try {
+			if ( comment != null )
+				out.println( "# " + comment );
+			for ( int i = 0; i < SIZE; i++ )
+				out.println( NAMES[i] + " = " + values[i] );
+		} finally {
+			out.close();
+		}
+	}
+
+
+	public static String getName( int i )
+	{
+		return NAMES[i];
+	}
+
+	public static double getMin( int i )
+	{
+		return MIN_VALUES[i];
+	}
+
+	public static double getMax( int i )
+	{
+		return MAX_VALUES[i];
+	}
+
+	public double get( int i )
+	{
+		return values[i];
+	}
+
+	public double[] toArray()
+	{
+		return values.clone();
+	}
+
+
+	public double getBallPossWeight()
+	{
+		return values[BALL_POSS_WEIGHT];
+	}
+
+	public double getBallPossThreshold()
+	{
+		return values[BALL_POSS_THRESHOLD];
+	}
+
+	public double getPositionWeight()
+	{
+		return values[POSITION_WEIGHT];
+	}
+
+	public double getDefenderDeltaXdef()
+	{
+		return values[DEFENDER_DELTA_X_DEF];
+	}
+
+	public double getDefenderDeltaXoff()
+	{
+		return values[DEFENDER_DELTA_X_OFF];
+	}
+
+	public double getMidfielderDeltaXdef()
+	{
+		return values[MIDFIELDER_DELTA_X_DEF];
+	}
+
+	public double getMidfielderDeltaXoff()
+	{
+		return values[MIDFIELDER_DELTA_X_OFF];
+	}
+
+	public double getAttackerDeltaXdef()
+	{
+		return values[ATTACKER_DELTA_X_DEF];
+	}
+
+	public double getAttackerDeltaXoff()
+	{
+		return values[ATTACKER_DELTA_X_OFF];
+	}
+
+	public double getClearanceThreshold()
+	{
+		return values[CLEARANCE_THRESHOLD];
+	}
+
+	public double getMaxPassRisk()
+	{
+		return values[MAX_PASS_RISK];
+	}
+
+	public double getOutOfFieldRisk()
+	{
+		return values[OUT_OF_FIELD_RISK];
+	}
+
+	public double getDribbleRadius()
+	{
+		return values[DRIBBLE_RADIUS];
+	}
+
+	public double getShootDistance()
+	{
+		return values[SHOOT_DISTANCE];
+	}
+
+
+	public String toString()
+	{
+		StringBuilder sb = new StringBuilder();
+		for ( int i = 0; i < SIZE; i++ ) {
+			if ( i > 0 )
+				sb.append( ", " );
+			sb.append( NAMES[i] ).append( '=' ).append( (float)values[i] );
+		}
+		return sb.toString();
+	}
+}
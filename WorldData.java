@@ -19,6 +19,8 @@ import java.io.*;
  * the appropriate transformation of coordianates is made. 
  * Some public members of the parent class have been reassigned  
  * self-explanatory names.
+ * Each player keeps one copy and refills it with every SEE packet
+ * (see update()), so the copies are not garbage in the steady state.
  */
  
 public class WorldData extends SeeData
@@ -34,6 +36,10 @@ public class WorldData extends SeeData
 	
 	private Ball ball;	// overrides the ball in the parent class
 	
+	// the player objects reused by update() 
+	private Player[] myPlayers = new Player[0];
+	private Player[] theirPlayers = new Player[0];
+	
 	// the side on which my team is actually playing 
 	private char myside;	
 	private Transceiver transceiver;
@@ -41,26 +47,50 @@ public class WorldData extends SeeData
 	
 	public WorldData( SeeData sd, char side, Transceiver tr )
 	{
-		super(sd.time, sd.player, sd.status, sd.ball, 
-							sd.leftTeam, sd.rightTeam);
+		this( side, tr );
+		update( sd );
+	} 
+	
+	
+	// this constructor makes an empty copy, to be filled by update()
+	public WorldData( char side, Transceiver tr )
+	{
+		super( 0, null, SeeData.NO_OFFSIDE, null, null, null );
 		myside = side; 
 		transceiver = tr;
+	}
+	
+	
+	// this method makes me the copy of 'sd'; the ball and player objects 
+	// of the previous copy are reused, so once the teams have been seen
+	// in full, nothing is allocated here. 
+	// (nobody keeps them beyond the cycle, as they change with every SEE)
+	public void update( SeeData sd )
+	{
+		time = sd.time;
+		player = sd.player;
+		status = sd.status;
+		super.ball = sd.ball;
+		leftTeam = sd.leftTeam;
+		rightTeam = sd.rightTeam;
 		transformCoodinates(); 
-	} 
+	}
 	
 	
 	// this method copies the coordianates of the ball and teams into 
-	// new data objects as perceived by me if I were playing on the left side
+	// the data objects as perceived by me if I were playing on the left side
 	
 	private void transformCoodinates()
 	{
-		// create a copy of the ball data
-		this.ball =  new Ball(
-						getRealPos( myside, super.ball.position ), 
-						super.ball.controllerType, 
-						super.ball.controllerId ); 
+		// copy the ball data
+		if ( ball == null )
+			ball = new Ball( new Vector2d(), super.ball.controllerType, 
+							 super.ball.controllerId );
+		setRealPos( myside, super.ball.position, ball.position );
+		ball.controllerType = super.ball.controllerType;
+		ball.controllerId = super.ball.controllerId;
 		
-		// create a copy of the own team
+		// copy the own team
 		Vector team1;
 		if ( myside == 'l' )
 			team1 = leftTeam;
@@ -71,36 +101,21 @@ public class WorldData extends SeeData
 				//+ " leftTeam.size() = " + leftTeam.size() 
 				//+ " rightTeam.size() = " + rightTeam.size() );
 
-		myTeam = new Vector<Player>();
-		for ( int i = 0; i < team1.size(); i++ ) {
-			Player plr = (Player)team1.elementAt( i );
-			Vector2d pos = new Vector2d( getRealPos( myside, plr.position ) ); 
-			double dir = getRealDir( myside, plr.direction );
-			Player teammate = new Player(plr.side, plr.id, pos, dir ); 
-			myTeam.addElement( teammate );	
-		}
+		myPlayers = copyTeam( team1, myTeam, myPlayers );
 
-		// create a copy of the opponent team
+		// copy the opponent team
 		Vector team2;
 		if ( myside == 'r' )
 			team2 = leftTeam;
 		else 
 			team2 = rightTeam;
 		
-		theirTeam = new Vector<Player>();
-		for ( int i = 0; i < team2.size(); i++ ) {
-			Player plr = (Player)team2.elementAt( i );
-			Vector2d pos = new Vector2d( getRealPos( myside, plr.position ) ); 
-			double dir = getRealDir( myside, plr.direction );
-			Player opponent = new Player(plr.side, plr.id, pos, dir ); 
-			theirTeam.addElement( opponent );	
-		}
+		theirPlayers = copyTeam( team2, theirTeam, theirPlayers );
 
-		Vector2d mypos = new Vector2d( getRealPos( myside, 
-											super.player.position ) ); 
-		double mydir = getRealDir( myside, super.player.direction );
-		me = new Player(super.player.side, 
-							super.player.id, mypos, mydir ); 
+		if ( me == null )
+			me = new Player( super.player.side, super.player.id, 
+							 new Vector2d(), 0 );
+		copyPlayer( super.player, me );
 		myTeam.addElement( me );	// I add myself, as the server skips me
 		
 		//System.out.println(me.id + "-" + myside + " myTeam.size() = " + myTeam.size() );
@@ -108,6 +123,48 @@ public class WorldData extends SeeData
 	}
 	
 	
+	// this method copies the players of 'team' into 'copy', reusing the 
+	// player objects in 'pool'; it returns the pool, grown if necessary 
+	private Player[] copyTeam( Vector<?> team, Vector<Player> copy, Player[] pool )
+	{
+		if ( pool.length < team.size() ) {
+			Player[] grown = new Player[ team.size() ];
+			System.arraycopy( pool, 0, grown, 0, pool.length );
+			pool = grown;
+		}
+		
+		copy.removeAllElements();
+		for ( int i = 0; i < team.size(); i++ ) {
+			Player plr = (Player)team.elementAt( i );
+			if ( pool[i] == null )
+				pool[i] = new Player( plr.side, plr.id, new Vector2d(), 0 );
+			copyPlayer( plr, pool[i] );
+			copy.addElement( pool[i] );	
+		}
+		return pool;
+	}
+	
+	
+	private void copyPlayer( Player plr, Player copy )
+	{
+		copy.side = plr.side;
+		copy.id = plr.id;
+		setRealPos( myside, plr.position, copy.position );
+		copy.direction = getRealDir( myside, plr.direction );
+	}
+	
+	
+	// stores the inverted position 'pos' in 'result' 
+	public static void setRealPos( char side, Vector2d pos, Vector2d result )
+	{
+		if ( side == 'l' )
+			result.setXY( pos );
+		else 
+			// invert  coordiantes
+			result.setXY( -pos.getX(), -pos.getY() );
+	}
+	
+	
 	// returns inverted position 
 	public static Vector2d getRealPos( char side, Vector2d pos )
 	{
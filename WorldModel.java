@@ -67,6 +67,10 @@ public class WorldModel
 	public static final int MOVEWBALL  = 8;		// move with the grabed the ball (for goalie)
 	public static final int TELEPORT   = 9;		// teleport myself in home position
 	public static final int TURN	   = 10;	// turn to 'facingPos'
+
+	private static final String[] ACTION_NAMES = { "NOACTION", "SHOOT", "MOVE", 
+			"PASS", "CHASE", "UNSTUCK", "OFFSIDE", "GRAB", "MOVEWBALL", 
+			"TELEPORT", "TURN" };
 	
 	// Once the player makes up his mind to do an action, the action will
 	// be carried out for next INERTIA steps. So this means, the client
@@ -140,7 +144,11 @@ public class WorldModel
 	
 	private WorldData    aWorldData; 		// the visual info about the world
 	private Transceiver transceiver;
-	private Formation 	aFormation; 
+	private TeamFormation	teamFormation; 	// shared by my team
+	private Formation 	aFormation; 		// the formation I am playing in
+	private PositionGrid	positionGrid;	// my target positions (may be null)
+	private SetPieceLibrary	setPieces;		// my positions in set pieces (may be null)
+	private TuningParameters	parameters = TuningParameters.DEFAULTS;	// of my team
 	
 	// game state info as perceived by the player 
 	private int 		gameMode = 0;	  
@@ -149,14 +157,21 @@ public class WorldModel
 
 	// variables used for deciding about ball possession
 	private int 		whoseBallIs = NEUTRAL_BALL; 
-	private double 		ballPossWeight = 0.15; 	// ball possession weight for smoothening possession indicator
-	private double 		ballPossIndicator = 0;  // ball possession indicator
-	private double 		ballPossThreshold = 0.7;  // decisionmaking threshold for ball possession 
+	private BallPossession	ballPossession; 
+	
+	// if set, my team's possession and positions are planned by it 
+	private TeamCoordinator	coordinator = null; 
 
 	// variables used to store ball position at previous step,
 	// needed for calculating ball velocity.
 	private Vector2d 	ballPosition =  new Vector2d(); 
 	private Vector2d 	ballVelocity = new Vector2d();
+	
+	// the recent motion of the ball and all players
+	private MotionTracker	motionTracker = new MotionTracker();
+	
+	// the ball and myself extrapolated from the latest visual update 
+	private WorldPredictor	predictor = new WorldPredictor();
 
 	// other ball state attributes
 	private boolean 	isBallKickable = false;	
@@ -177,9 +192,9 @@ public class WorldModel
 	private int 		playerNumber = 0;	
 	private int 		playerTeamID = 0;	
 	
-	private Vector2d 	offensePos;		// my position in defense
-	private Vector2d 	defensePos;		// my position in defense
-	private Vector2d 	homePos; 		// my home position 	
+	private Vector2d 	offensePos = new Vector2d();	// my position in offense
+	private Vector2d 	defensePos = new Vector2d();	// my position in defense
+	private Vector2d 	homePos = new Vector2d(); 		// my home position 	
 
 	
 	// used to store my position at previous step,
@@ -204,6 +219,7 @@ public class WorldModel
 	private boolean 	myTeamIsOffside = false;
 	
 	private int			offsideSteps = 0; 	 // step counter to keep moving from offside
+	private OffsideLine	offsideLine = new OffsideLine(); 	// of the opponent team
 	private int 		kickOffTime = 0;	 // time elapsed after last kickoff
 	
 	private Vector2d 	oppGoal;		// opponent goal center
@@ -215,6 +231,8 @@ public class WorldModel
 		this.transceiver = transceiver;
 		this.myside = side;
 		this.role = role;
+		this.ballPossession = new BallPossession( 
+									AgentRandom.forPlayer( side, role, 0 ) );
 	
 		oppGoal = new Vector2d(WorldModel.LENGTH/2, 0);
 		ownGoal = new Vector2d(-WorldModel.LENGTH/2, 0);
@@ -263,9 +281,21 @@ public class WorldModel
 
 			SeeData aSeeData = (SeeData)receivedPacket.data;
 			
+			// a packet older than the ones I have already seen is of no use
+			if ( !predictor.isNewer( aSeeData.time ) )
+				return;
+			
+			// my team may have switched the formation
+			if ( teamFormation.get() != aFormation )
+				setDefaultFormationParams();
+			
 			// convert coordinates so that I was perceiving everything 
 			// like my team is playing on the left-hand side
-			aWorldData = new WorldData( aSeeData, myside, transceiver ); 
+			if ( aWorldData == null )
+				aWorldData = new WorldData( myside, transceiver ); 
+			aWorldData.update( aSeeData );
+			motionTracker.update( aWorldData );
+			predictor.correct( aWorldData );
 			
 			//System.out.println( aWorldData.getMyself().id + "-" + myside
 						//+ " aWorldData.getMyTeam().size()=" + aWorldData.getMyTeam().size()  
@@ -277,9 +307,13 @@ public class WorldModel
 			
 			// check for Offside (this info may be in received SEE packet)
 			checkOffsideState();
+			offsideLine.update( aWorldData );
 			
 			determineNearestPlayerToBall();
 			
+			if ( coordinator != null )
+				coordinator.update( this, nearestPlayerToBall, minPlayerDistance );
+			
 			// am I nearest to ball?
 			iAmNearestToBall 
 					= nearestPlayerToBall.equals( aWorldData.getMyself() );
@@ -298,14 +332,17 @@ public class WorldModel
 			// check for defense/attack situation
 			determineBallPossession();
 			
-			// estimate ball velocity
-			Vector2d.subtract(aWorldData.getBall().position, 
-											ballPosition, ballVelocity);
+			// the goalie reports the possession trend of my team
+			if ( amIGoalie() )
+				teamFormation.reportPossession( whoseBallIs );
+			
+			// estimate ball velocity (scaled by the steps since the 
+			// previous packet, in case some were lost)
+			predictor.getBallVelocity( ballVelocity );
 			ballPosition.setXY(aWorldData.getBall().position);      
 			
 			// estimate my own velocity
-			Vector2d.subtract(aWorldData.getMyself().position, 
-											prePosition, myVelocity);
+			predictor.getMyVelocity( myVelocity );
 			prePosition.setXY(aWorldData.getMyself().position);
 		}
 	
@@ -359,76 +396,25 @@ public class WorldModel
 	// This method decides which team possesses the ball based on 
 	// class variable 'nearestPlayerToBall'; it assigns class
 	// variable 'whoseBallIs'. 
-	// Decisioins made in several cycles are smoothed using  
-	// exponential filtering
+	// If the team coordinator has already decided in this cycle, 
+	// I just take its decision; this keeps my team consistent.
 	private void determineBallPossession()
 	{
-		if ( gameMode == RefereeData.PLAY_ON ) {
-			
-			// make ball possession decision in current cycle
-			double delta = 0;	
-			if ( minPlayerDistance < 10.0 ) {		// magic number
-				// find out if it's the offensive or defensive state of the game 
-				if( nearestPlayerToBall.side == myside ) 
-					delta = -1;		// 'our' ball
-				else 
-					delta =  1;		// 'their ball	
-			
-			} else {
-				ballPossIndicator = 0;	
-				delta = 0; 		// neutral
-			}
-					
-			// do exponential filtering of -1, 0, +1 'delta' sequence over time.
-			// if ballPossWeight=1, no filtering is done;
-			// if ballPossWeight=0, value from the previous step is just reused
-			
-			ballPossIndicator = ballPossWeight*delta 
-						+ ( 1 - ballPossWeight )*ballPossIndicator; 		
-			
-			// *** this randomness is inroduced only for better-looking demo;
-			// *** remove it for using this program for serious purposes 
-			ballPossIndicator = ballPossIndicator 
-								* ( 1.0 + 0.85 * ( Math.random() - 0.5 ) );
-			
-			whoseBallIs = NEUTRAL_BALL;
-	
-			// make the decision about ball possession
-			if( ballPossIndicator < -ballPossThreshold ) 
-				whoseBallIs = OUR_BALL;		
-			else if( ballPossIndicator > ballPossThreshold )
-				whoseBallIs =  THEIR_BALL;		
-			else 
-				whoseBallIs = NEUTRAL_BALL; 	
-	
-			// limit the indicator growth 
-			if( ballPossIndicator < -2.0 ) 
-				ballPossIndicator = -2.0;
-				
-			if( ballPossIndicator > 2.0 ) 
-				ballPossIndicator = 2.0;
-				
-			// if ball is grabbed, override all above
-			if ( aWorldData.getBall().isGrabbed ) {
-				if ( aWorldData.getBall().controllerType == myside ) {
-					whoseBallIs = OUR_BALL;		// grabbed by own goalie (including myself)
-					ballPossIndicator = -2.0;
-				} else {
-					whoseBallIs = THEIR_BALL;		// grabbed by opponent goalie
-					ballPossIndicator = 2.0;
-				}
-			}
-		} else {
-			// ball possession when game is interrupted by referee
-			if ( sideToContinue == aWorldData.getMyself().side ) { 
-				ballPossIndicator = -2.0;
-				whoseBallIs = OUR_BALL;
-			} else {
-				ballPossIndicator = 2.0;
-				whoseBallIs = THEIR_BALL;
+		if ( coordinator != null ) {
+			int teamPossession = coordinator.getBallPossession( aWorldData.time );
+			if ( teamPossession != Integer.MIN_VALUE ) {
+				whoseBallIs = teamPossession;
+				return;
 			}
 		}
 		
+		whoseBallIs = ballPossession.update( aWorldData, 
+											 gameMode, 
+											 sideToContinue, 
+											 myside, 
+											 nearestPlayerToBall, 
+											 minPlayerDistance );
+		
 	} // determineBallPossession
 	
 
@@ -545,6 +531,10 @@ public class WorldModel
 				// (3) attackers and defenders should be using different tactics
 				
 				determinePlayerPos(); 
+				
+				// I am not waiting for a pass in the offside position
+				if ( destination.getX() > offsideLine.getSafeX() )
+					destination.setX( offsideLine.getSafeX() );
 			}
 		}
 	}
@@ -580,27 +570,59 @@ public class WorldModel
 	//
 	private void determinePlayerPos()
 	{
-		double weight; 	
-		double xball = aWorldData.getBall().position.getX();
-		double yball = aWorldData.getBall().position.getY();
-		double xavg;
-		double yavg;		
+		// the team coordinator may have already planned it
+		if ( coordinator != null 
+				&& coordinator.getDestination( aWorldData.time, role, destination ) )
+			return;
 		
-		weight = 0.30; 			// magic number
-		Vector2d refPsn;		// my 'reference' position
+		// the precomputed target for this ball position 
+		if ( positionGrid != null ) {
+			positionGrid.lookup( role, whoseBallIs, 
+								 aWorldData.getBall().position, destination );
+			return;
+		}
 		
+		Vector2d refPsn = getReferencePos( whoseBallIs, 	// my 'reference' position
+										   homePos, offensePos, defensePos ); 
+		
+		blendPosition( aWorldData.getBall().position, refPsn, 
+					   amIGoalie(), parameters.getPositionWeight(), destination ); 
+		//System.out.println( "side=" + side + " destination = " + destination );
+	}
+	
+	
+	// this method returns the reference position depending on 
+	// the ball possession 
+	public static Vector2d getReferencePos( int whoseBallIs, 
+											Vector2d homePos, 
+											Vector2d offensePos, 
+											Vector2d defensePos )
+	{
 		if( whoseBallIs == OUR_BALL ) 	
-			refPsn = offensePos;	
+			return offensePos;	
 		else if( whoseBallIs == THEIR_BALL ) 
-			refPsn = defensePos;	
+			return defensePos;	
 		else 
-			refPsn = homePos;
+			return homePos;
+	}
+	
+	
+	// this method calculates the weighted sum of the reference position 
+	// and the ball position and stores it in 'pos'; 'weight' is how far 
+	// the player follows the ball (0.30 has always been used) 
+	public static void blendPosition( Vector2d ballPos, Vector2d refPsn, 
+									  boolean goalie, double weight, Vector2d pos )
+	{
+		double xball = ballPos.getX();
+		double yball = ballPos.getY();
+		double xavg;
+		double yavg;		
 		
 		double xref = refPsn.getX(); 
 		double yref = refPsn.getY();
 		
 		double weight2 = 1.0;
-		if ( amIGoalie() )
+		if ( goalie )
 			weight2 = 0.33; 
 
 		
@@ -609,22 +631,26 @@ public class WorldModel
 		yavg = yball*weight + yref*(1-weight);	
 		
 		// prevent the goalie from leaving the goal area
-		if ( amIGoalie() ) {
+		if ( goalie ) {
 			if ( Math.abs( yavg ) > PENALTY_CENTER )
 				yavg = Util.sign( yavg ) * PENALTY_CENTER;
 		}
 			
-		destination.setXY( new Vector2d( xavg, yavg ) ); 
-		//System.out.println( "side=" + side + " destination = " + destination );
+		pos.setXY( xavg, yavg ); 
 	}
 		
 
-	// this is a stub.
 	// this method determines the position where I player should move in 
-	// the special situations other than regular game play
+	// the special situations other than regular game play; I am going to
+	// my position in the stored case nearest to this situation, if any
 	//
 	private void determinePlayerPosSpecial()
 	{
+		if ( setPieces != null 
+				&& setPieces.lookup( aFormation, gameMode, sideToContinue == myside, role,
+									 aWorldData.getBall().position, destination ) )
+			return;
+		
 		determinePlayerPos();
 	}
 	
@@ -644,9 +670,11 @@ public class WorldModel
 	}
 		
 			
+	// returns true if my teammate in 'pos' would be offside 
+	// if the ball were passed to him now
 	public boolean isInOffSide( Vector2d pos ) 
 	{
-		return false; 
+		return offsideLine.isOffside( pos ); 
 	}
 
 	// returns true is pos is inside own penalty area
@@ -732,6 +760,28 @@ public class WorldModel
 		return myTeamIsOffside;
 	}		
 
+	public WorldPredictor getPredictor()
+	{
+		return predictor;
+	}		
+
+	public MotionTracker getMotionTracker()
+	{
+		return motionTracker;
+	}		
+
+	public OffsideLine getOffsideLine()
+	{
+		return offsideLine;
+	}		
+
+
+	// returns the name of the action code, e.g. "PASS"
+	public static String getActionName( int action )
+	{
+		return ( action >= 0 && action < ACTION_NAMES.length ) 
+					? ACTION_NAMES[action] : String.valueOf( action );
+	}
 
 	public int getActionType()
 	{	
@@ -813,9 +863,10 @@ public class WorldModel
 		return oppGoal;
 	}
 
+	// (copied, as my destination object is reused in every cycle)
 	public void setDestination( Vector2d pos )
 	{
-		destination = pos; 
+		destination.setXY( pos ); 
 	}
 
 	public void setActionTime( int t )
@@ -848,6 +899,11 @@ public class WorldModel
 		return myside; 
 	}	
 
+	public char getSideToContinue()
+	{
+		return sideToContinue; 
+	}	
+
 	public Vector2d getFacingPos()
 	{
 		return facingPos;
@@ -885,48 +941,94 @@ public class WorldModel
 	 *******************************************/
     
     // this method sets my position in my team's formation
-	public void setFormation( Formation formation )
+	public void setFormation( TeamFormation formation )
 	{
-		this.aFormation = formation;
+		this.teamFormation = formation;
 		// figure out where my place in the team formation is
 		setDefaultFormationParams(); 
 	}
 
 	
+	// this method sets the cases for positioning in the set pieces
+	// (null makes me position as in regular game play)
+	public void setSetPieces( SetPieceLibrary library )
+	{
+		this.setPieces = library;
+	}
+
+	
+	// this method sets the tuning parameters of my team 
+	public void setParameters( TuningParameters parameters )
+	{
+		this.parameters = parameters;
+		ballPossession.setParameters( parameters );
+		if ( teamFormation != null )
+			setDefaultFormationParams();
+	}
+
+	public TuningParameters getParameters()
+	{
+		return parameters;
+	}
+
+	
+	// this method lets the coordinator plan my team's possession 
+	// and positions (null makes me plan them myself)
+	public void setCoordinator( TeamCoordinator coordinator )
+	{
+		this.coordinator = coordinator;
+	}
+
+	
     // This method sets my default home, defensive, and offensive positions
-    // with respect to my role. All the magic numbers are 
-    // worthy to experiment with.  
+    // with respect to my role.  
 	private void setDefaultFormationParams()
+	{
+		aFormation = teamFormation.get();
+		positionGrid = PositionGrid.forFormation( aFormation, parameters );
+		getFormationPositions( aFormation, role, parameters, 
+							   homePos, offensePos, defensePos );
+				
+		//if ( role == 10 )
+			//System.out.println( "side = " + side + " homePos = " + homePos 
+				 //+ "\n defensePos = " + defensePos + " offensePos = " + offensePos); 
+	}
+
+	
+    // This method calculates the default home, defensive, and offensive 
+    // positions of 'role' in the formation. The offsets of the lines are 
+    // worthy to experiment with (see TuningParameters).  
+	public static void getFormationPositions( Formation aFormation, int role, 
+											  TuningParameters parameters, 
+											  Vector2d homePos, 
+											  Vector2d offensePos, 
+											  Vector2d defensePos )
 	{
 		double deltaXdef = 0;
 		double deltaXoff = 0;
 		
-		homePos = new Vector2d( aFormation.getHome( role ) );
-		offensePos = new Vector2d( aFormation.getHome( role ) );
-		defensePos = new Vector2d( aFormation.getHome( role ) );
+		homePos.setXY( aFormation.getHomeX( role ), aFormation.getHomeY( role ) );
+		offensePos.setXY( homePos );
+		defensePos.setXY( homePos );
 		
 		if ( aFormation.isDefender( role ) ) {
-			deltaXdef = 20;	
-			deltaXoff = 20;	
+			deltaXdef = parameters.getDefenderDeltaXdef();	
+			deltaXoff = parameters.getDefenderDeltaXoff();	
 		} else if ( aFormation.isMidfielder( role ) ) {
-			deltaXdef = 15;	
-			deltaXoff = 30;	
+			deltaXdef = parameters.getMidfielderDeltaXdef();	
+			deltaXoff = parameters.getMidfielderDeltaXoff();	
 		} else if ( aFormation.isAttacker( role ) ) {
-			deltaXdef = 15;	
-			deltaXoff = 40;	
+			deltaXdef = parameters.getAttackerDeltaXdef();	
+			deltaXoff = parameters.getAttackerDeltaXoff();	
 		} 
 		
-		if ( amIGoalie() ) {
+		if ( aFormation.isGoalie( role ) ) {
 			deltaXdef = 0;	
 			deltaXoff = 0;	
 		}
 		
 		offensePos.setX( offensePos.getX() + deltaXoff );
 		defensePos.setX( defensePos.getX() - deltaXdef );
-				
-		//if ( role == 10 )
-			//System.out.println( "side = " + side + " homePos = " + homePos 
-				 //+ "\n defensePos = " + defensePos + " offensePos = " + offensePos); 
 	}
 
 }
@@ -0,0 +1,200 @@
+/* WorldPredictor.java
+
+   Dead reckoning of the ball and of myself between the visual updates.
+
+*/
+
+package tos_teams.africa;
+
+import soccer.common.*;
+
+/**
+ * This class keeps the ball and my own state (position and velocity per
+ * simulation step) as of the latest SEE packet, and extrapolates it with
+ * the server physics: the ball slows down by FRICTIONFACTOR each step,
+ * and I accelerate by K1 times the force of my last dash, less K2 times
+ * my velocity. 
+ *
+ * When a packet arrives after a gap, the velocities are estimated from
+ * the displacement scaled by the actual number of steps (for the ball, 
+ * with the friction taken into account), rather than taking the whole
+ * displacement as one step. The state is first predicted to the time of
+ * the packet, and the difference from what is seen is kept as a measure
+ * of how much the prediction can be trusted. Packets older than the
+ * latest one are rejected.
+ */
+
+public class WorldPredictor
+{
+	// after a longer gap, the velocities are not estimated
+	public static final int 	MAX_GAP = MotionTracker.MAX_GAP;
+
+	// weight of the exponential filter of the prediction error
+	private static final double ERROR_WEIGHT = 0.1;
+
+	private boolean 	started = false;
+	private int 		time;				// of the latest observation
+
+	private double 		ballX, ballY, ballVx, ballVy;
+	private double 		myX, myY, myVx, myVy;
+
+	// my last dash (direction in degrees, force)
+	private double 		dashDir = 0;
+	private double 		dashForce = 0;
+
+	// the averaged distance between the predicted and seen ball position
+	private double 		ballError = 0;
+	private int 		gapCount = 0;		// the updates after lost packets
+
+
+	// this method returns true if 'time' is not older than the latest 
+	// observation (or the server has restarted counting the steps)
+	public boolean isNewer( int time )
+	{
+		return !started || !ServerTime.isStale( this.time, time );
+	}
+
+
+	// this method corrects the state with what is seen in 'world';
+	// it returns false if the packet is older than the latest one
+	public boolean correct( WorldData world )
+	{
+		double bx = world.getBall().position.getX();
+		double by = world.getBall().position.getY();
+		double mx = world.getMyself().position.getX();
+		double my = world.getMyself().position.getY();
+
+		if ( !started || ServerTime.delta( time, world.time ) <= -ServerTime.REORDER_WINDOW ) {
+			started = true;
+			time = world.time;
+			ballX = bx; 	ballY = by;
+			myX = mx; 		myY = my;
+			ballVx = ballVy = myVx = myVy = 0;
+			return true;
+		}
+
+		if ( ServerTime.isStale( time, world.time ) )
+			return false;
+		int steps = ServerTime.delta( time, world.time );
+		time = world.time;
+
+		if ( steps > MAX_GAP ) {
+			// too long ago to tell how anything is moving 
+			ballVx = ballVy = myVx = myVy = 0;
+		} else {
+			if ( steps > 1 )
+				gapCount++;
+			
+			// how wrong the prediction of the ball would have been 
+			double px = ballX, py = ballY, vx = ballVx, vy = ballVy;
+			double decay = 1 - WorldModel.FRICTIONFACTOR;
+			for ( int i = 0; i < steps; i++ ) {
+				px += vx;
+				py += vy;
+				vx *= decay;
+				vy *= decay;
+			}
+			double ex = bx - px, ey = by - py;
+			ballError = ERROR_WEIGHT * Math.sqrt( ex*ex + ey*ey ) 
+							+ ( 1 - ERROR_WEIGHT ) * ballError;
+
+			// the ball travelled v0*(1 + q + ... + q^(steps-1)), and its
+			// velocity in the last step was v0*q^(steps-1)
+			double q = decay;
+			double qn = Math.pow( q, steps );
+			double scale = Math.pow( q, steps - 1 ) * ( 1 - q ) / ( 1 - qn );
+			ballVx = ( bx - ballX ) * scale;
+			ballVy = ( by - ballY ) * scale;
+
+			// my own velocity changes with my dashes; the average will do 
+			myVx = ( mx - myX ) / steps;
+			myVy = ( my - myY ) / steps;
+		}
+
+		ballX = bx; 	ballY = by;
+		myX = mx; 		myY = my;
+		return true;
+	}
+
+
+	// this method records my dash (also a turn, which is a dash with no force)
+	public void setDash( double dir, double force )
+	{
+		dashDir = dir;
+		dashForce = force;
+	}
+
+
+	// this method stores in 'pos' and 'vel' the ball state predicted
+	// 'steps' steps after the latest observation
+	public void predictBall( int steps, Vector2d pos, Vector2d vel )
+	{
+		double px = ballX, py = ballY, vx = ballVx, vy = ballVy;
+		double decay = 1 - WorldModel.FRICTIONFACTOR;
+		for ( int i = 0; i < steps; i++ ) {
+			px += vx;
+			py += vy;
+			vx *= decay;
+			vy *= decay;
+		}
+		pos.setXY( px, py );
+		if ( vel != null )
+			vel.setXY( vx, vy );
+	}
+
+
+	// this method stores in 'pos' and 'vel' my state predicted 'steps' 
+	// steps after the latest observation, if I keep dashing as I did last
+	public void predictMyself( int steps, Vector2d pos, Vector2d vel )
+	{
+		double px = myX, py = myY, vx = myVx, vy = myVy;
+		double fx = dashForce * WorldModel.K1 * Math.cos( Util.Deg2Rad( dashDir ) );
+		double fy = dashForce * WorldModel.K1 * Math.sin( Util.Deg2Rad( dashDir ) );
+		for ( int i = 0; i < steps; i++ ) {
+			px += vx;
+			py += vy;
+			vx += fx - vx * WorldModel.K2;
+			vy += fy - vy * WorldModel.K2;
+		}
+		pos.setXY( px, py );
+		if ( vel != null )
+			vel.setXY( vx, vy );
+	}
+
+
+	// returns the number of steps from the latest observation to 'now'
+	public int getStepsSince( int now )
+	{
+		return ServerTime.delta( time, now );
+	}
+
+
+	public int getTime()
+	{
+		return time;
+	}
+
+	public void getBallVelocity( Vector2d vel )
+	{
+		vel.setXY( ballVx, ballVy );
+	}
+
+	public void getMyVelocity( Vector2d vel )
+	{
+		vel.setXY( myVx, myVy );
+	}
+
+
+	// returns the averaged error of the ball prediction (meters)
+	public double getBallError()
+	{
+		return ballError;
+	}
+
+
+	// returns the number of updates that came after lost packets
+	public int getGapCount()
+	{
+		return gapCount;
+	}
+}
@@ -0,0 +1,120 @@
+/* VectorPassLaneKernel.java
+
+   The pass lane kernel implemented with the Vector API.
+   It needs the JVM option --add-modules jdk.incubator.vector
+   both for compiling and running; without it, PassLaneKernel
+   falls back to the scalar kernel.
+
+   This file is kept apart from the rest of the team, so that the team
+   builds without the incubator module (and its warning). It is compiled
+   only where the module is present, after the team and against its
+   classes:
+
+     javac -d classes *.java
+     javac --add-modules jdk.incubator.vector -cp classes -d classes vector/*.java
+
+*/
+
+package tos_teams.africa;
+
+import jdk.incubator.vector.*;
+
+// this kernel simulates as many interceptions in parallel as there are
+// double lanes in the preferred vector shape of this CPU.
+// each lane is one (direction, player) pair; a lane stops changing its
+// result once the player has reached the ball, and the loop ends when
+// all lanes are done.
+
+public class VectorPassLaneKernel extends PassLaneKernel
+{
+	private static final VectorSpecies<Double> SPECIES
+											= DoubleVector.SPECIES_PREFERRED;
+
+	// there is no gain if the vector has just one lane
+	public static boolean isUseful()
+	{
+		return SPECIES.length() >= 2;
+	}
+
+	public String getName()
+	{
+		return "vector x" + SPECIES.length();
+	}
+
+	protected void simulate( Workspace w, int n,
+							double ballX, double ballY, double fk )
+	{
+		int k = 0;
+		int upper = SPECIES.loopBound( n );
+
+		for ( ; k < upper; k += SPECIES.length() ) {
+			simulateLanes( w, k, ballX, ballY, fk );
+			for ( int j = k; j < k + SPECIES.length(); j++ )
+				w.time[j] = (int)w.timeD[j];
+		}
+
+		// the remaining pairs
+		for ( ; k < n; k++ )
+			w.time[k] = simulateOne( ballX, ballY,
+									 w.ballVx[k], w.ballVy[k],
+									 w.plrX[k], w.plrY[k],
+									 w.plrVx[k], w.plrVy[k], fk );
+	}
+
+
+	// this method does the same as PassLaneKernel.simulateOne()
+	// for the pairs k ... k + SPECIES.length() - 1
+	private void simulateLanes( Workspace w, int k,
+								double ballX, double ballY, double fk )
+	{
+		double decay = 1.0 - WorldModel.FRICTIONFACTOR;
+		double cr2 = WorldModel.CONTROLRANGE * WorldModel.CONTROLRANGE;
+
+		DoubleVector bx 	= DoubleVector.broadcast( SPECIES, ballX );
+		DoubleVector by 	= DoubleVector.broadcast( SPECIES, ballY );
+		DoubleVector bvx 	= DoubleVector.fromArray( SPECIES, w.ballVx, k );
+		DoubleVector bvy 	= DoubleVector.fromArray( SPECIES, w.ballVy, k );
+		DoubleVector px 	= DoubleVector.fromArray( SPECIES, w.plrX, k );
+		DoubleVector py 	= DoubleVector.fromArray( SPECIES, w.plrY, k );
+		DoubleVector vx 	= DoubleVector.fromArray( SPECIES, w.plrVx, k );
+		DoubleVector vy 	= DoubleVector.fromArray( SPECIES, w.plrVy, k );
+		DoubleVector ax 	= DoubleVector.zero( SPECIES );
+		DoubleVector ay 	= DoubleVector.zero( SPECIES );
+		DoubleVector times 	= DoubleVector.broadcast( SPECIES,
+											PassLaneSnapshot.MAX_TIME );
+		VectorMask<Double> done = SPECIES.maskAll( false );
+
+		for ( int t = 0; t < PassLaneSnapshot.MAX_TIME; t++ ) {
+			bx = bx.add( bvx );
+			by = by.add( bvy );
+			bvx = bvx.mul( decay );
+			bvy = bvy.mul( decay );
+
+			// the unit vector pointing from the player to the ball
+			DoubleVector dx = bx.sub( px );
+			DoubleVector dy = by.sub( py );
+			DoubleVector dist = dx.mul( dx ).add( dy.mul( dy ) ).sqrt();
+			VectorMask<Double> atBall = dist.compare( VectorOperators.EQ, 0.0 );
+			DoubleVector ux = dx.div( dist ).blend( 1.0, atBall );
+			DoubleVector uy = dy.div( dist ).blend( 0.0, atBall );
+
+			px = px.add( vx );
+			py = py.add( vy );
+			vx = vx.add( ax );
+			vy = vy.add( ay );
+			ax = ux.mul( fk ).sub( vx.mul( WorldModel.K2 ) );
+			ay = uy.mul( fk ).sub( vy.mul( WorldModel.K2 ) );
+
+			DoubleVector ex = px.sub( bx );
+			DoubleVector ey = py.sub( by );
+			VectorMask<Double> reached = ex.mul( ex ).add( ey.mul( ey ) )
+							.compare( VectorOperators.LT, cr2 ).andNot( done );
+			times = times.blend( (double)t, reached );
+			done = done.or( reached );
+			if ( done.allTrue() )
+				break;
+		}
+
+		times.intoArray( w.timeD, k );
+	}
+}